@@ -0,0 +1,30 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Thread factories for the layers of a session. This is the Java 21 version, loaded from
+ * META-INF/versions/21 of the jar in place of the Java 8 one.
+ */
+public final class Threads {
+
+    private Threads() {
+    }
+
+    /**
+     * @return true if this JVM can run layers on virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return true;
+    }
+
+    /**
+     * @param prefix
+     *            name of the threads, followed by a counter
+     * @return a factory of virtual threads
+     */
+    public static ThreadFactory virtualThreadFactory(String prefix) {
+        return Thread.ofVirtual().name(prefix, 0).factory();
+    }
+}
@@ -0,0 +1,23 @@
+package br.org.scadabr.dnp34j.master;
+
+/**
+ * Checks of the main() tests : each one is printed, and the first one failing stops the test.
+ */
+public final class Check {
+
+    private Check() {
+    }
+
+    /**
+     * @param name
+     *            what is checked
+     * @param ok
+     *            false if the check failed
+     */
+    public static void check(String name, boolean ok) {
+        System.out.println(name + " : " + (ok ? "OK" : "FAILED"));
+        if (!ok) {
+            throw new RuntimeException(name + " failed");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compare the table sliced CRC with a byte by byte computation, and check the
+ * data block helpers used by the link layer.
+ */
+public class TestDnpCrc {
+
+    public static void main(String[] args) throws Exception {
+
+        // Reset link states from the DNP3 specification : 05 64 05 C0 01 00 00 04 E9 21
+        byte[] header = new byte[] {0x05, 0x64, 0x05, (byte) 0xC0, 0x01, 0x00, 0x00, 0x04, 0, 0};
+        DnpCrc.writeCRC(header, 0, 8);
+        check("header CRC", header[8] == (byte) 0xE9 && header[9] == 0x21);
+        check("header check", DnpCrc.checkCRC(header, 0, 10));
+        check("legacy check", DnpCrc.checkCRC(header));
+        check("ByteBuffer check", DnpCrc.checkCRC(ByteBuffer.wrap(header)));
+
+        // every length and offset against the byte by byte algorithm
+        Random random = new Random(0);
+        byte[] data = new byte[300];
+        random.nextBytes(data);
+        boolean same = true;
+        for (int off = 0; off < 9; off++) {
+            for (int len = 0; len + off <= data.length; len++) {
+                same &= (DnpCrc.crc(data, off, len) == reference(data, off, len));
+            }
+        }
+        check("sliced CRC", same);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        direct.position(3);
+        check("direct ByteBuffer CRC", DnpCrc.crc(direct) == reference(data, 3, data.length - 3));
+
+        // 40 data octets : 2 full blocks and a short one
+        byte[] blocks = new byte[40 + 6];
+        int position = 0;
+        for (int i = 0; i < 40; i += 16) {
+            int size = Math.min(16, 40 - i);
+            System.arraycopy(data, i, blocks, position, size);
+            position = DnpCrc.writeCRC(blocks, position, size);
+        }
+        int size = DnpCrc.stripBlocks(blocks, 0, blocks.length);
+        boolean stripped = (size == 40);
+        for (int i = 0; i < 40; i++) {
+            stripped &= (blocks[i] == data[i]);
+        }
+        check("strip blocks", stripped);
+
+        position = 0;
+        for (int i = 0; i < 40; i += 16) {
+            int length = Math.min(16, 40 - i);
+            System.arraycopy(data, i, blocks, position, length);
+            position = DnpCrc.writeCRC(blocks, position, length);
+        }
+        blocks[20] ^= 0x01;
+        check("strip corrupted blocks", DnpCrc.stripBlocks(blocks, 0, blocks.length) == -1);
+    }
+
+    private static int reference(byte[] data, int off, int len) {
+        byte[] segment = new byte[len];
+        System.arraycopy(data, off, segment, 0, len);
+        byte[] crc = DnpCrc.makeCRC(segment);
+        int bitwise = 0;
+        for (int i = 0; i < len; i++) {
+            bitwise ^= (segment[i] & 0xFF);
+            for (int bit = 0; bit < 8; bit++) {
+                bitwise = ((bitwise & 1) != 0) ? ((bitwise >>> 1) ^ 0xA6BC) : (bitwise >>> 1);
+            }
+        }
+        bitwise = ~bitwise & 0xFFFF;
+        if (bitwise != ((crc[0] & 0xFF) | ((crc[1] & 0xFF) << 8))) {
+            throw new RuntimeException("makeCRC differs from bitwise CRC");
+        }
+        return bitwise;
+    }
+}
@@ -0,0 +1,131 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Send numbered frames of every length through a small ring, from a producer thread to a
+ * consumer thread, with each wait strategy, then check that closing the ring wakes up both sides.
+ */
+public class TestFrameRing {
+
+    private static final int SLOT_SIZE = 64;
+    private static final int FRAMES = 200000;
+
+    // a spinning side holds its core until preempted, which makes each hop slow on a single core
+    private static final int SPIN_FRAMES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        FrameRing ring = new FrameRing(3, SLOT_SIZE, WaitStrategy.PARK);
+        check("empty", ring.isEmpty() && ring.size() == 0 && ring.poll() == -1);
+
+        ring.put(new byte[] {1, 2, 3}, 0, 3);
+        check("poll", ring.size() == 1 && ring.poll() == 3 && ring.getFrame()[2] == 3);
+        ring.release();
+        check("release", ring.isEmpty());
+
+        // capacity rounded up to 4
+        for (int i = 0; i < 4; i++) {
+            ring.put(new byte[] {(byte) i}, 0, 1);
+        }
+        check("full", ring.size() == 4 && !ring.isEmpty());
+
+        boolean rejected = false;
+        try {
+            FrameRing other = new FrameRing(1, SLOT_SIZE, WaitStrategy.PARK);
+            other.claim();
+            other.publish(SLOT_SIZE + 1);
+        }
+        catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("frame too long", rejected);
+
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            int frames = (strategy == WaitStrategy.SPIN) ? SPIN_FRAMES : FRAMES;
+            check(strategy + " transfer", transfer(strategy, frames));
+        }
+
+        check("close wakes the consumer", closeWakes(false));
+        check("close wakes the producer", closeWakes(true));
+    }
+
+    /**
+     * @return true if every frame came out whole and in order
+     */
+    private static boolean transfer(WaitStrategy strategy, final int frames) throws Exception {
+        final FrameRing ring = new FrameRing(4, SLOT_SIZE, strategy);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < frames; i++) {
+                    byte[] slot = ring.claim();
+                    int length = 1 + i % SLOT_SIZE;
+                    for (int j = 0; j < length; j++) {
+                        slot[j] = (byte) (i + j);
+                    }
+                    ring.publish(length);
+                }
+            }
+            catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        producer.setDaemon(true);
+        producer.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            int length = ring.next();
+            if (length != 1 + i % SLOT_SIZE) {
+                System.out.println("frame " + i + " : length " + length);
+                return false;
+            }
+            byte[] frame = ring.getFrame();
+            for (int j = 0; j < length; j++) {
+                if (frame[j] != (byte) (i + j)) {
+                    System.out.println("frame " + i + " : byte " + j + " is " + frame[j]);
+                    return false;
+                }
+            }
+            ring.release();
+        }
+        System.out.println(strategy + " : " + frames + " frames in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        producer.join(5000);
+        return failure.get() == null && ring.isEmpty();
+    }
+
+    /**
+     * @return true if a side waiting on an empty, or full, ring was released by close()
+     */
+    private static boolean closeWakes(final boolean producerSide) throws Exception {
+        final FrameRing ring = new FrameRing(1, SLOT_SIZE, WaitStrategy.PARK);
+        if (producerSide) {
+            ring.put(new byte[1], 0, 1);
+        }
+
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread waiter = new Thread(() -> {
+            try {
+                result.set(producerSide ? ring.claim() : (Object) ring.next());
+            }
+            catch (Exception e) {
+                result.set(e);
+            }
+        });
+        waiter.setDaemon(true);
+        waiter.start();
+
+        Thread.sleep(100);
+        boolean waiting = waiter.isAlive();
+        ring.close();
+        waiter.join(2000);
+
+        Object value = result.get();
+        return waiting && !waiter.isAlive()
+                && (producerSide ? value instanceof Exception : Integer.valueOf(-1).equals(value));
+    }
+}
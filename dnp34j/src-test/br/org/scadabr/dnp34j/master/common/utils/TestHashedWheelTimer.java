@@ -0,0 +1,108 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Arm timeouts shorter and longer than a turn of a small wheel, cancel some of them, and check
+ * that each one runs once, not before its deadline, not much after, and on the right thread.
+ */
+public class TestHashedWheelTimer {
+
+    private static final long TICK = 5;
+    private static final int BUCKETS = 16; // a turn of the wheel : 80 ms
+
+    // scheduling slack allowed after a deadline
+    private static final long LATE = 100;
+
+    public static void main(String[] args) throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer(TICK, BUCKETS, "test timer");
+
+        Random random = new Random(0);
+        int count = 500;
+        final CountDownLatch done = new CountDownLatch(count - count / 5);
+        final AtomicInteger early = new AtomicInteger();
+        final AtomicInteger late = new AtomicInteger();
+        final AtomicInteger cancelledRuns = new AtomicInteger();
+        final AtomicLong worst = new AtomicLong();
+
+        for (int i = 0; i < count; i++) {
+            final long delay = random.nextInt(400);
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            final boolean cancel = (i % 5 == 0);
+            HashedWheelTimer.Timeout timeout = timer.newTimeout(() -> {
+                if (cancel) {
+                    cancelledRuns.incrementAndGet();
+                    return;
+                }
+                long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - deadline);
+                if (System.nanoTime() < deadline) {
+                    early.incrementAndGet();
+                }
+                else if (lag > LATE) {
+                    late.incrementAndGet();
+                }
+                worst.accumulateAndGet(lag, Math::max);
+                done.countDown();
+            }, delay);
+            if (cancel) {
+                timeout.cancel();
+            }
+        }
+
+        check("all expired", done.await(2, TimeUnit.SECONDS));
+        System.out.println("worst lag " + worst.get() + " ms");
+        check("none early", early.get() == 0);
+        check("none late", late.get() == 0);
+
+        Thread.sleep(200);
+        check("cancelled never run", cancelledRuns.get() == 0);
+
+        // a task given an executor never runs on the timer thread
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+        final CountDownLatch ran = new CountDownLatch(1);
+        timer.newTimeout(() -> {
+            ranOn.set(Thread.currentThread());
+            ran.countDown();
+        }, 20, executor);
+        check("executor task", ran.await(1, TimeUnit.SECONDS) && ranOn.get() != timer.getThread());
+
+        // a timeout cancelled while queued in its executor doesn't run
+        final CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blocked.await();
+            }
+            catch (InterruptedException e) {
+                // Ignore
+            }
+        });
+        final AtomicBoolean queuedRan = new AtomicBoolean();
+        HashedWheelTimer.Timeout queued = timer.newTimeout(() -> queuedRan.set(true), 0, executor);
+        Thread.sleep(50);
+        queued.cancel();
+        blocked.countDown();
+        Thread.sleep(50);
+        check("cancelled in executor", !queuedRan.get() && queued.isCancelled());
+
+        executor.shutdown();
+
+        // stopped timer : pending timeouts never run
+        final AtomicBoolean afterStop = new AtomicBoolean();
+        timer.newTimeout(() -> afterStop.set(true), 50);
+        timer.stop();
+        timer.getThread().join(1000);
+        Thread.sleep(100);
+        check("stop", !timer.getThread().isAlive() && !afterStop.get());
+    }
+}
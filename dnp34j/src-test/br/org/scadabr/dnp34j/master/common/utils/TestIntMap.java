@@ -0,0 +1,89 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compare the open addressing map with a HashMap over random puts and removes, with keys
+ * colliding in a small range and spread over the whole int range.
+ */
+public class TestIntMap {
+
+    public static void main(String[] args) throws Exception {
+        IntMap<Integer> map = new IntMap<Integer>(2);
+        check("empty", map.size() == 0 && map.get(5) == null && map.remove(5) == null);
+
+        check("put", map.put(5, 50) == null && map.get(5) == 50 && map.size() == 1);
+        check("replace", map.put(5, 51) == 50 && map.get(5) == 51 && map.size() == 1);
+        check("remove", map.remove(5) == 51 && map.get(5) == null && map.size() == 0);
+        check("negative key", map.put(-7, 70) == null && map.get(-7) == 70 && map.remove(-7) == 70);
+
+        // Integer.MIN_VALUE marks the free slots
+        boolean rejected = false;
+        try {
+            map.put(Integer.MIN_VALUE, 1);
+        }
+        catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("free key rejected", rejected);
+        check("free key never found", map.get(Integer.MIN_VALUE) == null
+                && map.remove(Integer.MIN_VALUE) == null && map.size() == 0);
+
+        check("small keys", same(new Random(1), 64));
+        check("spread keys", same(new Random(2), Integer.MAX_VALUE));
+
+        // a copy isn't changed by its original
+        IntMap<Integer> original = new IntMap<Integer>();
+        for (int i = 0; i < 100; i++) {
+            original.put(i, i);
+        }
+        IntMap<Integer> copy = new IntMap<Integer>(original);
+        original.remove(10);
+        original.put(200, 200);
+        check("copy", copy.size() == 100 && copy.get(10) == 10 && copy.get(200) == null
+                && original.size() == 100);
+    }
+
+    /**
+     * @return true if the map always agreed with a HashMap
+     */
+    private static boolean same(Random random, int range) {
+        IntMap<Integer> map = new IntMap<Integer>();
+        Map<Integer, Integer> reference = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(range) - range / 2;
+            int value = random.nextInt();
+            Integer expected;
+            Integer actual;
+            if (random.nextInt(3) == 0) {
+                expected = reference.remove(key);
+                actual = map.remove(key);
+            }
+            else {
+                expected = reference.put(key, value);
+                actual = map.put(key, value);
+            }
+
+            if ((expected == null) ? (actual != null) : !expected.equals(actual)) {
+                System.out.println("key " + key + " : " + actual + " instead of " + expected);
+                return false;
+            }
+            if (map.size() != reference.size()) {
+                System.out.println("size " + map.size() + " instead of " + reference.size());
+                return false;
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> entry : reference.entrySet()) {
+            if (!entry.getValue().equals(map.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+package br.org.scadabr.dnp34j.master.layers.application;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import br.org.scadabr.dnp34j.master.session.DNPUser;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+
+/**
+ * Decode well formed, reversed, truncated and empty ranges with the in place fragment parser.
+ * Each fragment is decoded on its own thread, so a parser looping on a bad range fails the test
+ * instead of hanging it.
+ */
+public class TestFragmentParser {
+
+    private static final AtomicInteger visits = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        DNPConfig config = new DNPConfig(new EthernetParameters("127.0.0.1", 20000), 1, 2);
+        config.setDatabaseEnabled(false);
+        config.setPointVisitor((group, variation, index, flags, valueType, valueBits, timestamp,
+                controlStatus) -> visits.incrementAndGet());
+        AppRcv appRcv = new AppRcv(new DNPUser(config, e -> {}, iin -> {}));
+
+        // g30v1, 8 bits range 0 to 1 : 2 analog inputs of 5 bytes
+        check("range", parse(appRcv, 0xC0, 0x81, 0, 0, 30, 1, 0x00, 0, 1,
+                1, 10, 0, 0, 0, 1, 20, 0, 0, 0) == null && visits.get() == 2);
+
+        // g1v2, 8 bits range 7 to 0
+        check("reversed range", parse(appRcv, 0xC0, 0x81, 0, 0, 1, 2, 0x00, 7, 0) instanceof Exception);
+
+        // g1v2, 16 bits range 7 to 0
+        check("reversed 16 bits range",
+                parse(appRcv, 0xC0, 0x81, 0, 0, 1, 2, 0x01, 7, 0, 0, 0) instanceof Exception);
+
+        // g30v1, range 0 to 1 missing the last 3 bytes
+        check("truncated range", parse(appRcv, 0xC0, 0x81, 0, 0, 30, 1, 0x00, 0, 1,
+                1, 10, 0, 0, 0, 1, 20) instanceof Exception && visits.get() == 0);
+
+        // g30v1 indexed, second object cut
+        check("truncated indexes", parse(appRcv, 0xC0, 0x81, 0, 0, 30, 1, 0x17, 2,
+                3, 1, 10, 0, 0, 0, 4, 1, 20) instanceof Exception && visits.get() == 1);
+
+        // object header cut after its group
+        check("truncated header", parse(appRcv, 0xC0, 0x81, 0, 0, 30) instanceof Exception);
+
+        // g30v1, no object counted, then g1v2 range 0 to 0
+        check("zero count", parse(appRcv, 0xC0, 0x81, 0, 0, 30, 1, 0x07, 0, 30, 1, 0x17, 0, 30, 1, 0x28, 0, 0,
+                1, 2, 0x00, 0, 0, 0x81) == null && visits.get() == 1);
+    }
+
+    /**
+     * @return the failure of the decoding, null if none
+     */
+    private static Throwable parse(AppRcv appRcv, int... bytes) throws Exception {
+        byte[] fragment = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            fragment[i] = (byte) bytes[i];
+        }
+
+        visits.set(0);
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread parser = new Thread(() -> {
+            try {
+                appRcv.updateDatamap(fragment, fragment.length);
+            }
+            catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        parser.setDaemon(true);
+        parser.start();
+        parser.join(2000);
+        if (parser.isAlive()) {
+            throw new RuntimeException("parser still running after 2 s");
+        }
+        return failure.get();
+    }
+}
@@ -0,0 +1,352 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import br.org.scadabr.dnp34j.master.common.utils.DnpCrc;
+
+/**
+ * <p>
+ * Outstations answering the sessions of the tests over TCP, on the loopback interface. Every
+ * connection may host all the station addresses, as a multi-drop line does.
+ *
+ * <p>
+ * Link resets and confirmed frames are acknowledged. Every request gets a response without any
+ * object, but integrity polls (group 60 variation 1) : their response holds analog input 0, of
+ * group 30 variation 1, whose value is the address of the station. Unsolicited responses are sent
+ * on demand, and the application confirms received are kept.
+ */
+public class Outstation implements Runnable {
+
+    private static final int GROUP_60 = 60;
+    private static final int ANALOG_INPUT = 30;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final ServerSocket server;
+    private final int[] addresses;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+    private final List<OutputStream> outputs = new CopyOnWriteArrayList<OutputStream>();
+    private volatile long delay;
+
+    private final ConcurrentHashMap<Integer, AtomicInteger> requests = new ConcurrentHashMap<Integer, AtomicInteger>();
+    private final ConcurrentLinkedQueue<Long> integrityPolls = new ConcurrentLinkedQueue<Long>();
+    private final ConcurrentLinkedQueue<Integer> confirms = new ConcurrentLinkedQueue<Integer>();
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * Listen on a free port of the loopback interface
+     *
+     * @param addresses
+     *            addresses of the stations
+     */
+    public Outstation(int... addresses) throws IOException {
+        this.addresses = addresses.clone();
+        for (int address : addresses) {
+            requests.put(address, new AtomicInteger());
+        }
+
+        server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this, "outstation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    @Override
+    public void run() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+
+                Thread thread = new Thread(() -> serve(socket), "outstation connection");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        byte[] buffer = new byte[4096];
+        int start = 0;
+        int end = 0;
+        OutputStream out = null;
+
+        try {
+            InputStream in = socket.getInputStream();
+            out = socket.getOutputStream();
+            outputs.add(out);
+
+            while (true) {
+                // look for 0x05 0x64
+                while (end - start >= 2 && (buffer[start] != 0x05 || buffer[start + 1] != 0x64)) {
+                    start++;
+                }
+
+                int total = (end - start >= 3) ? frameSize(buffer[start + 2] & 0xFF) : Integer.MAX_VALUE;
+                if (end - start < 10 || end - start < total) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int read = in.read(buffer, end, buffer.length - end);
+                    if (read < 0) {
+                        return;
+                    }
+                    end += read;
+                    continue;
+                }
+
+                handle(buffer, start, total, out);
+                start += total;
+            }
+        }
+        catch (IOException e) {
+            // closed
+        }
+        finally {
+            sockets.remove(socket);
+            outputs.remove(out);
+        }
+    }
+
+    private void handle(byte[] frame, int off, int total, OutputStream out) throws IOException {
+        int control = frame[off + 3] & 0xFF;
+        int destination = (frame[off + 4] & 0xFF) | ((frame[off + 5] & 0xFF) << 8);
+        int source = (frame[off + 6] & 0xFF) | ((frame[off + 7] & 0xFF) << 8);
+
+        if (!requests.containsKey(destination) || (control & 0x40) == 0) {
+            // not one of ours, or not from a primary station
+            return;
+        }
+
+        switch (control & 0x0F) {
+            case 0x00: // reset link
+            case 0x02: // test link
+                write(out, frame(0x00, source, destination, new byte[0], 0));
+                break;
+
+            case 0x09: // request link status
+                write(out, frame(0x0B, source, destination, new byte[0], 0));
+                break;
+
+            case 0x03: // confirmed user data
+            case 0x04: // unconfirmed user data
+                if ((control & 0x0F) == 0x03) {
+                    write(out, frame(0x00, source, destination, new byte[0], 0));
+                }
+                int size = DnpCrc.stripBlocks(frame, off + 10, total - 10);
+                if (size > 1) {
+                    // skip the transport header
+                    respond(frame, off + 11, size - 1, source, destination, out);
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private void respond(byte[] apdu, int off, int length, int master, int address, OutputStream out)
+            throws IOException {
+        int function = apdu[off + 1] & 0xFF;
+        if (function == 0x00) {
+            // application confirm
+            confirms.add(apdu[off] & 0xFF);
+            return;
+        }
+
+        requests.get(address).incrementAndGet();
+
+        boolean integrity = false;
+        for (int i = off + 2; i + 1 < off + length; i += 3) {
+            integrity |= (apdu[i] == GROUP_60 && apdu[i + 1] == 1);
+            // class objects use qualifier 0x06 : no range
+        }
+        if (integrity) {
+            integrityPolls.add(System.currentTimeMillis());
+        }
+
+        long wait = delay;
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            }
+            catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+
+        byte[] response = new byte[32];
+        int position = 0;
+        response[position++] = (byte) 0xC0; // transport header : first and final
+        response[position++] = (byte) (0xC0 | (apdu[off] & 0x0F));
+        response[position++] = (byte) 0x81;
+        response[position++] = 0; // internal indications
+        response[position++] = 0;
+        if (integrity) {
+            position = analogInput(response, position, address);
+        }
+        write(out, frame(0x44, master, address, response, position));
+    }
+
+    /**
+     * Send an unsolicited response on every connection, asking for a confirm. It holds analog input
+     * 0, with a value.
+     *
+     * @param master
+     *            address of the master
+     * @param address
+     *            address of the station sending it
+     * @param seq
+     *            its application sequence number
+     * @param value
+     *            value of the analog input
+     */
+    public void sendUnsolicited(int master, int address, int seq, int value) throws IOException {
+        byte[] response = new byte[32];
+        int position = 0;
+        response[position++] = (byte) 0xC0; // transport header : first and final
+        response[position++] = (byte) (0xF0 | (seq & 0x0F)); // first, final, confirm, unsolicited
+        response[position++] = (byte) 0x82;
+        response[position++] = 0; // internal indications
+        response[position++] = 0;
+        position = analogInput(response, position, value);
+
+        byte[] frame = frame(0x44, master, address, response, position);
+        for (OutputStream out : outputs) {
+            write(out, frame);
+        }
+    }
+
+    /**
+     * Append analog input 0, of group 30 variation 1
+     *
+     * @return the position after it
+     */
+    private static int analogInput(byte[] response, int position, int value) {
+        response[position++] = ANALOG_INPUT;
+        response[position++] = 1;
+        response[position++] = 0x00; // 8 bits start-stop
+        response[position++] = 0;
+        response[position++] = 0;
+        response[position++] = 0x01; // online
+        response[position++] = (byte) value;
+        response[position++] = (byte) (value >> 8);
+        response[position++] = (byte) (value >> 16);
+        response[position++] = (byte) (value >> 24);
+        return position;
+    }
+
+    /**
+     * Write a frame whole, the connection being shared with {@link #sendUnsolicited}
+     */
+    private static void write(OutputStream out, byte[] frame) throws IOException {
+        synchronized (out) {
+            out.write(frame);
+        }
+    }
+
+    /**
+     * @return a link frame, with the CRC of its header and of each data block
+     */
+    private static byte[] frame(int control, int destination, int source, byte[] data, int length) {
+        byte[] frame = new byte[frameSize(length + 5)];
+        frame[0] = 0x05;
+        frame[1] = 0x64;
+        frame[2] = (byte) (length + 5);
+        frame[3] = (byte) control;
+        frame[4] = (byte) destination;
+        frame[5] = (byte) (destination >> 8);
+        frame[6] = (byte) source;
+        frame[7] = (byte) (source >> 8);
+        int position = DnpCrc.writeCRC(frame, 0, 8);
+        for (int i = 0; i < length; i += DnpCrc.BLOCK_SIZE) {
+            int size = Math.min(DnpCrc.BLOCK_SIZE, length - i);
+            System.arraycopy(data, i, frame, position, size);
+            position = DnpCrc.writeCRC(frame, position, size);
+        }
+        return frame;
+    }
+
+    /**
+     * @return the size of a frame, from its length field
+     */
+    private static int frameSize(int lengthField) {
+        int data = lengthField - 5;
+        return 10 + data + 2 * ((data + DnpCrc.BLOCK_SIZE - 1) / DnpCrc.BLOCK_SIZE);
+    }
+
+    /**
+     * Stop listening and close the connections
+     */
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return the port the outstations listen on
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return the addresses of the stations
+     */
+    public int[] getAddresses() {
+        return addresses.clone();
+    }
+
+    /**
+     * @return number of requests received by a station
+     */
+    public int getRequestCount(int address) {
+        return requests.get(address).get();
+    }
+
+    /**
+     * @return the times the integrity polls were received, all stations together
+     */
+    public List<Long> getIntegrityPolls() {
+        return new CopyOnWriteArrayList<Long>(integrityPolls);
+    }
+
+    /**
+     * @return the application control of every confirm received, all stations together
+     */
+    public List<Integer> getConfirms() {
+        return new CopyOnWriteArrayList<Integer>(confirms);
+    }
+
+    /**
+     * @param delay
+     *            time a station takes to answer a request, in ms
+     */
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+}
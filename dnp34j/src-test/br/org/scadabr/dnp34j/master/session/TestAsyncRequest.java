@@ -0,0 +1,92 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import br.org.scadabr.dnp34j.master.common.InternalIndication;
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+
+/**
+ * Requests queued at once on a session : each one gets its own sequence number, a request whose
+ * response is too slow times out, and its late response isn't taken for the response of the next
+ * one. Cancelling the request on the line sends the next one.
+ */
+public class TestAsyncRequest {
+
+    private static final long TIMEOUT = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Outstation outstation = new Outstation(2);
+        DNPConfig config = new DNPConfig(new EthernetParameters("127.0.0.1", outstation.getPort()), 1, 2);
+        config.setRequestTimeout(TIMEOUT);
+        DNPUser user = new DNPUser(config, e -> {}, iin -> {});
+        user.init();
+        try {
+            run(user, outstation);
+        }
+        finally {
+            user.stop();
+            outstation.close();
+        }
+    }
+
+    private static void run(DNPUser user, Outstation outstation) throws Exception {
+        // built before any is sent : the same sequence number, replaced when sent
+        Buffer first = user.buildReadStaticDataMsg();
+        Buffer second = user.buildReadStaticDataMsg();
+        CompletableFuture<InternalIndication> firstResult = user.sendAsync(first);
+        CompletableFuture<InternalIndication> secondResult = user.sendAsync(second);
+        int seq = seq(firstResult);
+        check("answered", seq(secondResult) == next(seq));
+        seq = next(seq);
+
+        // a reply slower than the timeout, then an answer at once for the next request
+        outstation.setDelay(TIMEOUT + TIMEOUT / 2);
+        CompletableFuture<InternalIndication> slowResult = user.sendAsync(user.buildReadStaticDataMsg());
+        CompletableFuture<InternalIndication> nextResult = user.sendAsync(user.buildReadStaticDataMsg());
+        boolean timedOut = false;
+        try {
+            slowResult.get(TIMEOUT * 2, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e) {
+            timedOut = e.getCause().getMessage().contains("TIMEOUT");
+        }
+        outstation.setDelay(0);
+        check("timeout", timedOut && !nextResult.isDone());
+
+        // the late response comes first, with the sequence number of the slow request
+        seq = next(next(seq));
+        check("late response ignored", seq(nextResult) == seq);
+
+        // cancelled while the station is still answering it
+        outstation.setDelay(TIMEOUT / 2);
+        CompletableFuture<InternalIndication> cancelledResult = user.sendAsync(user.buildReadStaticDataMsg());
+        CompletableFuture<InternalIndication> afterResult = user.sendAsync(user.buildReadStaticDataMsg());
+        Thread.sleep(TIMEOUT / 10);
+        cancelledResult.cancel(false);
+        outstation.setDelay(0);
+        seq = next(next(seq));
+        check("cancel", cancelledResult.isCancelled() && seq(afterResult) == seq);
+
+        check("all sent", outstation.getRequestCount(2) == 6);
+    }
+
+    /**
+     * @return the sequence number of the response of a request, once received before its timeout
+     */
+    private static int seq(CompletableFuture<InternalIndication> result) throws Exception {
+        return result.get(TIMEOUT, TimeUnit.MILLISECONDS).getApplicationLayerSequence();
+    }
+
+    /**
+     * @return the sequence number of the request sent after another one
+     */
+    private static int next(int seq) {
+        return (seq + 1) & 0x0F;
+    }
+}
@@ -0,0 +1,86 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+
+/**
+ * Several sessions sharing one connection : each one gets the responses of its own station, an
+ * address can't be used twice, requests of all sessions sent at the same time all complete through
+ * the bus scheduler, and the port is closed with the last session.
+ */
+public class TestDNPChannel {
+
+    private static final int POLLS = 20;
+
+    public static void main(String[] args) throws Exception {
+        Outstation outstation = new Outstation(2, 3, 4);
+        DNPChannel channel = new DNPChannel(new EthernetParameters("127.0.0.1", outstation.getPort()));
+
+        final List<DNPUser> users = new ArrayList<DNPUser>();
+        for (int address : outstation.getAddresses()) {
+            DNPUser user = new DNPUser(new DNPConfig(channel, 1, address), e -> {}, iin -> {});
+            user.init();
+            users.add(user);
+        }
+        check("attached", channel.getSessionCount() == 3 && channel.getScheduler() != null);
+
+        DNPUser duplicate = new DNPUser(new DNPConfig(channel, 1, 3), e -> {}, iin -> {});
+        boolean rejected = false;
+        try {
+            duplicate.init();
+        }
+        catch (Exception e) {
+            rejected = e.getMessage().contains("already used");
+        }
+        check("address used twice", rejected && channel.getSessionCount() == 3);
+        duplicate.stop();
+        check("duplicate stopped", channel.getSessionCount() == 3 && channel.getPhyLayer() != null);
+
+        // every session polls its station at the same time
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        List<Thread> pollers = new ArrayList<Thread>();
+        long start = System.nanoTime();
+        for (final DNPUser user : users) {
+            Thread poller = new Thread(() -> {
+                try {
+                    for (int i = 0; i < POLLS; i++) {
+                        user.sendSynch(user.buildReadStaticDataMsg());
+                    }
+                }
+                catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            poller.start();
+            pollers.add(poller);
+        }
+        for (Thread poller : pollers) {
+            poller.join(30000);
+        }
+        System.out.println(users.size() * POLLS + " polls in " + (System.nanoTime() - start) / 1000000 + " ms");
+        check("polls", failure.get() == null);
+
+        boolean routed = true;
+        for (DNPUser user : users) {
+            int address = user.getConfig().getDNPAddressList()[1];
+            DataElement point = user.getDatabase().readAnalogInputPoint(0);
+            routed &= point != null && ((Number) point.getValue()).intValue() == address
+                    && outstation.getRequestCount(address) >= POLLS;
+        }
+        check("routed", routed);
+
+        for (DNPUser user : users) {
+            user.stop();
+        }
+        check("closed", channel.getSessionCount() == 0 && channel.getPhyLayer() == null);
+
+        outstation.close();
+    }
+}
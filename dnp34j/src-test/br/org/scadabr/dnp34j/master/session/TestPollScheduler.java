@@ -0,0 +1,108 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import br.org.scadabr.dnp34j.master.common.utils.EventLoopGroup;
+import br.org.scadabr.dnp34j.master.layers.physical.SelectorPool;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+
+/**
+ * Poll many event loop sessions with the scheduler, then check the number of polls sent, the lag
+ * measured, and that a poll still waiting for its response is skipped.
+ *
+ * <p>
+ * Arguments : number of sessions (200), test duration in ms (5000).
+ */
+public class TestPollScheduler {
+
+    private static final long INTEGRITY = 2000;
+    private static final long CLASS_1 = 500;
+    private static final long CLASS_2 = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        long duration = (args.length > 1) ? Long.parseLong(args[1]) : 5000;
+
+        PollScheduler scheduler = new PollScheduler();
+        boolean rejected = false;
+        try {
+            scheduler.setJitter(0.6);
+        }
+        catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("invalid jitter", rejected && scheduler.getJitter() == 0.1);
+
+        Outstation outstation = new Outstation(2);
+        SelectorPool pool = new SelectorPool(2);
+        EventLoopGroup group = new EventLoopGroup(2);
+        List<DNPUser> users = start(outstation, pool, group, sessions);
+
+        for (DNPUser user : users) {
+            scheduler.register(user, INTEGRITY, CLASS_1, CLASS_2, 0);
+        }
+        check("scheduled", scheduler.getScheduledCount() == 3 * sessions);
+
+        Thread.sleep(duration);
+        long polls = scheduler.getPollCount();
+        System.out.println(sessions + " sessions, " + polls + " polls in " + duration + " ms, "
+                + scheduler.getSkipCount() + " skipped, lag average " + scheduler.getLagAverage()
+                + " ms, max " + scheduler.getLagMax() + " ms");
+
+        // each poll is sent once per interval, the first one anywhere in the first interval
+        double expected = sessions * duration * (1.0 / INTEGRITY + 1.0 / CLASS_1 + 1.0 / CLASS_2);
+        check("poll count", Math.abs(polls - expected) < expected * 0.15);
+        check("none skipped", scheduler.getSkipCount() == 0);
+        check("lag", scheduler.getLagAverage() < 20);
+
+        // a response slower than the interval : the next poll is skipped
+        scheduler.unregister(users.get(0));
+        check("unregister", scheduler.getScheduledCount() == 3 * (sessions - 1));
+        for (int i = 1; i < users.size(); i++) {
+            scheduler.unregister(users.get(i));
+        }
+        outstation.setDelay(300);
+        scheduler.register(users.get(0), 0, 100, 0, 0);
+        Thread.sleep(1000);
+        System.out.println("slow station : " + scheduler.getSkipCount() + " skipped");
+        check("skipped", scheduler.getSkipCount() > 0);
+
+        scheduler.close();
+        rejected = false;
+        try {
+            scheduler.register(users.get(0), INTEGRITY, 0, 0, 0);
+        }
+        catch (IllegalStateException e) {
+            rejected = true;
+        }
+        check("closed", rejected && scheduler.getScheduledCount() == 0);
+
+        outstation.setDelay(0);
+        for (DNPUser user : users) {
+            user.stop();
+        }
+        pool.close();
+        group.shutdown();
+        outstation.close();
+    }
+
+    /**
+     * @return sessions up, each one on its own connection
+     */
+    private static List<DNPUser> start(Outstation outstation, SelectorPool pool, EventLoopGroup group, int count)
+            throws Exception {
+        List<DNPUser> users = new ArrayList<DNPUser>();
+        for (int i = 0; i < count; i++) {
+            DNPConfig config = new DNPConfig(new EthernetParameters("127.0.0.1", outstation.getPort(), pool), 1, 2);
+            config.setEventLoopGroup(group);
+            DNPUser user = new DNPUser(config, e -> {}, iin -> {});
+            user.init();
+            users.add(user);
+        }
+        return users;
+    }
+}
@@ -0,0 +1,142 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import br.org.scadabr.dnp34j.master.common.utils.EventLoopGroup;
+import br.org.scadabr.dnp34j.master.layers.physical.SelectorPool;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+
+/**
+ * Start many event loop sessions with the starter, then check that the starts followed the rate
+ * and that the integrity polls came along the ramp, not all at once.
+ *
+ * <p>
+ * Arguments : number of sessions (200), concurrency (16), starts per second (200), ramp in ms (10).
+ */
+public class TestSessionStarter {
+
+    // scheduling slack in ms, a few ticks of the shared timer
+    private static final long SLACK = 50;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int concurrency = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        double rate = (args.length > 2) ? Double.parseDouble(args[2]) : 200;
+        long ramp = (args.length > 3) ? Long.parseLong(args[3]) : 10;
+
+        check("invalid concurrency", rejected(0, rate));
+        check("invalid rate", rejected(1, -1));
+
+        Outstation outstation = new Outstation(2);
+        SelectorPool pool = new SelectorPool(2);
+        EventLoopGroup group = new EventLoopGroup(2);
+
+        SessionStarter starter = new SessionStarter(concurrency, rate);
+        starter.setIntegrityRamp(ramp);
+        check("settings", starter.getConcurrency() == concurrency && starter.getRate() == rate
+                && starter.getIntegrityRamp() == ramp && starter.isIntegrityPoll());
+
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<DNPUser>> started = new ArrayList<CompletableFuture<DNPUser>>();
+        for (int i = 0; i < sessions; i++) {
+            started.add(starter.start(user(outstation.getPort(), pool, group)));
+        }
+        CompletableFuture.allOf(started.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println(sessions + " sessions up in " + elapsed + " ms");
+
+        // the first start is immediate, then one every 1/rate s
+        long minimum = (long) ((sessions - 1) * 1000 / rate);
+        check("all up", starter.getStartedCount() == sessions && starter.getFailedCount() == 0
+                && starter.getPendingCount() == 0);
+        check("rate", elapsed >= minimum - SLACK);
+
+        // the polls of the sessions up follow each other, one every ramp
+        Thread.sleep(sessions * ramp + 10 * SLACK);
+        List<Long> polls = outstation.getIntegrityPolls();
+        Collections.sort(polls);
+        long span = polls.isEmpty() ? 0 : polls.get(polls.size() - 1) - polls.get(0);
+        System.out.println(polls.size() + " integrity polls over " + span + " ms");
+        check("integrity polls", polls.size() == sessions);
+        check("ramp span", span >= (sessions - 1) * ramp - SLACK);
+        check("ramp spread", maxInWindow(polls, 10 * ramp) <= 10 + SLACK / ramp + 1);
+
+        // a session failing to connect
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        CompletableFuture<DNPUser> failed = starter.start(user(closedPort, pool, group));
+        boolean failure = false;
+        try {
+            failed.get(30, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+            failure = true;
+        }
+        check("failed start", failure && starter.getFailedCount() == 1);
+
+        // no rate limit, no integrity poll
+        SessionStarter unlimited = new SessionStarter(concurrency, 0);
+        unlimited.setIntegrityPoll(false);
+        List<CompletableFuture<DNPUser>> more = new ArrayList<CompletableFuture<DNPUser>>();
+        for (int i = 0; i < 20; i++) {
+            more.add(unlimited.start(user(outstation.getPort(), pool, group)));
+        }
+        CompletableFuture.allOf(more.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        Thread.sleep(SLACK * 2);
+        check("no limit", unlimited.getStartedCount() == 20 && outstation.getIntegrityPolls().size() == sessions);
+
+        for (CompletableFuture<DNPUser> user : started) {
+            user.get().stop();
+        }
+        for (CompletableFuture<DNPUser> user : more) {
+            user.get().stop();
+        }
+        starter.shutdown();
+        unlimited.shutdown();
+        pool.close();
+        group.shutdown();
+        outstation.close();
+    }
+
+    private static DNPUser user(int port, SelectorPool pool, EventLoopGroup group) {
+        DNPConfig config = new DNPConfig(new EthernetParameters("127.0.0.1", port, pool), 1, 2);
+        config.setEventLoopGroup(group);
+        return new DNPUser(config, e -> {}, iin -> {});
+    }
+
+    /**
+     * @return the largest number of polls received within a window
+     */
+    private static int maxInWindow(List<Long> polls, long window) {
+        int max = 0;
+        int first = 0;
+        for (int last = 0; last < polls.size(); last++) {
+            while (polls.get(last) - polls.get(first) >= window) {
+                first++;
+            }
+            max = Math.max(max, last - first + 1);
+        }
+        return max;
+    }
+
+    private static boolean rejected(int concurrency, double rate) {
+        try {
+            new SessionStarter(concurrency, rate);
+            return false;
+        }
+        catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+}
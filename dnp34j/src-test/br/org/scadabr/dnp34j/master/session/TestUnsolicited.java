@@ -0,0 +1,72 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import br.org.scadabr.dnp34j.master.common.InternalIndication;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+
+/**
+ * Unsolicited responses asking for a confirm : each one is confirmed with its own sequence number
+ * and updates the database before it's notified. A repetition, sent again because the confirm was
+ * lost, is only confirmed. Solicited requests still get their responses.
+ */
+public class TestUnsolicited {
+
+    private static final int MASTER = 1;
+    private static final int STATION = 2;
+
+    public static void main(String[] args) throws Exception {
+        Outstation outstation = new Outstation(STATION);
+        final List<InternalIndication> unsolicited = new CopyOnWriteArrayList<InternalIndication>();
+        DNPConfig config = new DNPConfig(new EthernetParameters("127.0.0.1", outstation.getPort()), MASTER, STATION);
+        DNPUser user = new DNPUser(config, e -> {}, iin -> {}, unsolicited::add);
+        user.init();
+        try {
+            // the link is up once a request is answered
+            user.sendSynch(user.buildReadStaticDataMsg());
+
+            outstation.sendUnsolicited(MASTER, STATION, 5, 1234);
+            check("confirmed", confirms(outstation, 1) && outstation.getConfirms().get(0) == 0xD5);
+            check("notified", unsolicited.size() == 1 && unsolicited.get(0).getApplicationLayerSequence() == 5
+                    && value(user) == 1234);
+
+            // our confirm was lost : the station sends the same response again
+            outstation.sendUnsolicited(MASTER, STATION, 5, 999);
+            check("repeat confirmed", confirms(outstation, 2) && outstation.getConfirms().get(1) == 0xD5);
+            check("repeat ignored", unsolicited.size() == 1 && value(user) == 1234);
+
+            outstation.sendUnsolicited(MASTER, STATION, 6, 42);
+            check("next one", confirms(outstation, 3) && outstation.getConfirms().get(2) == 0xD6
+                    && unsolicited.size() == 2 && value(user) == 42);
+
+            user.sendSynch(user.buildReadStaticDataMsg());
+            check("solicited", value(user) == STATION);
+        }
+        finally {
+            user.stop();
+            outstation.close();
+        }
+    }
+
+    /**
+     * @return true once the station received a number of confirms
+     */
+    private static boolean confirms(Outstation outstation, int count) throws InterruptedException {
+        for (int i = 0; i < 200 && outstation.getConfirms().size() < count; i++) {
+            Thread.sleep(10);
+        }
+        // let the notification follow the confirm
+        Thread.sleep(50);
+        return outstation.getConfirms().size() == count;
+    }
+
+    private static int value(DNPUser user) {
+        DataElement point = user.getDatabase().readAnalogInputPoint(0);
+        return (point != null) ? ((Number) point.getValue()).intValue() : -1;
+    }
+}
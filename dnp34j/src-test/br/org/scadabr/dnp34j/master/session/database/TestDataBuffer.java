@@ -0,0 +1,131 @@
+package br.org.scadabr.dnp34j.master.session.database;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fill and drain the ring of a point : growth, overflow of the oldest records, then a writer and
+ * several readers at the same time, each record being read once at most, in order, or counted as
+ * dropped.
+ */
+public class TestDataBuffer {
+
+    private static final int RECORDS = 200000;
+    private static final int READERS = 3;
+
+    public static void main(String[] args) throws Exception {
+        DataBuffer single = new DataBuffer(1);
+        single.insert(record(1));
+        single.insert(record(2));
+        check("size 1", single.getCount() == 1 && single.getOverflowCount() == 1
+                && single.readLastRecord().getIndex() == 2 && single.readAndPop().get(0).getIndex() == 2);
+
+        DataBuffer buffer = new DataBuffer(100);
+        check("starts small", buffer.getData().length < 100);
+        for (int i = 0; i < 60; i++) {
+            buffer.insert(record(i));
+        }
+        check("grows", buffer.getCount() == 60 && buffer.getOverflowCount() == 0);
+
+        for (int i = 60; i < 150; i++) {
+            buffer.insert(record(i));
+        }
+        List<DataElement> records = buffer.readAndPop();
+        boolean oldestDropped = records.size() == 100 && buffer.getOverflowCount() == 50;
+        for (int i = 0; i < records.size(); i++) {
+            oldestDropped &= (records.get(i).getIndex() == 50 + i);
+        }
+        check("oldest dropped", oldestDropped && buffer.getCount() == 0);
+        check("last kept", buffer.readLastRecord().getIndex() == 149);
+
+        DataElement[] few = new DataElement[3];
+        for (int i = 0; i < 5; i++) {
+            buffer.insert(record(i));
+        }
+        check("partial drain", buffer.drainTo(few) == 3 && few[2].getIndex() == 2 && buffer.getCount() == 2);
+
+        boolean rejected = false;
+        try {
+            new DataBuffer(DataBuffer.MAX_SIZE + 1);
+        }
+        catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("invalid size", rejected);
+
+        check("concurrent readers", concurrent(new DataBuffer(64)));
+    }
+
+    /**
+     * @return true if every record was read once or dropped, and each reader read them in order
+     */
+    private static boolean concurrent(final DataBuffer buffer) throws Exception {
+        final AtomicLong read = new AtomicLong();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final boolean[] seen = new boolean[RECORDS];
+        final Object seenLock = new Object();
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < RECORDS; i++) {
+                buffer.insert(record(i));
+                if (i % 100 == 0) {
+                    // let the readers run, even on a single core
+                    Thread.yield();
+                }
+            }
+        });
+
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread(() -> {
+                DataElement[] events = new DataElement[16];
+                int previous = -1;
+                while (writer.isAlive() || buffer.getCount() > 0) {
+                    int count = buffer.drainTo(events);
+                    if (count == 0) {
+                        Thread.yield();
+                    }
+                    for (int i = 0; i < count; i++) {
+                        int index = events[i].getIndex();
+                        if (index <= previous) {
+                            failure.set("record " + index + " after " + previous);
+                        }
+                        previous = index;
+                        synchronized (seenLock) {
+                            if (seen[index]) {
+                                failure.set("record " + index + " read twice");
+                            }
+                            seen[index] = true;
+                        }
+                    }
+                    read.addAndGet(count);
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join(5000);
+        }
+
+        System.out.println("read " + read.get() + ", dropped " + buffer.getOverflowCount());
+        if (failure.get() != null) {
+            System.out.println(failure.get());
+            return false;
+        }
+        return read.get() + buffer.getOverflowCount() == RECORDS;
+    }
+
+    private static DataElement record(int index) {
+        DataElement element = new DataElement();
+        element.setIndex(index);
+        element.setIntValue(index);
+        return element;
+    }
+}
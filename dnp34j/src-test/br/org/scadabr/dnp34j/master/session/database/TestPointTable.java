@@ -0,0 +1,99 @@
+package br.org.scadabr.dnp34j.master.session.database;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compare the point table with a HashMap over random puts and removes of dense, 16 bits, and
+ * sparse, negative or 32 bits, indexes, then check its Map view.
+ */
+public class TestPointTable {
+
+    public static void main(String[] args) throws Exception {
+        PointTable table = new PointTable(4);
+        check("empty", table.isEmpty() && table.get(0) == null && table.get(-1) == null
+                && table.get(1 << 20) == null);
+
+        DataBuffer created = table.getOrCreate(3);
+        check("create", created != null && created.getSize() == 4 && table.getOrCreate(3) == created
+                && table.size() == 1);
+
+        DataBuffer far = new DataBuffer();
+        check("grow", table.put(PointTable.DENSE_LIMIT - 1, far) == null
+                && table.get(PointTable.DENSE_LIMIT - 1) == far && table.get(3) == created);
+
+        table.put(PointTable.DENSE_LIMIT, far);
+        check("sparse", table.get(PointTable.DENSE_LIMIT) == far && table.size() == 3);
+
+        check("remove", table.remove(3) == created && table.get(3) == null && table.remove(3) == null
+                && table.size() == 2);
+
+        boolean rejected = false;
+        try {
+            table.put(5, null);
+        }
+        catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("null point", rejected);
+
+        table.clear();
+        check("clear", table.isEmpty() && table.get(PointTable.DENSE_LIMIT - 1) == null
+                && table.get(PointTable.DENSE_LIMIT) == null);
+
+        check("dense indexes", same(new Random(1), 0, 3000));
+        check("sparse indexes", same(new Random(2), PointTable.DENSE_LIMIT, 500));
+        check("any indexes", same(new Random(3), Integer.MIN_VALUE / 2, Integer.MAX_VALUE));
+
+        // the Map view lists dense points by index, then sparse ones
+        table.put(7, new DataBuffer());
+        table.put(2, new DataBuffer());
+        table.put(-4, new DataBuffer());
+        table.put(1 << 20, new DataBuffer());
+        StringBuilder keys = new StringBuilder();
+        for (Map.Entry<Integer, DataBuffer> entry : table.entrySet()) {
+            keys.append(entry.getKey()).append(' ');
+        }
+        String order = keys.toString();
+        check("map view", order.startsWith("2 7 ") && order.contains("-4") && order.contains("1048576")
+                && table.containsKey(7) && !table.containsKey(8) && table.size() == 4);
+    }
+
+    /**
+     * @return true if the table always agreed with a HashMap
+     */
+    private static boolean same(Random random, int from, int range) {
+        PointTable table = new PointTable();
+        Map<Integer, DataBuffer> reference = new HashMap<Integer, DataBuffer>();
+
+        for (int i = 0; i < 100000; i++) {
+            int index = from + random.nextInt(range);
+            DataBuffer expected;
+            DataBuffer actual;
+            if (random.nextInt(3) == 0) {
+                expected = reference.remove(index);
+                actual = table.remove(index);
+            }
+            else {
+                DataBuffer buffer = new DataBuffer(1);
+                expected = reference.put(index, buffer);
+                actual = table.put(index, buffer);
+            }
+
+            if (expected != actual || table.size() != reference.size()) {
+                System.out.println("index " + index + " : size " + table.size() + " instead of " + reference.size());
+                return false;
+            }
+        }
+
+        for (Map.Entry<Integer, DataBuffer> entry : reference.entrySet()) {
+            if (table.get(entry.getKey().intValue()) != entry.getValue()) {
+                return false;
+            }
+        }
+        return table.entrySet().size() == reference.size() && new HashMap<Integer, DataBuffer>(table).equals(reference);
+    }
+}
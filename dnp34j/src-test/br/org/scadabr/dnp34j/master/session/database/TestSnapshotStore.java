@@ -0,0 +1,167 @@
+package br.org.scadabr.dnp34j.master.session.database;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Write a snapshot, then load it in a new database : after a plain reopen, with a record cut at the
+ * end of the log, once the log was compacted, and after a close racing a flush. A file which isn't
+ * a snapshot is rejected.
+ */
+public class TestSnapshotStore {
+
+    private static final int ANALOG_INPUT = 0x30;
+    private static final int POINTS = 50;
+    private static final long HEADER_SIZE = 8;
+
+    // flushes are called by the test, not by the writer thread
+    private static final long NO_FLUSH = 3600000;
+
+    public static void main(String[] args) throws Exception {
+        File file = File.createTempFile("snapshot", ".bin");
+        file.delete();
+
+        Database database = new Database();
+        SnapshotStore store = new SnapshotStore(file);
+        check("new file", store.open(database, NO_FLUSH) == 0);
+        database.setSnapshotStore(store);
+        write(database, 0);
+        store.close();
+        check("written", file.length() == size(POINTS));
+
+        check("reopen", load(file) == POINTS && loaded(file, 0));
+
+        // a crash while appending a record
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[SnapshotStore.RECORD_SIZE / 2]);
+        }
+        check("cut record", loaded(file, 0) && file.length() == size(POINTS));
+
+        // every flush appends the points updated, until the log is rewritten
+        database = new Database();
+        store = new SnapshotStore(file);
+        store.open(database, NO_FLUSH);
+        database.setSnapshotStore(store);
+        for (int round = 1; round < SnapshotStore.COMPACT_RATIO; round++) {
+            write(database, round);
+            store.flush();
+        }
+        check("log grows", file.length() == size(SnapshotStore.COMPACT_RATIO * POINTS));
+        write(database, SnapshotStore.COMPACT_RATIO);
+        store.flush();
+        check("compaction", file.length() == size(POINTS));
+        store.close();
+        check("compacted reopen", loaded(file, SnapshotStore.COMPACT_RATIO));
+
+        check("close while flushing", closeWhileFlushing(file));
+
+        Files.write(file.toPath(), "NOT A SNAPSHOT".getBytes(StandardCharsets.US_ASCII));
+        boolean rejected = false;
+        try {
+            load(file);
+        }
+        catch (IOException e) {
+            rejected = true;
+        }
+        check("bad magic", rejected);
+
+        file.delete();
+    }
+
+    /**
+     * Flush on a thread while the store is closed : no failure, and every update flushed before
+     * the close is loaded again
+     */
+    private static boolean closeWhileFlushing(File file) throws Exception {
+        for (int i = 0; i < 20; i++) {
+            final Database database = new Database();
+            final SnapshotStore store = new SnapshotStore(file);
+            store.open(database, NO_FLUSH);
+            database.setSnapshotStore(store);
+
+            final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+            Thread flusher = new Thread(() -> {
+                try {
+                    for (int round = 0; round < 100; round++) {
+                        write(database, round);
+                        store.flush();
+                    }
+                }
+                catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            flusher.start();
+            Thread.sleep(i % 5);
+            store.close();
+            flusher.join();
+
+            if (failure.get() != null) {
+                failure.get().printStackTrace();
+                return false;
+            }
+            if (load(file) != POINTS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Update every point, its value and timestamp depending on the round
+     */
+    private static void write(Database database, int round) {
+        for (int i = 0; i < POINTS; i++) {
+            DataElement element = new DataElement();
+            element.setGroup(ANALOG_INPUT);
+            element.setIndex(i);
+            element.setQuality(0x01);
+            element.setTimestamp(1000L * round + i);
+            element.setDoubleValue(i * 1.5 + round);
+            database.writeRecord(element);
+        }
+    }
+
+    /**
+     * @return number of points loaded from the file
+     */
+    private static int load(File file) throws IOException {
+        SnapshotStore store = new SnapshotStore(file);
+        try {
+            return store.open(new Database(), NO_FLUSH);
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    /**
+     * @return true if a new database gets the points written by a round
+     */
+    private static boolean loaded(File file, int round) throws IOException {
+        Database database = new Database();
+        SnapshotStore store = new SnapshotStore(file);
+        store.open(database, NO_FLUSH);
+        store.close();
+
+        Map<Integer, DataElement> points = database.readLatest(ANALOG_INPUT);
+        boolean same = points.size() == POINTS;
+        for (int i = 0; i < POINTS && same; i++) {
+            DataElement element = points.get(i);
+            same = element != null && element.getDoubleValue() == i * 1.5 + round
+                    && element.getQuality() == 0x01 && element.getTimestamp() == 1000L * round + i;
+        }
+        return same;
+    }
+
+    private static long size(int records) {
+        return HEADER_SIZE + (long) records * SnapshotStore.RECORD_SIZE;
+    }
+}
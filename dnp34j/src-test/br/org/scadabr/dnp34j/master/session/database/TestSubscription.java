@@ -0,0 +1,146 @@
+package br.org.scadabr.dnp34j.master.session.database;
+
+import static br.org.scadabr.dnp34j.master.Check.check;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write fragments to a database and check what its subscriptions are told : points of their
+ * range, changes only or every record, whole fragments in order with a slow listener, nothing once
+ * cancelled.
+ */
+public class TestSubscription {
+
+    private static final int ANALOG_INPUT = 0x30;
+    private static final int BINARY_INPUT = 0x01;
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Database database = new Database();
+
+        final List<List<DataElement>> ranged = Collections.synchronizedList(new ArrayList<List<DataElement>>());
+        final List<List<DataElement>> every = Collections.synchronizedList(new ArrayList<List<DataElement>>());
+        Subscription range = database.subscribe(ANALOG_INPUT, 2, 4, ranged::add, executor);
+        database.subscribe(element -> element.getGroup() == ANALOG_INPUT, false, every::add, executor);
+
+        // indexes 0 to 5, then the same values but index 3
+        fragment(database, ANALOG_INPUT, 0, 10, 11, 12, 13, 14, 15);
+        fragment(database, ANALOG_INPUT, 0, 10, 11, 12, 99, 14, 15);
+        fragment(database, BINARY_INPUT, 0, 1, 1);
+        flush(executor);
+
+        check("range", ranged.size() == 2 && indexes(ranged.get(0)).equals("2 3 4")
+                && indexes(ranged.get(1)).equals("3"));
+        check("every record", every.size() == 2 && every.get(1).size() == 6);
+
+        // a quality change is a change
+        write(database, ANALOG_INPUT, 4, 14, 0x02);
+        flush(executor);
+        check("quality change", ranged.size() == 3 && indexes(ranged.get(2)).equals("4"));
+
+        range.cancel();
+        fragment(database, ANALOG_INPUT, 2, 50);
+        flush(executor);
+        check("cancel", range.isCancelled() && ranged.size() == 3 && every.size() == 4
+                && !database.getSubscriptions().contains(range));
+
+        // a slow listener gets the batches queued up, one at a time and in order
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+        Subscription slow = database.subscribe(element -> element.getIndex() == 0, false, points -> {
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                // Ignore
+            }
+            for (DataElement point : points) {
+                values.add((int) point.getLongValue());
+            }
+        }, executor);
+        for (int i = 0; i < 20; i++) {
+            fragment(database, ANALOG_INPUT, 0, i);
+        }
+        check("queued", slow.getPendingCount() >= 19);
+        release.countDown();
+        flush(executor);
+        boolean ordered = values.size() == 20;
+        for (int i = 0; i < values.size(); i++) {
+            ordered &= (values.get(i) == i);
+        }
+        check("in order", ordered && slow.getPendingCount() == 0);
+
+        // a failing listener doesn't stop the others
+        database.subscribe(element -> true, false, points -> {
+            throw new RuntimeException("listener failure, expected");
+        }, executor);
+        int before = every.size();
+        fragment(database, ANALOG_INPUT, 0, 1000);
+        flush(executor);
+        check("failing listener", every.size() == before + 1);
+
+        executor.shutdown();
+    }
+
+    /**
+     * Write a response fragment holding consecutive points from an index
+     */
+    private static void fragment(Database database, int group, int start, int... values) {
+        database.beginUpdate();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                database.writeRecord(record(group, start + i, values[i], 0x01));
+            }
+        }
+        finally {
+            database.endUpdate();
+        }
+    }
+
+    private static void write(Database database, int group, int index, int value, int quality) {
+        database.beginUpdate();
+        try {
+            database.writeRecord(record(group, index, value, quality));
+        }
+        finally {
+            database.endUpdate();
+        }
+    }
+
+    private static DataElement record(int group, int index, int value, int quality) {
+        DataElement element = new DataElement();
+        element.setGroup(group);
+        element.setIndex(index);
+        element.setQuality(quality);
+        if (group == BINARY_INPUT) {
+            element.setBooleanValue(value != 0);
+        }
+        else {
+            element.setIntValue(value);
+        }
+        return element;
+    }
+
+    /**
+     * Wait for the listeners called so far
+     */
+    private static void flush(ExecutorService executor) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static String indexes(List<DataElement> points) {
+        StringBuilder indexes = new StringBuilder();
+        for (DataElement point : points) {
+            indexes.append((indexes.length() > 0) ? " " : "").append(point.getIndex());
+        }
+        return indexes.toString();
+    }
+}
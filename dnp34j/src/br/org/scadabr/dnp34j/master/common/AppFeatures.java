@@ -67,6 +67,16 @@ public interface AppFeatures {
    */
   public byte COLD_RESTART = (byte) 0x0e;
 
+  /**
+   * Enable Unsolicited Responses function
+   */
+  public byte ENABLE_UNSOLICITED = (byte) 0x14;
+
+  /**
+   * Disable Unsolicited Responses function
+   */
+  public byte DISABLE_UNSOLICITED = (byte) 0x15;
+
   /**
    * Delay measurement function
    */
@@ -9,7 +9,6 @@ package br.org.scadabr.dnp34j.master.common;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
 
 import br.org.scadabr.dnp34j.master.common.utils.Utils;
 
@@ -126,7 +125,7 @@ public class DataObject implements InitFeatures, DataMapFeatures {
      * @return object is include in DNP Object Table
      */
     public static boolean isValid(byte g, byte v) {
-        return (DataLengths.getDataLength(g, v) != -1);
+        return (ObjectDescriptor.get(g, v) != null);
     }
 
     /**
@@ -222,9 +221,7 @@ public class DataObject implements InitFeatures, DataMapFeatures {
             throw new IllegalArgumentException("Too few bytes to extract float.");
         }
         // Convert to IEEE Float
-        ByteBuffer b = ByteBuffer.wrap(Arrays.copyOfRange(byteArray, offset, offset + 4))
-                .order(ByteOrder.LITTLE_ENDIAN);
-        return b.getFloat();
+        return Float.intBitsToFloat(toInt(byteArray, offset));
     }
 
     /**
@@ -238,10 +235,13 @@ public class DataObject implements InitFeatures, DataMapFeatures {
             throw new IllegalArgumentException("Too few bytes to extract double.");
         }
 
-        // Convert to IEEE Float
-        ByteBuffer b = ByteBuffer.wrap(Arrays.copyOfRange(byteArray, offset, offset + 8))
-                .order(ByteOrder.LITTLE_ENDIAN);
-        return b.getDouble();
+        // Convert to IEEE Double
+        long val = 0;
+        for (int i = (8 - 1); i >= 0; i--) {
+            val <<= 8;
+            val |= (byteArray[offset + i] & 0x00FF);
+        }
+        return Double.longBitsToDouble(val);
     }
 
     /**
@@ -0,0 +1,324 @@
+package br.org.scadabr.dnp34j.master.common;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Layout of a DNP3 object, by group and variation : its length, whether it's packed in a bit
+ * string, whether it starts with a flag byte, and where its value, time and control status are.
+ *
+ * <p>
+ * Descriptors are built once, in a table indexed by group and variation, so decoding an object
+ * header is a lookup instead of a switch over every group.
+ */
+public final class ObjectDescriptor implements DataMapFeatures {
+
+    /**
+     * No value, or one not decoded
+     */
+    public static final byte NONE = 0;
+
+    /**
+     * State in bit 0, packed in a bit string
+     */
+    public static final byte BIT = 1;
+
+    /**
+     * State in bit 7 of the flag byte
+     */
+    public static final byte FLAG_BIT = 2;
+
+    /**
+     * 16 bits integer, little endian
+     */
+    public static final byte INT16 = 3;
+
+    /**
+     * 32 bits integer, little endian
+     */
+    public static final byte INT32 = 4;
+
+    /**
+     * 32 bits floating point, little endian
+     */
+    public static final byte FLOAT32 = 5;
+
+    /**
+     * 64 bits floating point, little endian
+     */
+    public static final byte FLOAT64 = 6;
+
+    private static final ObjectDescriptor[] UNKNOWN_GROUP = new ObjectDescriptor[256];
+    private static final ObjectDescriptor[][] TABLE = new ObjectDescriptor[256][];
+
+    static {
+        Arrays.fill(TABLE, UNKNOWN_GROUP);
+
+        // Binary inputs
+        bits(BINARY_INPUT_STATIC, 1);
+        flagged(BINARY_INPUT_STATIC, 2, 8, FLAG_BIT);
+
+        // Binary input events
+        flagged(BINARY_INPUT_EVENT, 1, 8, FLAG_BIT);
+        timed(BINARY_INPUT_EVENT, 2, 56, FLAG_BIT, 1);
+        // common time of occurrence not supported yet, relative time not read
+        flagged(BINARY_INPUT_EVENT, 3, 24, FLAG_BIT);
+
+        // Binary outputs
+        bits(BINARY_OUTPUT_STATIC, 1);
+        flagged(BINARY_OUTPUT_STATIC, 2, 8, FLAG_BIT);
+
+        // Binary output events
+        flagged(BINARY_OUTPUT_EVENT, 1, 8, FLAG_BIT);
+        timed(BINARY_OUTPUT_EVENT, 2, 56, FLAG_BIT, 1);
+
+        // Control relay output blocks
+        command(BINARY_OUTPUT_COMMAND, 1, 88, 10);
+        command(BINARY_OUTPUT_COMMAND, 2, 88, 10);
+
+        // Counters
+        flagged(COUNTER_STATIC, 1, 40, INT32);
+        flagged(COUNTER_STATIC, 2, 24, INT16);
+        flagged(COUNTER_STATIC, 3, 40, INT32);
+        flagged(COUNTER_STATIC, 4, 24, INT16);
+        value(COUNTER_STATIC, 5, 32, INT32);
+        value(COUNTER_STATIC, 6, 16, INT16);
+        value(COUNTER_STATIC, 7, 32, INT32);
+        value(COUNTER_STATIC, 8, 16, INT16);
+
+        // Frozen counters
+        flagged(FROZEN_COUNTER, 1, 40, INT32);
+        flagged(FROZEN_COUNTER, 2, 24, INT16);
+        flagged(FROZEN_COUNTER, 3, 40, INT32);
+        flagged(FROZEN_COUNTER, 4, 24, INT16);
+        timed(FROZEN_COUNTER, 5, 88, INT32, 5);
+        timed(FROZEN_COUNTER, 6, 72, INT16, 3);
+        timed(FROZEN_COUNTER, 7, 88, INT32, 5);
+        timed(FROZEN_COUNTER, 8, 72, INT16, 3);
+        value(FROZEN_COUNTER, 9, 32, INT32);
+        value(FROZEN_COUNTER, 10, 16, INT16);
+        value(FROZEN_COUNTER, 11, 32, INT32);
+        value(FROZEN_COUNTER, 12, 16, INT16);
+
+        // Counter events, frozen counter events
+        for (byte group : new byte[] { COUNTER_EVENT, FROZEN_COUNTER_EVENT }) {
+            flagged(group, 1, 40, INT32);
+            flagged(group, 2, 24, INT16);
+            flagged(group, 3, 40, INT32);
+            flagged(group, 4, 24, INT16);
+            timed(group, 5, 88, INT32, 5);
+            timed(group, 6, 72, INT16, 3);
+            timed(group, 7, 88, INT32, 5);
+            timed(group, 8, 72, INT16, 3);
+        }
+
+        // Analog inputs
+        flagged(ANALOG_INPUT_STATIC, 1, 40, INT32);
+        flagged(ANALOG_INPUT_STATIC, 2, 24, INT16);
+        value(ANALOG_INPUT_STATIC, 3, 32, INT32);
+        value(ANALOG_INPUT_STATIC, 4, 16, INT16);
+        flagged(ANALOG_INPUT_STATIC, 5, 40, FLOAT32);
+        flagged(ANALOG_INPUT_STATIC, 6, 72, FLOAT64);
+
+        // Frozen analog inputs
+        flagged(FROZEN_ANALOG_INPUT, 1, 40, INT32);
+        flagged(FROZEN_ANALOG_INPUT, 2, 24, INT16);
+        timed(FROZEN_ANALOG_INPUT, 3, 88, INT32, 5);
+        timed(FROZEN_ANALOG_INPUT, 4, 72, INT16, 3);
+        value(FROZEN_ANALOG_INPUT, 5, 32, INT32);
+        value(FROZEN_ANALOG_INPUT, 6, 16, INT16);
+        flagged(FROZEN_ANALOG_INPUT, 7, 40, FLOAT32);
+        flagged(FROZEN_ANALOG_INPUT, 8, 72, FLOAT64);
+
+        // Analog input events, frozen analog input events, analog output events
+        for (byte group : new byte[] { ANALOG_INPUT_EVENT, FROZEN_ANALOG_INPUT_EVENT, ANALOG_OUTPUT_EVENTS }) {
+            flagged(group, 1, 40, INT32);
+            flagged(group, 2, 24, INT16);
+            timed(group, 3, 88, INT32, 5);
+            timed(group, 4, 72, INT16, 3);
+            flagged(group, 5, 40, FLOAT32);
+            flagged(group, 6, 72, FLOAT64);
+            timed(group, 7, 88, FLOAT32, 5);
+            timed(group, 8, 112, FLOAT64, 9);
+        }
+
+        // Analog input reporting deadbands
+        value(ANALOG_INPUT_REPORTING_DEADBAND, 1, 16, INT16);
+        value(ANALOG_INPUT_REPORTING_DEADBAND, 2, 32, INT32);
+        value(ANALOG_INPUT_REPORTING_DEADBAND, 3, 32, FLOAT32);
+
+        // Analog output status
+        flagged(ANALOG_OUTPUT_STATIC, 1, 40, INT32);
+        flagged(ANALOG_OUTPUT_STATIC, 2, 24, INT16);
+        flagged(ANALOG_OUTPUT_STATIC, 3, 40, FLOAT32);
+        flagged(ANALOG_OUTPUT_STATIC, 4, 72, FLOAT64);
+
+        // Analog output blocks, value then control status
+        command(ANALOG_OUTPUT_COMMAND, 1, 40, 4);
+        command(ANALOG_OUTPUT_COMMAND, 2, 24, 2);
+        command(ANALOG_OUTPUT_COMMAND, 3, 40, 4);
+        command(ANALOG_OUTPUT_COMMAND, 4, 72, 8);
+
+        // Time and date, time delays
+        value(TIME_STATIC, 1, 48, NONE);
+        value(TIME_STATIC, 2, 80, NONE);
+        value(TIME_STATIC, 3, 48, NONE);
+        value(TIME_STATIC, 4, 88, NONE);
+        value(TIME_OCCURANCE, 1, 48, NONE);
+        value(TIME_OCCURANCE, 2, 48, NONE);
+        value(TIME_DELAY, 1, 16, NONE);
+        value(TIME_DELAY, 2, 16, NONE);
+
+        // Classes and internal indications, any variation
+        for (int variation = 0; variation < 256; variation++) {
+            value(CLASS_STATIC, (byte) variation, 0, NONE);
+            value(IIN_STATIC, (byte) variation, 16, NONE);
+        }
+    }
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final byte group;
+    private final byte variation;
+    private final int length;
+    private final boolean bitString;
+    private final boolean quality;
+    private final byte encoding;
+    private final int valueOffset;
+    private final int timeOffset;
+    private final int statusOffset;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    private ObjectDescriptor(byte group, byte variation, int length, boolean quality, byte encoding,
+            int timeOffset, int statusOffset) {
+        this.group = group;
+        this.variation = variation;
+        this.length = length;
+        this.bitString = (encoding == BIT);
+        this.quality = quality;
+        this.encoding = encoding;
+        this.valueOffset = (quality && encoding != FLAG_BIT) ? 1 : 0;
+        this.timeOffset = timeOffset;
+        this.statusOffset = statusOffset;
+    }
+
+    private static void define(byte group, int variation, int length, boolean quality, byte encoding,
+            int timeOffset, int statusOffset) {
+        int row = group & 0xFF;
+        if (TABLE[row] == UNKNOWN_GROUP) {
+            TABLE[row] = new ObjectDescriptor[256];
+        }
+        TABLE[row][variation & 0xFF] = new ObjectDescriptor(group, (byte) variation, length, quality, encoding,
+                timeOffset, statusOffset);
+    }
+
+    private static void bits(byte group, int variation) {
+        define(group, variation, 1, false, BIT, -1, -1);
+    }
+
+    private static void value(byte group, int variation, int length, byte encoding) {
+        define(group, variation, length, false, encoding, -1, -1);
+    }
+
+    private static void flagged(byte group, int variation, int length, byte encoding) {
+        define(group, variation, length, true, encoding, -1, -1);
+    }
+
+    private static void timed(byte group, int variation, int length, byte encoding, int timeOffset) {
+        define(group, variation, length, true, encoding, timeOffset, -1);
+    }
+
+    private static void command(byte group, int variation, int length, int statusOffset) {
+        define(group, variation, length, false, NONE, -1, statusOffset);
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * @return the descriptor of this group and variation, or null if not known/supported
+     */
+    public static ObjectDescriptor get(byte group, byte variation) {
+        return TABLE[group & 0xFF][variation & 0xFF];
+    }
+
+    /**
+     * @return the group
+     */
+    public byte getGroup() {
+        return group;
+    }
+
+    /**
+     * @return the variation
+     */
+    public byte getVariation() {
+        return variation;
+    }
+
+    /**
+     * @return length of an object in bits
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return true if objects are packed in a bit string, each bit being the state of an index
+     */
+    public boolean isBitString() {
+        return bitString;
+    }
+
+    /**
+     * @return true if objects start with a flag byte, the quality
+     */
+    public boolean hasQuality() {
+        return quality;
+    }
+
+    /**
+     * @return how the value is encoded, one of the constants of this class
+     */
+    public byte getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return offset of the value in an object
+     */
+    public int getValueOffset() {
+        return valueOffset;
+    }
+
+    /**
+     * @return true if objects hold their time
+     */
+    public boolean hasTime() {
+        return timeOffset >= 0;
+    }
+
+    /**
+     * @return offset of the time in an object, -1 if none
+     */
+    public int getTimeOffset() {
+        return timeOffset;
+    }
+
+    /**
+     * @return offset of the control status in an object, -1 if none
+     */
+    public int getStatusOffset() {
+        return statusOffset;
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectDescriptor [group=" + group + ", variation=" + variation + ", length=" + length + "]";
+    }
+}
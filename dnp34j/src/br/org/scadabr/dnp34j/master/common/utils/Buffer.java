@@ -119,6 +119,22 @@ public class Buffer implements InitFeatures {
 	// Methods
 	// =============================================================================
 
+	/**
+	 * Read some bytes in place, without copying them. The buffer must not
+	 * be written.
+	 * 
+	 * @param someBytes
+	 *            bytes to read, the buffer until the next wrap
+	 * @param length
+	 *            number of bytes to read, lower than their array length
+	 */
+	public void wrap(byte[] someBytes, int length) {
+		buffer = someBytes;
+		size = someBytes.length;
+		offset = 0;
+		marker = length;
+	}
+
 	/**
 	 * Empty the window
 	 */
@@ -272,6 +288,28 @@ public class Buffer implements InitFeatures {
 		return result;
 	}
 
+	/**
+	 * Pop some bytes of current window into an array of bytes.
+	 * 
+	 * @param dst
+	 *            array receiving the bytes
+	 * @param off
+	 *            first byte written in this array
+	 * @param length
+	 *            number of bytes to pop
+	 */
+	public void readBytes(byte[] dst, int off, int length)
+			throws IndexOutOfBoundsException {
+		int s = Math.min(length, size - offset);
+		System.arraycopy(buffer, offset, dst, off, s);
+		offset = (offset + s) % size;
+
+		if (s < length) {
+			System.arraycopy(buffer, 0, dst, off + s, length - s);
+			offset = length - s;
+		}
+	}
+
 	/**
 	 * Pop all bytes of current window.
 	 * 
@@ -314,13 +352,28 @@ public class Buffer implements InitFeatures {
 			return;
 		}
 
-		int s = Math.min(someBytes.length, size - marker);
-		System.arraycopy(someBytes, 0, buffer, marker, s);
+		writeBytes(someBytes, 0, someBytes.length);
+	}
+
+	/**
+	 * Push a segment of an array of bytes on current window.
+	 * 
+	 * @param someBytes
+	 *            array holding the bytes
+	 * @param off
+	 *            first byte added to current window
+	 * @param len
+	 *            number of bytes added to current window
+	 */
+	public void writeBytes(byte[] someBytes, int off, int len)
+			throws IndexOutOfBoundsException {
+		int s = Math.min(len, size - marker);
+		System.arraycopy(someBytes, off, buffer, marker, s);
 		marker = (marker + s) % size;
 
-		if (s < someBytes.length) {
-			System.arraycopy(someBytes, s, buffer, 0, someBytes.length - s);
-			marker = someBytes.length - s;
+		if (s < len) {
+			System.arraycopy(someBytes, off + s, buffer, 0, len - s);
+			marker = len - s;
 		}
 	}
 
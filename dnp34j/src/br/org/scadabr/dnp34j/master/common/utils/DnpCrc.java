@@ -9,6 +9,7 @@
  */
 package br.org.scadabr.dnp34j.master.common.utils;
 
+import java.nio.ByteBuffer;
 
 /**
  * <p>
@@ -16,6 +17,11 @@ package br.org.scadabr.dnp34j.master.common.utils;
  * The crctable is genereted with the polynom
  * X^16 + X^13 + X^12 + X^11 + X^10 + X^8 + X^6 + X^5 + X^2 + 1
  *
+ * <p>
+ * The methods working on a segment of an array, or on a ByteBuffer, don't
+ * allocate. Long segments are handled 8 octets at a time with tables derived
+ * from crctable (slicing-by-8).
+ *
  * @author Alexis CLERC
  */
 public class DnpCrc {
@@ -60,25 +66,175 @@ public class DnpCrc {
     0x48d7, 0x7e89, 0x246b, 0x1235
   };
 
+  /**
+   * Length of a link data block, without its CRC
+   */
+  public static final int BLOCK_SIZE = 16;
+
+  /**
+   * slices[k][b] is the table entry of octet b followed by k null octets
+   */
+  private static final int[][] slices = new int[8][256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      slices[0][i] = crctable[i];
+    }
+
+    for (int k = 1; k < 8; k++) {
+      for (int i = 0; i < 256; i++) {
+        int c = slices[k - 1][i];
+        slices[k][i] = (c >>> 8) ^ slices[0][c & 0x00ff];
+      }
+    }
+  }
+
   //=============================================================================
   // Methods
-  //=============================================================================  
+  //=============================================================================
 
   /**
-   * Build 2 octets CRC over a frame
+   * Compute the CRC of a segment of an array of bytes
    *
-   * @param buffer frame to encode
+   * @param aBuffer array holding the segment
+   * @param off first byte of the segment
+   * @param len length of the segment
    *
-   * @return 2 octets CRC
+   * @return 16 bits CRC, to be sent LSB first
+   */
+  public static int crc(byte[] aBuffer, int off, int len) {
+    int[] t0 = slices[0], t1 = slices[1], t2 = slices[2], t3 = slices[3];
+    int[] t4 = slices[4], t5 = slices[5], t6 = slices[6], t7 = slices[7];
+    int crc = 0x0000;
+    int i = off;
+    int end = off + len;
+
+    for (; i + 8 <= end; i += 8) {
+      crc ^= (aBuffer[i] & 0xff) | ((aBuffer[i + 1] & 0xff) << 8);
+      crc = t7[crc & 0xff] ^ t6[crc >>> 8]
+        ^ t5[aBuffer[i + 2] & 0xff] ^ t4[aBuffer[i + 3] & 0xff]
+        ^ t3[aBuffer[i + 4] & 0xff] ^ t2[aBuffer[i + 5] & 0xff]
+        ^ t1[aBuffer[i + 6] & 0xff] ^ t0[aBuffer[i + 7] & 0xff];
+    }
+
+    for (; i < end; i++) {
+      crc = (crc >>> 8) ^ t0[(crc ^ aBuffer[i]) & 0x00ff];
+    }
+
+    return ~crc & 0xffff;
+  }
+
+  /**
+   * Compute the CRC of the remaining bytes of a ByteBuffer.
+   * The position of the buffer is not changed.
+   *
+   * @param aBuffer bytes between position and limit are used
+   *
+   * @return 16 bits CRC, to be sent LSB first
+   */
+  public static int crc(ByteBuffer aBuffer) {
+    return crc(aBuffer, aBuffer.position(), aBuffer.limit());
+  }
+
+  private static int crc(ByteBuffer aBuffer, int from, int to) {
+    if (aBuffer.hasArray()) {
+      return crc(aBuffer.array(), aBuffer.arrayOffset() + from, to - from);
+    }
+
+    int crc = 0x0000;
+
+    for (int i = from; i < to; i++) {
+      crc = (crc >>> 8) ^ crctable[(crc ^ aBuffer.get(i)) & 0x00ff];
+    }
+
+    return ~crc & 0xffff;
+  }
+
+  /**
+   * Check data integrity of a segment of an array of bytes, without copying it
+   *
+   * @param aBuffer array holding the segment
+   * @param off first byte of the segment
+   * @param len length of the segment, 2 octets CRC included
+   *
+   * @return CRC validity
+   */
+  public static boolean checkCRC(byte[] aBuffer, int off, int len)
+    throws IndexOutOfBoundsException {
+    int end = off + len - 2;
+    int crc = crc(aBuffer, off, len - 2);
+
+    return ((aBuffer[end] == (byte) crc)
+    && (aBuffer[end + 1] == (byte) (crc >> 8)));
+  }
+
+  /**
+   * Check data integrity of the remaining bytes of a ByteBuffer, the 2 last
+   * being the CRC. The position of the buffer is not changed.
+   *
+   * @param aBuffer bytes between position and limit are checked
+   *
+   * @return CRC validity
+   */
+  public static boolean checkCRC(ByteBuffer aBuffer) {
+    int end = aBuffer.limit() - 2;
+    int crc = crc(aBuffer, aBuffer.position(), end);
+
+    return ((aBuffer.get(end) == (byte) crc)
+    && (aBuffer.get(end + 1) == (byte) (crc >> 8)));
+  }
+
+  /**
+   * Compute the CRC of a segment and write it right after this segment
+   *
+   * @param aBuffer array holding the segment, with 2 more octets for the CRC
+   * @param off first byte of the segment
+   * @param len length of the segment
+   *
+   * @return index following the CRC
+   */
+  public static int writeCRC(byte[] aBuffer, int off, int len) {
+    int crc = crc(aBuffer, off, len);
+    int end = off + len;
+    aBuffer[end] = (byte) crc;
+    aBuffer[end + 1] = (byte) (crc >> 8);
+
+    return end + 2;
+  }
+
+  /**
+   * Check the data blocks of a link frame and remove their CRC in place,
+   * in a single pass. Blocks are 16 octets long, the last one may be shorter,
+   * and each one is followed by its CRC. Data is moved to the front of the
+   * segment.
+   *
+   * @param aBuffer array holding the data blocks
+   * @param off first byte of the first block
+   * @param len length of all blocks, CRCs included
+   *
+   * @return number of data octets left at off, or -1 if a CRC is wrong
    */
-  private static char B013_dnpcrc(char[] buffer) {
-    char crc = 0x0000;
+  public static int stripBlocks(byte[] aBuffer, int off, int len) {
+    int position = off;
+    int dst = off;
+    int end = off + len;
+
+    while (position < end) {
+      int size = Math.min(BLOCK_SIZE, end - position - 2);
+
+      if ((size <= 0) || !checkCRC(aBuffer, position, size + 2)) {
+        return -1;
+      }
 
-    for (int i = 0; i < buffer.length; i++) {
-      crc = (char) ((crc >> 8) ^ crctable[(crc ^ buffer[i]) & 0x00ff]);
+      if (dst != position) {
+        System.arraycopy(aBuffer, position, aBuffer, dst, size);
+      }
+
+      dst += size;
+      position += size + 2;
     }
 
-    return (char) ~crc;
+    return dst - off;
   }
 
   /**
@@ -90,31 +246,18 @@ public class DnpCrc {
    */
   public static boolean checkCRC(byte[] aBuffer)
     throws IndexOutOfBoundsException {
-    byte[] bufferWithoutCrc = new byte[aBuffer.length - 2];
-    System.arraycopy(aBuffer, 0, bufferWithoutCrc, 0, bufferWithoutCrc.length);
-
-    byte[] result = makeCRC(bufferWithoutCrc);
-
-    return ((aBuffer[aBuffer.length - 2] == result[0])
-    && (aBuffer[aBuffer.length - 1] == result[1]));
+    return checkCRC(aBuffer, 0, aBuffer.length);
   }
 
   /**
    * Build 2 octets CRC over a frame
-   * Use B013_dnpcrc() algorithm
    *
    * @param aBuffer frame to encode
    *
    * @return 2 octets CRC
    */
   public static byte[] makeCRC(byte[] aBuffer) {
-    char[] aCharBuffer = new char[aBuffer.length];
-
-    for (int i = 0; i < aBuffer.length; i++) {
-      aCharBuffer[i] = (char) aBuffer[i];
-    }
-
-    char   checksum = DnpCrc.B013_dnpcrc(aCharBuffer);
+    int checksum = crc(aBuffer, 0, aBuffer.length);
     byte[] result = new byte[2];
     result[1]   = (byte) ((checksum >> 8) & 0xFF);
     result[0]   = (byte) (checksum & 0xFF);
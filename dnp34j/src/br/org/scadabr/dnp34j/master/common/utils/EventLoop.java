@@ -0,0 +1,138 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Single thread running the tasks of many sessions, one after the other. A session bound to a
+ * loop has no layer thread of its own : its rings call the layer which consumes them on the loop,
+ * so a frame goes through application, transport and link layers without changing thread.
+ *
+ * <p>
+ * Tasks must never block, since they hold up every session of the loop. Waits are replaced by
+ * {@link #schedule(Runnable, long) timeouts}.
+ */
+public class EventLoop implements Executor, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventLoop.class);
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private final HashedWheelTimer timer;
+
+    private final Thread thread;
+    private volatile boolean parked = false;
+    private volatile boolean STOP = false;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * Build and start a loop
+     *
+     * @param name
+     *            name of its thread
+     */
+    public EventLoop(String name) {
+        this(name, HashedWheelTimer.getShared());
+    }
+
+    /**
+     * Build and start a loop
+     *
+     * @param name
+     *            name of its thread
+     * @param timer
+     *            timer of its timeouts
+     */
+    public EventLoop(String name, HashedWheelTimer timer) {
+        this.timer = timer;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Run a task on the loop, after those already queued
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Run a task on the loop after a delay, timed by the {@link HashedWheelTimer} of the process
+     *
+     * @param task
+     *            task to run
+     * @param delay
+     *            delay in ms
+     * @return a handle to cancel the task
+     */
+    public HashedWheelTimer.Timeout schedule(Runnable task, long delay) {
+        return timer.newTimeout(task, delay, this);
+    }
+
+    /**
+     * @return true if called from the thread of this loop
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Stop the loop once the current task is done. Queued tasks are dropped.
+     */
+    public void shutdown() {
+        STOP = true;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (!STOP) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                runTask(task);
+            }
+
+            // sleep until a task is queued
+            parked = true;
+            if (tasks.isEmpty() && !STOP) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            LOG.error("[EventLoop] task failed", t);
+        }
+    }
+
+    /**
+     * @return the thread of this loop
+     */
+    public Thread getThread() {
+        return thread;
+    }
+}
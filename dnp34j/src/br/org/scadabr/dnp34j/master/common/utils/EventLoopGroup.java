@@ -0,0 +1,70 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Fixed set of {@link EventLoop}s shared by many sessions, one loop per core by default. Each
+ * session is bound to one loop for its whole life, picked in turn.
+ */
+public class EventLoopGroup {
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final EventLoop[] loops;
+    private final AtomicInteger index = new AtomicInteger();
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * Build one loop per available processor
+     */
+    public EventLoopGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param count
+     *            number of loops
+     */
+    public EventLoopGroup(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid event loop count " + count);
+        }
+
+        loops = new EventLoop[count];
+        for (int i = 0; i < count; i++) {
+            loops[i] = new EventLoop("DNP3 event loop " + i);
+        }
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * @return the loop for the next session
+     */
+    public EventLoop next() {
+        return loops[(index.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * Stop every loop. Sessions still bound to them stop working.
+     */
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * @return number of loops
+     */
+    public int size() {
+        return loops.length;
+    }
+}
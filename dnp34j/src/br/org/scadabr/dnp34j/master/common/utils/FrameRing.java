@@ -0,0 +1,291 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Lock-free frame queue between one producer thread and one consumer thread, used on every layer
+ * boundary. Frames are written straight into preallocated slots :
+ * <ul>
+ * <li>producer : {@link #claim()} a slot, fill it, then {@link #publish(int)} its length
+ * <li>consumer : {@link #next()} frame, read it from {@link #getFrame()}, then {@link #release()}
+ * its slot
+ * </ul>
+ *
+ * A full ring blocks the producer until the consumer frees a slot, and an empty ring blocks the
+ * consumer until a frame is published, both according to the {@link WaitStrategy}. Several
+ * producers must be serialized by the caller.
+ *
+ * <p>
+ * A ring may instead be consumed on an {@link EventLoop} : see
+ * {@link #setConsumer(EventLoop, Runnable)}.
+ */
+public class FrameRing {
+
+    // busy checks before yielding or parking
+    private static final int SPIN_TRIES = 100;
+
+    // yields before parking
+    private static final int YIELD_TRIES = 10;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    // next frame to read, written by the consumer only
+    private volatile long head;
+
+    // next slot to write, written by the producer only
+    private volatile long tail;
+
+    private volatile Thread consumer;
+    private volatile Thread producer;
+    private volatile boolean closed = false;
+
+    // event loop mode : task polling the ring, run on publish
+    private EventLoop consumerLoop;
+    private Runnable consumerTask;
+    private final AtomicBoolean consumerScheduled = new AtomicBoolean();
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * @param capacity
+     *            number of frames held, rounded up to a power of 2
+     * @param slotSize
+     *            longest frame
+     * @param waitStrategy
+     *            how both sides wait
+     */
+    public FrameRing(int capacity, int slotSize, WaitStrategy waitStrategy) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        slots = new byte[size][slotSize];
+        lengths = new int[size];
+        mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Wait for a free slot
+     *
+     * @return the array of this slot, to fill from index 0
+     * @throws Exception
+     *             if the ring is closed
+     */
+    public byte[] claim() throws Exception {
+        long t = tail;
+        int spins = 0;
+
+        while (t - head > mask) {
+            if (closed) {
+                throw new Exception("Frame ring closed");
+            }
+            if (consumerLoop != null && consumerLoop.inEventLoop()) {
+                // the consumer can't run while its own loop waits
+                throw new Exception("Frame ring full");
+            }
+            if (spins < SPIN_TRIES + YIELD_TRIES || waitStrategy != WaitStrategy.PARK) {
+                spins = idle(spins);
+            } else {
+                producer = Thread.currentThread();
+                if (t - head > mask && !closed) {
+                    LockSupport.park(this);
+                }
+                producer = null;
+            }
+        }
+
+        if (closed) {
+            throw new Exception("Frame ring closed");
+        }
+        return slots[(int) (t & mask)];
+    }
+
+    /**
+     * Hand the claimed slot to the consumer
+     *
+     * @param length
+     *            number of bytes written in the slot
+     */
+    public void publish(int length) {
+        long t = tail;
+        if (length > slots[0].length) {
+            throw new IllegalArgumentException("Frame too long : " + length);
+        }
+
+        lengths[(int) (t & mask)] = length;
+        tail = t + 1;
+
+        if (consumerLoop != null) {
+            if (consumerLoop.inEventLoop()) {
+                consumerTask.run();
+            } else if (consumerScheduled.compareAndSet(false, true)) {
+                consumerLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        consumerScheduled.set(false);
+                        consumerTask.run();
+                    }
+                });
+            }
+            return;
+        }
+
+        Thread waiter = consumer;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Copy a frame into the next free slot, waiting for one if the ring is full
+     *
+     * @throws Exception
+     *             if the ring is closed
+     */
+    public void put(byte[] src, int off, int len) throws Exception {
+        byte[] slot = claim();
+        System.arraycopy(src, off, slot, 0, len);
+        publish(len);
+    }
+
+    /**
+     * Wait for the next frame
+     *
+     * @return its length, or -1 if the ring is closed
+     */
+    public int next() {
+        long h = head;
+        int spins = 0;
+
+        while (tail == h) {
+            if (closed) {
+                return -1;
+            }
+            if (spins < SPIN_TRIES + YIELD_TRIES || waitStrategy != WaitStrategy.PARK) {
+                spins = idle(spins);
+            } else {
+                consumer = Thread.currentThread();
+                if (tail == h && !closed) {
+                    LockSupport.park(this);
+                }
+                consumer = null;
+            }
+        }
+
+        return closed ? -1 : lengths[(int) (h & mask)];
+    }
+
+    /**
+     * Look for the next frame, without waiting
+     *
+     * @return its length, or -1 if the ring is empty or closed
+     */
+    public int poll() {
+        long h = head;
+        if (closed || tail == h) {
+            return -1;
+        }
+        return lengths[(int) (h & mask)];
+    }
+
+    /**
+     * Consume this ring on an event loop rather than with a thread waiting in {@link #next()}.
+     * Every publish runs the task on the loop, directly if the producer is already there. The task
+     * {@link #poll()}s the frames.
+     *
+     * @param loop
+     *            loop of the consumer
+     * @param task
+     *            consumer task, must not block
+     */
+    public void setConsumer(EventLoop loop, Runnable task) {
+        this.consumerTask = task;
+        this.consumerLoop = loop;
+    }
+
+    /**
+     * @return the array holding the frame returned by {@link #next()}, from index 0
+     */
+    public byte[] getFrame() {
+        return slots[(int) (head & mask)];
+    }
+
+    /**
+     * @return the length of the frame returned by {@link #next()}
+     */
+    public int getLength() {
+        return lengths[(int) (head & mask)];
+    }
+
+    /**
+     * Free the slot of the current frame
+     */
+    public void release() {
+        head = head + 1;
+
+        Thread waiter = producer;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Wake up both sides : next() returns -1 and claim() fails from now on
+     */
+    public void close() {
+        closed = true;
+
+        Thread waiter = consumer;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        waiter = producer;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * @return true if no frame is waiting
+     */
+    public boolean isEmpty() {
+        return tail == head;
+    }
+
+    /**
+     * @return number of frames waiting
+     */
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return the closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private int idle(int spins) {
+        if (waitStrategy != WaitStrategy.SPIN && spins >= SPIN_TRIES) {
+            Thread.yield();
+        }
+        return (spins < SPIN_TRIES + YIELD_TRIES) ? spins + 1 : spins;
+    }
+}
@@ -0,0 +1,290 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Timing wheel shared by every session of the process : one thread measures the time of all
+ * link, application and request deadlines, instead of one waiting thread per deadline.
+ *
+ * <p>
+ * The wheel is a ring of buckets, each one covering a tick. A timeout is hashed to the bucket of
+ * its deadline, with the number of turns left before it expires, so arming and cancelling are
+ * O(1) whatever the number of timeouts. Deadlines are rounded up to the next tick.
+ *
+ * <p>
+ * Tasks run on the timer thread and must be short : a task that may wait, such as sending a
+ * request, is given an executor, the loop of an {@link EventLoop} session or the task executor of a
+ * session in thread mode.
+ */
+public class HashedWheelTimer implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private static HashedWheelTimer shared;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    // armed by any thread, moved to the wheel by the timer thread
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+
+    private final Thread thread;
+    private volatile boolean STOP = false;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * Build and start a timer
+     *
+     * @param tick
+     *            tick duration in ms, the precision of the deadlines
+     * @param ticksPerWheel
+     *            number of buckets, rounded up to a power of 2
+     * @param name
+     *            name of its thread
+     */
+    public HashedWheelTimer(long tick, int ticksPerWheel, String name) {
+        if (tick < 1) {
+            throw new IllegalArgumentException("Invalid tick " + tick);
+        }
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * @return the timer of the process, started on first use with a 10 ms tick
+     */
+    public static synchronized HashedWheelTimer getShared() {
+        if (shared == null) {
+            shared = new HashedWheelTimer(10, 512, "DNP3 timer");
+        }
+        return shared;
+    }
+
+    /**
+     * Run a task on the timer thread after a delay
+     *
+     * @param task
+     *            task to run
+     * @param delay
+     *            delay in ms
+     * @return a handle to cancel the task
+     */
+    public Timeout newTimeout(Runnable task, long delay) {
+        return newTimeout(task, delay, null);
+    }
+
+    /**
+     * Run a task with an executor after a delay. The task doesn't run if it's cancelled while
+     * queued in the executor.
+     *
+     * @param task
+     *            task to run
+     * @param delay
+     *            delay in ms
+     * @param executor
+     *            executor of the task, null to run it on the timer thread
+     * @return a handle to cancel the task
+     */
+    public Timeout newTimeout(Runnable task, long delay, Executor executor) {
+        Timeout timeout = new Timeout(task, executor, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the timer. Timeouts not expired yet never run.
+     */
+    public void stop() {
+        STOP = true;
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long tick = 0;
+
+        while (!STOP) {
+            // sleep until the end of the current tick
+            long sleep = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+                catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            transferPending(start, tick);
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Hash the timeouts armed since the previous tick to their bucket
+     */
+    private void transferPending(long start, long current) {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+
+            // ticks are numbered from the start, deadline rounded up to a tick
+            long ticks = (timeout.deadline - start + tickNanos - 1) / tickNanos - 1;
+            if (ticks < current) {
+                // already late : expire it on this tick
+                ticks = current;
+            }
+
+            timeout.remainingRounds = (ticks - current) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Run the timeouts of a bucket due on this turn
+     */
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled) {
+                bucket.remove(timeout);
+            }
+            else if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                try {
+                    if (timeout.executor != null) {
+                        timeout.executor.execute(timeout);
+                    }
+                    else {
+                        timeout.task.run();
+                    }
+                }
+                catch (Throwable t) {
+                    LOG.error("[HashedWheelTimer] timeout task failed", t);
+                }
+            }
+            else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * @return the thread of this timer
+     */
+    public Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * Timeouts of a tick, accessed by the timer thread only
+     */
+    private static class Bucket {
+        private Timeout head;
+
+        private void add(Timeout timeout) {
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            }
+            else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+
+    /**
+     * Task waiting for its deadline
+     */
+    public static class Timeout implements Runnable {
+        private final Runnable task;
+        private final Executor executor;
+        private final long deadline;
+        private volatile boolean cancelled = false;
+
+        // position in the wheel, accessed by the timer thread only
+        private long remainingRounds;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, Executor executor, long deadline) {
+            this.task = task;
+            this.executor = executor;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Run the task on its executor, unless cancelled meanwhile
+         */
+        @Override
+        public void run() {
+            if (!cancelled) {
+                task.run();
+            }
+        }
+
+        /**
+         * Don't run the task, if it didn't start yet. The timeout leaves the wheel on its next
+         * turn over its bucket.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return the cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
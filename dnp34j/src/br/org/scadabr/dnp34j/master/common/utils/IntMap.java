@@ -0,0 +1,192 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Map from int keys, such as DNP3 addresses, to values. Keys are stored in an open addressing
+ * table with linear probing, so a lookup costs a few array reads and never boxes the key.
+ *
+ * <p>
+ * Not synchronized. A map shared with a reader thread should be replaced by a modified
+ * {@link #IntMap(IntMap) copy} rather than modified in place.
+ *
+ * @param <V> type of the values
+ */
+public class IntMap<V> {
+
+    private static final int FREE = Integer.MIN_VALUE;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+    public IntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected
+     *            number of entries held without growing
+     */
+    public IntMap(int expected) {
+        int capacity = 4;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Build a copy of another map
+     *
+     * @param other
+     *            map to copy
+     */
+    public IntMap(IntMap<V> other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * @param key
+     *            any value but Integer.MIN_VALUE
+     *
+     * @return the value mapped to this key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+            if (keys[i] == FREE) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            any value but Integer.MIN_VALUE
+     * @param value
+     *            value to map, not null
+     *
+     * @return the previous value mapped to this key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Invalid key " + key);
+        }
+        if (value == null) {
+            throw new NullPointerException("Null value for key " + key);
+        }
+
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @param key
+     *            key to remove
+     *
+     * @return the value which was mapped to this key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == FREE) {
+            return null;
+        }
+
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != key) {
+            if (keys[i] == FREE) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+
+        V previous = (V) values[i];
+        keys[i] = FREE;
+        values[i] = null;
+        size--;
+
+        // move back the following entries of the cluster
+        for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            int k = keys[j];
+            Object v = values[j];
+            keys[j] = FREE;
+            values[j] = null;
+            size--;
+            put(k, (V) v);
+        }
+        return previous;
+    }
+
+    /**
+     * @return true if a value is mapped to this key
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new Object[capacity];
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -9,9 +9,15 @@
  */
 package br.org.scadabr.dnp34j.master.common.utils;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * <p>
  * Wait() and notify() operations in a sequence can be processed with a Lock object.
+ * Waiting parks the thread rather than holding a monitor, so it doesn't pin the carrier of a
+ * virtual thread.
  * 
  * @author <a href="mailto:alexis.clerc@sysaware.com">Alexis CLERC
  *         &lt;alexis.clerc@sysaware.com&gt;</a>
@@ -24,7 +30,10 @@ public class Lock {
     /**
      * Lock state : LOCKED or UNLOCKED
      */
-    private boolean state;
+    private volatile boolean state;
+
+    private final ReentrantLock mutex = new ReentrantLock();
+    private final Condition unlocked = mutex.newCondition();
 
     // =============================================================================
     // Constructor
@@ -63,35 +72,52 @@ public class Lock {
     /**
      * Lock this object Waiting() functions on this object are blocking now
      */
-    public synchronized void lock() {
+    public void lock() {
         setState(true);
     }
 
     /**
      * Unlock this object All waiting() functions on this object are unlocked
      */
-    public synchronized void unlock() {
-        setState(false);
-        notifyAll();
+    public void unlock() {
+        mutex.lock();
+        try {
+            setState(false);
+            unlocked.signalAll();
+        }
+        finally {
+            mutex.unlock();
+        }
     }
 
     /**
      * Wait until this object is unlocked or timeout has exceeded
      * 
      * @param timeout
-     *            timeout in millisecond to wait
+     *            timeout in millisecond to wait, 0 to wait until unlocked
+     *            as Object.wait(0) does
      * 
      * @return <tt>true</tt> if object has been unlocked <tt>false</tt> if
      *         timeout has exceeded
      */
-    public synchronized boolean waiting(long timeout) {
-        if (state == true) {
+    public boolean waiting(long timeout) {
+        if (timeout == 0) {
+            waiting();
+        }
+        else if (state == true) {
+            mutex.lock();
             try {
-                wait(timeout);
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (state == true && nanos > 0) {
+                    nanos = unlocked.awaitNanos(nanos);
+                }
             }
             catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
+            finally {
+                mutex.unlock();
+            }
         }
 
         return !state;
@@ -100,14 +126,20 @@ public class Lock {
     /**
      * Wait until this object is unlocked
      */
-    public synchronized void waiting() {
+    public void waiting() {
         if (state == true) {
+            mutex.lock();
             try {
-                wait();
+                while (state == true) {
+                    unlocked.await();
+                }
             }
             catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
+            finally {
+                mutex.unlock();
+            }
         }
     }
 
@@ -0,0 +1,32 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Thread factories for the layers of a session. This is the Java 8 version : virtual threads are
+ * provided by the Java 21 version of this class, in META-INF/versions/21 of the jar.
+ */
+public final class Threads {
+
+    private Threads() {
+    }
+
+    /**
+     * @return true if this JVM can run layers on virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return false;
+    }
+
+    /**
+     * @param prefix
+     *            name of the threads, followed by a counter
+     * @return a factory of virtual threads
+     * @throws UnsupportedOperationException
+     *             before Java 21
+     */
+    public static ThreadFactory virtualThreadFactory(String prefix) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21");
+    }
+}
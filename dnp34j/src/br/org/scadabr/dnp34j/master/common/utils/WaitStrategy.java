@@ -0,0 +1,15 @@
+package br.org.scadabr.dnp34j.master.common.utils;
+
+/**
+ * <p>
+ * How a thread waits on a {@link FrameRing}, for a frame to read or for a free slot to write
+ * <ul>
+ * <li>SPIN : busy loop, lowest hop latency but burns a core per waiting thread
+ * <li>YIELD : spin a little, then yield the processor between checks
+ * <li>PARK : spin a little, then park until the other side signals, so an idle session uses no
+ * CPU at all
+ * </ul>
+ */
+public enum WaitStrategy {
+    SPIN, YIELD, PARK
+}
@@ -10,13 +10,14 @@ package br.org.scadabr.dnp34j.master.layers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import br.org.scadabr.dnp34j.master.common.DataLengths;
 import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
 import br.org.scadabr.dnp34j.master.common.DataObject;
 import br.org.scadabr.dnp34j.master.common.InitFeatures;
+import br.org.scadabr.dnp34j.master.common.ObjectDescriptor;
 import br.org.scadabr.dnp34j.master.common.utils.Buffer;
 import br.org.scadabr.dnp34j.master.session.DNPUser;
 import br.org.scadabr.dnp34j.master.session.database.DataElement;
+import br.org.scadabr.dnp34j.master.session.database.Database;
 
 /**
  * <p>
@@ -31,6 +32,16 @@ public class DataMap implements DataMapFeatures, InitFeatures {
 
     private DNPUser user;
 
+    // object being decoded, copied into the database
+    private final DataElement decoded = new DataElement();
+
+    // value of a bit string object being decoded
+    private final byte[] bit = new byte[1];
+
+    // database and visitor of the fragment being decoded, null if not begun
+    private Database updated;
+    private PointVisitor visited;
+
     /**
      * Constructor. Build & Initialize a DataMap
      */
@@ -38,6 +49,52 @@ public class DataMap implements DataMapFeatures, InitFeatures {
         this.user = user;
     }
 
+    /**
+     * Start the update of the database, and tell the point visitor, with the objects of a response
+     * fragment. The database is begun first, so a failing visitor leaves nothing to undo but the
+     * update.
+     */
+    public void beginFragment() {
+        Database database = getDatabase();
+        if (database != null) {
+            database.beginUpdate();
+            updated = database;
+        }
+
+        PointVisitor visitor = user.getConfig().getPointVisitor();
+        if (visitor != null) {
+            visitor.beginFragment();
+            visited = visitor;
+        }
+    }
+
+    /**
+     * Publish the objects of a response fragment, even if its decoding failed. Only the update and
+     * the visit begun by {@link #beginFragment()} are ended.
+     */
+    public void endFragment() {
+        Database database = updated;
+        PointVisitor visitor = visited;
+        updated = null;
+        visited = null;
+        try {
+            if (visitor != null) {
+                visitor.endFragment();
+            }
+        } finally {
+            if (database != null) {
+                database.endUpdate();
+            }
+        }
+    }
+
+    /**
+     * @return the database to update, null if disabled
+     */
+    private Database getDatabase() {
+        return user.getConfig().isDatabaseEnabled() ? user.getDatabase() : null;
+    }
+
     /**
      * Set objects of a group/variation. Return a copy of data joined in the request Range :
      * [index(values[0]), index(values[1]), ... ,index(values[values.length-1])]
@@ -52,6 +109,10 @@ public class DataMap implements DataMapFeatures, InitFeatures {
      */
     public byte[] set(byte group, byte variation, int[] values, DataObject[] newDataObjects,
             byte qualifier) {
+        ObjectDescriptor descriptor = ObjectDescriptor.get(group, variation);
+        if (descriptor == null) {
+            throw new IllegalArgumentException("Unknown Data Object");
+        }
         Buffer getData = new Buffer(S);
 
         for (int i = 0; i < values.length; i++) {
@@ -62,12 +123,40 @@ public class DataMap implements DataMapFeatures, InitFeatures {
             }
 
             getData.writeBytes(newDataObjects[i].data);
-            setDB(values[i], newDataObjects[i].data, group, variation);
+            setDB(values[i], newDataObjects[i].data, 0, descriptor);
         }
 
         return getData.readBytes();
     }
 
+    /**
+     * Set an object of a group/variation, read in place from a received fragment
+     *
+     * @param group Object group
+     * @param variation Object variation
+     * @param index index of the object
+     * @param fragment bytes holding the object
+     * @param offset offset of the object
+     */
+    public void set(byte group, byte variation, int index, byte[] fragment, int offset) {
+        ObjectDescriptor descriptor = ObjectDescriptor.get(group, variation);
+        if (descriptor != null) {
+            set(descriptor, index, fragment, offset);
+        }
+    }
+
+    /**
+     * Set an object, read in place from a received fragment
+     *
+     * @param descriptor layout of the object
+     * @param index index of the object
+     * @param fragment bytes holding the object
+     * @param offset offset of the object
+     */
+    public void set(ObjectDescriptor descriptor, int index, byte[] fragment, int offset) {
+        setDB(index, fragment, offset, descriptor);
+    }
+
     /**
      * Set objects of a group/variation. Return a copy of data joined in the request Range :
      * [index[start], index[start+1], ... ,index[stop]]
@@ -81,15 +170,41 @@ public class DataMap implements DataMapFeatures, InitFeatures {
      * @return a range of Data Objects
      */
     public void set(byte group, byte variation, int start, int stop, byte[] newDataObjects) {
-        if (DataLengths.getDataLength(group, variation) < 0) {
-            return;
+        set(group, variation, start, stop, newDataObjects, 0);
+    }
+
+    /**
+     * Set a range of objects of a group/variation, read in place from a received fragment
+     *
+     * @param group Object group
+     * @param variation Object variation
+     * @param start range start
+     * @param stop range stop
+     * @param fragment bytes holding the objects
+     * @param offset offset of the first object
+     */
+    public void set(byte group, byte variation, int start, int stop, byte[] fragment, int offset) {
+        ObjectDescriptor descriptor = ObjectDescriptor.get(group, variation);
+        if (descriptor != null) {
+            set(descriptor, start, stop, fragment, offset);
         }
+    }
 
+    /**
+     * Set a range of objects, read in place from a received fragment
+     *
+     * @param descriptor layout of the objects
+     * @param start range start
+     * @param stop range stop
+     * @param fragment bytes holding the objects
+     * @param offset offset of the first object
+     */
+    public void set(ObjectDescriptor descriptor, int start, int stop, byte[] fragment, int offset) {
         //This is
-        if (DataLengths.isBitString(group, variation)) {
-            setBits(group, variation, start, stop, newDataObjects);
+        if (descriptor.isBitString()) {
+            setBits(descriptor, start, stop, fragment, offset);
         } else {
-            setBytes(group, variation, start, stop, newDataObjects);
+            setBytes(descriptor, start, stop, fragment, offset);
         }
     }
 
@@ -101,28 +216,27 @@ public class DataMap implements DataMapFeatures, InitFeatures {
      * Set bits objects of a group/variation. Return a copy of data joined in the request Range :
      * [index[start], index[start+1], ... ,index[stop]]
      *
-     * @param group Object group
-     * @param variation Object variation
+     * @param descriptor layout of the objects
      * @param start range start
      * @param stop range stop
      * @param newDataObjects updated objects to submit
+     * @param offset offset of the first object
      *
      * @return a range of Data Objects
      */
-    private void setBits(byte group, byte variation, int start, int stop, byte[] newDataObjects) {
-        byte[] newDO = new byte[1];
-
-        if(stop - start > newDataObjects.length * 8) {
+    private void setBits(ObjectDescriptor descriptor, int start, int stop, byte[] newDataObjects,
+            int offset) {
+        if(stop - start > (newDataObjects.length - offset) * 8) {
             throw new RuntimeException("Invalid data format for bit string");
         }
 
         //Scale to be bit in highest byte
         int index = start;
         int bitLocation = 0;
-        int byteNumber = 0;
+        int byteNumber = offset;
         while(index <= stop) {
-            newDO[0] = (byte) ((newDataObjects[byteNumber] >> bitLocation) & 0x01);
-            setDB(index, newDO, group, variation);
+            bit[0] = (byte) ((newDataObjects[byteNumber] >> bitLocation) & 0x01);
+            setDB(index, bit, 0, descriptor);
             index++;
             bitLocation++;
             if(bitLocation > 7) {
@@ -136,26 +250,24 @@ public class DataMap implements DataMapFeatures, InitFeatures {
      * Set bytes objects of a group/variation. Return a copy of data joined in the request Range :
      * [index[start], index[start+1], ... ,index[stop]]
      *
-     * @param group Object group
-     * @param variation Object variation
+     * @param descriptor layout of the objects
      * @param start range start
      * @param stop range stop
      * @param newDataObjects updated objects to submit
+     * @param offset offset of the first object
      *
      * @return a range of Data Objects
      */
-    private void setBytes(byte group, byte variation, int start, int stop, byte[] newDataObjects) {
-        int length = (DataLengths.getDataLength(group, variation) + 7) / 8;
-
-        byte[] newDO = new byte[length];
+    private void setBytes(ObjectDescriptor descriptor, int start, int stop, byte[] newDataObjects,
+            int offset) {
+        int length = (descriptor.getLength() + 7) / 8;
 
         for (int i = start; i < (stop + 1); i++) {
-            try {
-                System.arraycopy(newDataObjects, (i - start) * length, newDO, 0, length);
-            } catch (ArrayIndexOutOfBoundsException aioobe) {
-                continue;
+            int from = offset + (i - start) * length;
+            if (from + length > newDataObjects.length) {
+                break;
             }
-            setDB(i, newDO, group, variation);
+            setDB(i, newDataObjects, from, descriptor);
         }
     }
 
@@ -172,12 +284,16 @@ public class DataMap implements DataMapFeatures, InitFeatures {
      * </ul>
      *
      * @param index index point
-     * @param data updated value
-     * @param group object group
-     * @param variation object variation
+     * @param data bytes holding the updated value
+     * @param off offset of the value
+     * @param descriptor layout of the object
      */
-    private void setDB(int index, byte[] data, byte group, byte variation) {
-        DataElement rec = new DataElement();
+    private void setDB(int index, byte[] data, int off, ObjectDescriptor descriptor) {
+        byte group = descriptor.getGroup();
+        byte variation = descriptor.getVariation();
+
+        DataElement rec = decoded;
+        rec.clear();
         rec.setIndex(index);
         rec.setGroup(DataObject.getObjectType(group));
         rec.setTimestamp(System.currentTimeMillis());
@@ -185,520 +301,52 @@ public class DataMap implements DataMapFeatures, InitFeatures {
         rec.setVariation(variation);
 
         //Set Quality if supported
-        if (rec.supportsQuality()) {
-            rec.setQuality(data[0]);
+        if (descriptor.hasQuality()) {
+            rec.setQuality(data[off]);
         }
 
         //Extract the value
-        switch(group) {
-            case BINARY_INPUT_STATIC:
-                switch(variation) {
-                    case 1:
-                        rec.setValue(new Boolean(((data[0] & 0b00000001) != 0)));
-                        break;
-                    case 2:
-                        rec.setValue(new Boolean(((data[0] & 0b10000000) != 0)));
-                        break;
-                }
-                break;
-            case BINARY_INPUT_EVENT:
-                switch(variation) {
-                    case 1:
-                        rec.setValue(new Boolean(((data[0] & 0b10000000) != 0)));
-                        break;
-                    case 2:
-                        rec.setValue(new Boolean(((data[0] & 0b10000000) != 0)));
-                        //Has time
-                        rec.setTimestamp(DataObject.toTime(data, 1));
-                        break;
-                    case 3:
-                        rec.setValue(new Boolean(((data[0] & 0b10000000) != 0)));
-                        //Common time of occurrence not supported yet so not extracting relative 2 bytes of ms
-                        break;
-                    default:
-                        break;
-                }
-                break;
-            case BINARY_OUTPUT_STATIC:
-                switch(variation) {
-                    case 1:
-                        rec.setValue(new Boolean(((data[0] & 0b00000001) != 0)));
-                        break;
-                    case 2:
-                        rec.setValue(new Boolean(((data[0] & 0b10000000) != 0)));
-                        break;
-                }
-                break;
-            case BINARY_OUTPUT_EVENT:
-                switch(variation) {
-                    case 1:
-                        rec.setValue(new Boolean(((data[0] & 0b10000000) != 0)));
-                        break;
-                    case 2:
-                        rec.setValue(new Boolean(((data[0] & 0b10000000) != 0)));
-                        //Has time
-                        rec.setTimestamp(DataObject.toTime(data, 1));
-                        break;
-                    default:
-                        break;
-                }
-                break;
-            case BINARY_OUTPUT_COMMAND:
-                switch(variation) {
-                    case 1:
-                    case 2:
-                        rec.setControlStatus(data[10]);
-                        break;
-                }
-                break;
-            case COUNTER_STATIC:
-                //Counters
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 4:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 5:
-                        //32 bits
-                        rec.setValue(new Integer(DataObject.toInt(data, 0)));
-                        break;
-                    case 6:
-                        //16 bits
-                        rec.setValue(new Short(DataObject.toShort(data, 0)));
-                        break;
-                    case 7:
-                        //32 bits
-                        rec.setValue(new Integer(DataObject.toInt(data, 0)));
-                        break;
-                    case 8:
-                        //16 bits
-                        rec.setValue(new Short(DataObject.toShort(data, 0)));
-                        break;
-                    default:
-                        break;
-                }
+        int at = off + descriptor.getValueOffset();
+        switch (descriptor.getEncoding()) {
+            case ObjectDescriptor.BIT:
+                rec.setBooleanValue((data[at] & 0b00000001) != 0);
                 break;
-            case FROZEN_COUNTER:
-                //Frozen Counters
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 4:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 5:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 6:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    case 7:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 8:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    case 9:
-                        //32 bits
-                        rec.setValue(new Integer(DataObject.toInt(data, 0)));
-                        break;
-                    case 10:
-                        //16 bits
-                        rec.setValue(new Short(DataObject.toShort(data, 0)));
-                        break;
-                    case 11:
-                        //32 bits
-                        rec.setValue(new Integer(DataObject.toInt(data, 0)));
-                        break;
-                    case 12:
-                        //16 bits
-                        rec.setValue(new Short(DataObject.toShort(data, 0)));
-                        break;
-                    default:
-                        break;
-                }
+            case ObjectDescriptor.FLAG_BIT:
+                rec.setBooleanValue((data[at] & 0b10000000) != 0);
                 break;
-            case COUNTER_EVENT:
-                //Counter events
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 4:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 5:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 6:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    case 7:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 8:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    default:
-                        break;
-                }
+            case ObjectDescriptor.INT16:
+                rec.setShortValue(DataObject.toShort(data, at));
                 break;
-            case FROZEN_COUNTER_EVENT:
-                //Frozen Counter events
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 4:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 5:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 6:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    case 7:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 8:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    default:
-                        break;
-                }
+            case ObjectDescriptor.INT32:
+                rec.setIntValue(DataObject.toInt(data, at));
                 break;
-            case ANALOG_INPUT_STATIC:
-                //Analog Inputs
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits
-                        rec.setValue(new Integer(DataObject.toInt(data, 0)));
-                        break;
-                    case 4:
-                        //16 bits
-                        rec.setValue(new Short(DataObject.toShort(data, 0)));
-                        break;
-                    case 5:
-                        //32 bit floating point w/ flag
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        break;
-                    case 6:
-                        //64 bit floating point w/ flag
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        break;
-                    default:
-                        break;
-                }
+            case ObjectDescriptor.FLOAT32:
+                rec.setFloatValue(DataObject.toFloat(data, at));
                 break;
-            case FROZEN_ANALOG_INPUT:
-                //Frozen analog Inputs
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 4:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    case 5:
-                        //32 bits
-                        rec.setValue(new Integer(DataObject.toInt(data, 0)));
-                        break;
-                    case 6:
-                        //16 bits
-                        rec.setValue(new Short(DataObject.toShort(data, 0)));
-                        break;
-                    case 7:
-                        //32 bit floating point w/ flag
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        break;
-                    case 8:
-                        //64 bit floating point w/ flag
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        break;
-                    default:
-                        break;
-                }
+            case ObjectDescriptor.FLOAT64:
+                rec.setDoubleValue(DataObject.toDouble(data, at));
                 break;
-            case ANALOG_INPUT_EVENT:
-                //Analog Input Events
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 4:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    case 5:
-                        //32 bit floating point w/ flag
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        break;
-                    case 6:
-                        //64 bit floating point w/ flag
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        break;
-                    case 7:
-                        //32 bit floating point w/ flag and time
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 8:
-                        //64 bit floating point w/ flag and time
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 9));
-                        break;
-                    default:
-                        break;
-                }
+            default:
                 break;
-            case FROZEN_ANALOG_INPUT_EVENT:
-                //Frozen Analog Input Events
-                //Analog Input Events
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 4:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    case 5:
-                        //32 bit floating point w/ flag
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        break;
-                    case 6:
-                        //64 bit floating point w/ flag
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        break;
-                    case 7:
-                        //32 bit floating point w/ flag and time
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 8:
-                        //64 bit floating point w/ flag and time
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 9));
-                        break;
-                    default:
-                        break;
-                }
-                break;
-            case ANALOG_INPUT_REPORTING_DEADBAND:
-                //Analog Input Reporting Deadband
-                switch(variation) {
-                    case 1:
-                        //16 bits
-                        rec.setValue(new Short(DataObject.toShort(data, 0)));
-                        break;
-                    case 2:
-                        //32 bits
-                        rec.setValue(new Integer(DataObject.toInt(data, 0)));
-                        break;
-                    case 3:
-                        //32 bit floating point
-                        rec.setValue(new Float(DataObject.toFloat(data, 0)));
-                        break;
-                    default:
-                        break;
-                }
-                break;
-            case ANALOG_OUTPUT_STATIC:
-                //Analog output status
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bit floating point w/ flag
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        break;
-                    case 4:
-                        //64 bit floating point w/ flag
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        break;
-                    default:
-                        break;
-                }
-                break;
-            case ANALOG_OUTPUT_EVENTS:
-                //Analog output events
-                switch(variation) {
-                    case 1:
-                        //32 bits w/ flag
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        break;
-                    case 2:
-                        //16 bits w/ flag
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        break;
-                    case 3:
-                        //32 bits w/ flag and time
-                        rec.setValue(new Integer(DataObject.toInt(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 4:
-                        //16 bits w/ flag and time
-                        rec.setValue(new Short(DataObject.toShort(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 3));
-                        break;
-                    case 5:
-                        //32 bit floating point w/ flag
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        break;
-                    case 6:
-                        //64 bit floating point w/ flag
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        break;
-                    case 7:
-                        //32 bit floating point w/ flag and time
-                        rec.setValue(new Float(DataObject.toFloat(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 5));
-                        break;
-                    case 8:
-                        //64 bit floating point w/ flag
-                        rec.setValue(new Double(DataObject.toDouble(data, 1)));
-                        rec.setTimestamp(DataObject.toTime(data, 9));
-                        break;
-                    default:
-                        break;
-                }
-            case ANALOG_OUTPUT_COMMAND:
-                switch(variation) {
-                    case 1:
-                        rec.setControlStatus(data[4]);
-                        break;
-                    case 2:
-                        rec.setControlStatus(data[2]);
-                        break;
-                    case 3:
-                        rec.setControlStatus(data[4]);
-                        break;
-                    case 4:
-                        rec.setControlStatus(data[8]);
-                        break;
-                }
-                break;
-            default:break;
         }
 
-        if (user.getDatabase() != null)
-            user.getDatabase().writeRecord(rec);
+        //Has time
+        if (descriptor.hasTime()) {
+            rec.setTimestamp(DataObject.toTime(data, off + descriptor.getTimeOffset()));
+        }
+
+        if (descriptor.getStatusOffset() >= 0) {
+            rec.setControlStatus(data[off + descriptor.getStatusOffset()]);
+        }
+
+        PointVisitor visitor = user.getConfig().getPointVisitor();
+        if (visitor != null)
+            visitor.visit(group, variation, index, rec.getQuality(), rec.getValueType(), rec.getValueBits(),
+                    rec.getTimestamp(), rec.getControlStatus());
+
+        Database database = getDatabase();
+        if (database != null)
+            database.writeRecord(new DataElement(rec));
 
         if(LOG.isDebugEnabled()) {
             LOG.debug("[DataMap " + this + "] Set : (G,V,I, value) " + group
@@ -0,0 +1,50 @@
+package br.org.scadabr.dnp34j.master.layers;
+
+import br.org.scadabr.dnp34j.master.session.database.DataElement;
+
+/**
+ * <p>
+ * Told of every object of a response as it's decoded, on the application layer thread, before
+ * the database is updated. An application keeping its own store of points can set a visitor and
+ * disable the database, see {@link br.org.scadabr.dnp34j.master.session.config.DNPConfig}, so a
+ * response is decoded straight into its store.
+ *
+ * <p>
+ * Values are passed as their type and raw bits, as in {@link DataElement#getValueBits()}.
+ */
+public interface PointVisitor {
+
+    /**
+     * Start of a response fragment
+     */
+    default void beginFragment() {
+    }
+
+    /**
+     * @param group
+     *            group of the object, as received
+     * @param variation
+     *            variation of the object
+     * @param index
+     *            index of the point
+     * @param flags
+     *            quality flags, 0 if the variation has none
+     * @param valueType
+     *            type of the value, one of the DataElement.VALUE_ constants
+     * @param valueBits
+     *            raw bits of the value : 0 or 1 for a boolean, the int bits of a float, the long
+     *            bits of a double
+     * @param timestamp
+     *            time of the object, or of its reception if it has none
+     * @param controlStatus
+     *            status of a control, 0 for other objects
+     */
+    void visit(byte group, byte variation, int index, int flags, byte valueType, long valueBits, long timestamp,
+            byte controlStatus);
+
+    /**
+     * End of a response fragment, even if its decoding failed
+     */
+    default void endFragment() {
+    }
+}
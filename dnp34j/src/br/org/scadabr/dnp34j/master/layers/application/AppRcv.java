@@ -1,17 +1,18 @@
 package br.org.scadabr.dnp34j.master.layers.application;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import br.org.scadabr.dnp34j.master.common.AppFeatures;
-import br.org.scadabr.dnp34j.master.common.DataLengths;
 import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
-import br.org.scadabr.dnp34j.master.common.DataObject;
 import br.org.scadabr.dnp34j.master.common.InitFeatures;
 import br.org.scadabr.dnp34j.master.common.InternalIndication;
+import br.org.scadabr.dnp34j.master.common.ObjectDescriptor;
 import br.org.scadabr.dnp34j.master.common.utils.Buffer;
-import br.org.scadabr.dnp34j.master.common.utils.Lock;
-import br.org.scadabr.dnp34j.master.common.utils.Queue;
+import br.org.scadabr.dnp34j.master.common.utils.EventLoop;
+import br.org.scadabr.dnp34j.master.common.utils.FrameRing;
 import br.org.scadabr.dnp34j.master.common.utils.Utils;
 import br.org.scadabr.dnp34j.master.layers.DataMap;
 import br.org.scadabr.dnp34j.master.layers.transport.TransportLayer;
@@ -44,15 +45,13 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
 
     private static final Logger LOG = LoggerFactory.getLogger(AppRcv.class);
 
-    private boolean STOP = false;
+    private volatile boolean STOP = false;
 
     // =============================================================================
     // Attributes
     // =============================================================================
     private DNPConfig config;
-    private Buffer appRcvBuffer;
-    private Queue appRcvQueue;
-    private Lock appRcvLock;
+    private FrameRing appRcvRing;
     private Buffer frameRcv;
     private boolean appConfirm; // if true, remote station sends confirmation
     // messages
@@ -63,6 +62,7 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
     private AppSnd appSnd;
     private TransportLayer transportLayer;
     private byte appLastSeq;
+    private byte unsLastSeq = -1; // unsolicited responses have their own sequence numbers
     private boolean appFirstFrame;
     private final InternalIndication iin;
     private byte AC;
@@ -71,6 +71,10 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
 
     private DataMap dataMap;
 
+    // one request claims a slot of the AppSnd ring at a time, an explicit lock so that a virtual
+    // thread waiting for a free slot doesn't pin its carrier
+    private final ReentrantLock pushLock = new ReentrantLock();
+
     // =============================================================================
     // Constructor
     // =============================================================================
@@ -85,9 +89,7 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
         setUser(user);
         setConfig(user.getConfig());
 
-        appRcvBuffer = new Buffer(M);
-        appRcvQueue = new Queue();
-        appRcvLock = new Lock();
+        appRcvRing = new FrameRing(8, M, config.getWaitStrategy());
 
         appFirstFrame = true;
         appLastSeq = 0;
@@ -108,17 +110,15 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
     public void run() {
         try {
             while (!STOP) {
-                while (!STOP && appRcvQueue.empty())
-                    appRcvLock.waiting(20);
-                if (appRcvQueue.empty())
-                    continue;
-
-                appRcvLock.lock();
+                int length = appRcvRing.next();
+                if (length < 0)
+                    break;
 
                 if(LOG.isDebugEnabled()) {
                     LOG.debug("[ApplicationLayer] frame from TransportLayer !");
                 }
-                handle(appRcvBuffer.readBytes(appRcvQueue.pop()));
+                handle(appRcvRing.getFrame(), length);
+                appRcvRing.release();
             }
         }
         catch (Throwable t) {
@@ -127,41 +127,69 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
         }
     }
 
+    /**
+     * Event loop mode : handle the frames from transport layer on the loop
+     * instead of starting this thread
+     */
+    public void setEventLoop(EventLoop loop) {
+        appRcvRing.setConsumer(loop, this::drain);
+    }
+
+    /**
+     * Handle every frame waiting in appRcvRing, without blocking
+     */
+    private void drain() {
+        int length;
+        while (!STOP && (length = appRcvRing.poll()) >= 0) {
+            try {
+                handle(appRcvRing.getFrame(), length);
+            }
+            catch (Throwable t) {
+                System.out.print("[MasterAppRcv] ");
+                t.printStackTrace();
+            }
+            finally {
+                appRcvRing.release();
+            }
+        }
+    }
+
     // ///////////////////////////////////////////////////////////////////////
 
     /**
      * Handle a complete application frame from transport layer
      */
-    private void handle(byte[] anAppFrame) throws Exception {
-        frameRcv.reset();
-        frameRcv.writeBytes(anAppFrame);
+    private void handle(byte[] anAppFrame, int length) throws Exception {
+        // read in place, the frame is held until handled
+        frameRcv.wrap(anAppFrame, length);
         AC = frameRcv.readByte();
         FC = frameRcv.readByte();
         iin.setIin1(frameRcv.readByte());
         iin.setIin2(frameRcv.readByte());
         frameRcv.decrOffset(4);
 
+        UNS = (byte) (AC & 0x10);
+
         // compliance
-        if ((AC & 0x0F) != appLastSeq) {
+        if (UNS == 0 && (AC & 0x0F) != appLastSeq) {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("[ApplicationLayer] ERROR : doesn't match with the message expected");
                 LOG.debug("[ApplicationLayer] ERROR : number expected : " + appLastSeq);
             }
         }
 
-        if (FC == UNSOLICITED_RESPONSE)
-            System.out.println("Unsolicited Message!");
-
-
         //Check internal indication
         if(iin.shouldNotify()) {
             user.notifyInternalIndication(new InternalIndication(iin.getIin1(), iin.getIin2(), appLastSeq));
         }
 
-        // handle a confirm or a response msg
+        // handle a confirm, an unsolicited or a response msg
         if (FC == CONFIRM) {
             handleConfirmMsg();
         }
+        else if (FC == UNSOLICITED_RESPONSE) {
+            handleUnsolicitedMsg();
+        }
         else {
             handleResponseMsg();
         }
@@ -216,7 +244,7 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
 
         if (length > 4) {
             try {
-                updateDatamap(new Buffer(M, frameRcv.value()));
+                updateDatamap(frameRcv.getBuffer(), length);
             }
             catch (Exception e) {
                 user.reportException(e);
@@ -224,7 +252,9 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
         }
 
         appSnd.getConAppSndLock().unlock();
-        user.getUserRcvLock().unlock();
+        if (FC == RESPONSE) {
+            user.responseReceived(AC, iin);
+        }
 
         if ((AC & 0x40) == 0x40) // case where this fragment is the last one
         {
@@ -234,6 +264,39 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
 
     }
 
+    /**
+     * Handle an unsolicited response transmitted by the transport layer. It's confirmed at once,
+     * with its own sequence number, and doesn't change the context of solicited responses. A
+     * repetition of the last one, sent again because our confirm was lost, is only confirmed.
+     */
+    private void handleUnsolicitedMsg() throws Exception {
+        if ((AC & 0x20) == 0x20) {
+            buildConfirmMsg();
+        }
+
+        byte seq = (byte) (AC & 0x0F);
+        if (seq == unsLastSeq) {
+            if(LOG.isDebugEnabled()) {
+                LOG.debug("[ApplicationLayer] unsolicited response " + seq + " repeated");
+            }
+            return;
+        }
+        unsLastSeq = seq;
+
+        int length = frameRcv.length();
+
+        if (length > 4) {
+            try {
+                updateDatamap(frameRcv.getBuffer(), length);
+            }
+            catch (Exception e) {
+                user.reportException(e);
+            }
+        }
+
+        user.notifyUnsolicited(new InternalIndication(iin.getIin1(), iin.getIin2(), seq));
+    }
+
     // ///////////////////////////////////////////////////////////////////////
     // ///////////////////////////////////////////////////////////////////////
 
@@ -250,53 +313,65 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
 
     /**
      * When a response containing data is handled, This function is called to
-     * update database
+     * update database. Visible to the package for tests.
      */
-    private void updateDatamap(Buffer aFrame) throws Exception {
-        aFrame.incrOffset(4);
+    void updateDatamap(byte[] fragment, int length) throws Exception {
+        // readers see all the records of the fragment, or none
+        try {
+            dataMap.beginFragment();
+            updateFragment(fragment, length);
+        }
+        finally {
+            dataMap.endFragment();
+        }
+    }
 
-        while (aFrame.length() > 0) {
-            boolean discard = false;
-            byte group = aFrame.readByte();
-            byte variation = aFrame.readByte();
-            byte qualField = aFrame.readByte();
+    /**
+     * Decode the objects of a fragment in place, each object being read from
+     * the fragment by its offset
+     */
+    private void updateFragment(byte[] fragment, int length) throws Exception {
+        int pos = 4;
 
-            int dataLength = DataLengths.getDataLength(group, variation);
+        while (pos < length) {
+            require(fragment, pos + 3, length);
+            byte group = fragment[pos++];
+            byte variation = fragment[pos++];
+            byte qualField = fragment[pos++];
+
+            ObjectDescriptor descriptor = ObjectDescriptor.get(group, variation);
 
             // nao suportada e nao descartavel!
-            if (dataLength == -1) {
+            if (descriptor == null) {
                 throw new Exception("Invalid Application frame received for Group: " + group + " Variation: " + variation);
             }
+            int dataLength = descriptor.getLength();
 
             switch (qualField) {
 
                 case START_STOP_8: {
-                    int start = Utils.byte2int(aFrame.readByte());
-                    int stop = Utils.byte2int(aFrame.readByte());
-                    int length = (((stop - start + 1) * Math.abs(dataLength)) + 7) / 8;
-
-                    if (!discard) {
-                        dataMap.set(group, variation, start, stop, aFrame.readBytes(length));
-                    }
-                    else {
-                        aFrame.readBytes(length);
-                    }
-
+                    require(fragment, pos + 2, length);
+                    int start = Utils.byte2int(fragment[pos++]);
+                    int stop = Utils.byte2int(fragment[pos++]);
+                    int size = rangeSize(start, stop, dataLength);
+
+                    require(fragment, pos + size, length);
+                    dataMap.set(descriptor, start, stop, fragment, pos);
+                    pos += size;
                 }
 
                 break;
 
                 case START_STOP_16: {
-                    int start = (Utils.byte2int(aFrame.readByte()) + ((aFrame.readByte() << 8) & 0xFF00));
-                    int stop = (Utils.byte2int(aFrame.readByte()) + ((aFrame.readByte() << 8) & 0xFF00));
-                    int length = (((stop - start + 1) * Math.abs(dataLength)) + 7) / 8;
-                    if (!discard) {
-                        dataMap.set(group, variation, start, stop, aFrame.readBytes(length));
-                    }
-                    else {
-                        aFrame.readBytes(length);
-                    }
-
+                    require(fragment, pos + 4, length);
+                    int start = readIndex16(fragment, pos);
+                    int stop = readIndex16(fragment, pos + 2);
+                    pos += 4;
+                    int size = rangeSize(start, stop, dataLength);
+
+                    require(fragment, pos + size, length);
+                    dataMap.set(descriptor, start, stop, fragment, pos);
+                    pos += size;
                 }
 
                 break;
@@ -304,114 +379,120 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
                 case ALL_POINTS: {
                     // int length = ((dataMap.getIndexMax(group) * Math
                     // .abs(dataLength)) + 7) / 8;
-                    // if (!discard) {
-                    // // dataMap.set(group, variation, aFrame.readBytes(length));
-                    // } else {
-                    // aFrame.readBytes(length);
-                    // }
-
+                    // dataMap.set(descriptor, aFrame.readBytes(length));
                 }
 
                 break;
 
                 case QUANTITY_8: {
-                    int quantity = Utils.byte2int(aFrame.readByte());
-                    int length = ((quantity * Math.abs(dataLength)) + 7) / 8;
+                    require(fragment, pos + 1, length);
+                    int quantity = Utils.byte2int(fragment[pos++]);
+                    int size = ((quantity * Math.abs(dataLength)) + 7) / 8;
 
-                    if (!discard) {
-                        dataMap.set(group, variation, 0, quantity - 1, aFrame.readBytes(length));
-                    }
-                    else {
-                        aFrame.readBytes(length);
-                    }
+                    require(fragment, pos + size, length);
+                    dataMap.set(descriptor, 0, quantity - 1, fragment, pos);
+                    pos += size;
                 }
 
                 break;
 
                 case QUANTITY_16: {
-                    int quantity = (Utils.byte2int(aFrame.readByte()) + ((aFrame.readByte() << 8) & 0xFF00));
-                    int length = ((quantity * Math.abs(dataLength)) + 7) / 8;
-
-                    if (!discard) {
-                        dataMap.set(group, variation, 0, quantity - 1, aFrame.readBytes(length));
-                    }
-                    else {
-                        aFrame.readBytes(length);
-                    }
-
+                    require(fragment, pos + 2, length);
+                    int quantity = readIndex16(fragment, pos);
+                    pos += 2;
+                    int size = ((quantity * Math.abs(dataLength)) + 7) / 8;
+
+                    require(fragment, pos + size, length);
+                    dataMap.set(descriptor, 0, quantity - 1, fragment, pos);
+                    pos += size;
                 }
 
                 break;
 
                 case INDEXES_8: {
-                    int[] values = new int[aFrame.readByte()];
-                    DataObject[] dataObjects = new DataObject[values.length];
-
-                    if (!discard) {
-                        for (int i = 0; i < values.length; i++) {
-                            values[i] = Utils.byte2int(aFrame.readByte());
-
-                            int length = (dataLength + 7) / 8;
-                            dataObjects[i] = new DataObject(group, variation, aFrame.readBytes(length));
-                        }
-
-                        dataMap.set(group, variation, values, dataObjects, qualField);
-                    }
-                    else {
-                        dataLength *= -1;
-                        int numBytes = (dataLength / 8) * values.length + values.length;
-                        aFrame.readBytes(numBytes);
+                    require(fragment, pos + 1, length);
+                    int count = Utils.byte2int(fragment[pos++]);
+                    int size = (dataLength + 7) / 8;
+
+                    for (int i = 0; i < count; i++) {
+                        require(fragment, pos + 1 + size, length);
+                        int index = Utils.byte2int(fragment[pos++]);
+                        dataMap.set(descriptor, index, fragment, pos);
+                        pos += size;
                     }
                 }
 
                 break;
 
                 case INDEXES_16: {
-                    int[] values = new int[(Utils.byte2int(aFrame.readByte()) + ((aFrame.readByte() << 8) & 0xFF00))];
-                    DataObject[] dataObjects = new DataObject[values.length];
-
-                    if (!discard) {
-                        for (int i = 0; i < values.length; i++) {
-                            values[i] = (Utils.byte2int(aFrame.readByte()) + ((aFrame.readByte() << 8) & 0xFF00));
-
-                            int length = (dataLength + 7) / 8;
-                            dataObjects[i] = new DataObject(group, variation, aFrame.readBytes(length));
-                        }
-
-                        dataMap.set(group, variation, values, dataObjects, qualField);
+                    require(fragment, pos + 2, length);
+                    int count = readIndex16(fragment, pos);
+                    pos += 2;
+                    int size = (dataLength + 7) / 8;
+
+                    for (int i = 0; i < count; i++) {
+                        require(fragment, pos + 2 + size, length);
+                        int index = readIndex16(fragment, pos);
+                        pos += 2;
+                        dataMap.set(descriptor, index, fragment, pos);
+                        pos += size;
                     }
-                    else {
-                        dataLength *= -1;
-                        int numBytes = (dataLength / 8) * values.length + values.length * 2;
-                        aFrame.readBytes(numBytes);
-                    }
-
                 }
             }
 
         }
     }
 
+    /**
+     * @return number of bytes of the objects of a range, checked to move the cursor forward
+     */
+    private static int rangeSize(int start, int stop, int dataLength) throws Exception {
+        if (stop < start) {
+            throw new Exception("Invalid range received : start " + start + " after stop " + stop);
+        }
+        return (((stop - start + 1) * dataLength) + 7) / 8;
+    }
+
+    /**
+     * @return the 16 bits index, little endian, at this offset
+     */
+    private static int readIndex16(byte[] fragment, int pos) {
+        return Utils.byte2int(fragment[pos]) + ((fragment[pos + 1] << 8) & 0xFF00);
+    }
+
+    /**
+     * Check the fragment holds the bytes of an object up to this end
+     */
+    private static void require(byte[] fragment, int end, int length) throws Exception {
+        if (end > length) {
+            throw new Exception("Truncated Application frame received : " + end + " bytes needed, " + length
+                    + " received");
+        }
+    }
+
     // ///////////////////////////////////////////////////////////////////////
     // ///////////////////////////////////////////////////////////////////////
 
     /**
      * When a new request is created by user layer the frame is queued, and sent
-     * by AppSnd scheduler
+     * by AppSnd thread. A confirm message is sent at once.
      */
     public void push(Buffer aFrame, boolean type) throws Exception {
-        int length = aFrame.length();
-
-        if (type) {
-            appSnd.getConAppSndBuffer().writeBytes(aFrame.readBytes());
-            appSnd.getConAppSndQueue().push(length);
-            appSnd.send(true);
+        pushLock.lock();
+        try {
+            if (type) {
+                appSnd.send(aFrame);
+            }
+            else {
+                // waits for a free slot if AppSnd is late
+                FrameRing ring = appSnd.getAppSndRing();
+                int length = aFrame.length();
+                aFrame.readBytes(ring.claim(), 0, length);
+                ring.publish(length);
+            }
         }
-        else {
-            // appSnd.getAppSndLock().setState(user.getUserRcvLock().isState());
-            appSnd.getAppSndBuffer().writeBytes(aFrame.readBytes());
-            appSnd.getAppSndQueue().push(length);
-            appSnd.getAppSndLock().unlock();
+        finally {
+            pushLock.unlock();
         }
     }
 
@@ -440,51 +521,19 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
      */
     public void setSTOP(boolean sTOP) {
         STOP = sTOP;
+        if (sTOP) {
+            appRcvRing.close();
+            if (appSnd != null) {
+                appSnd.getAppSndRing().close();
+            }
+        }
     }
 
     /**
-     * @return the appRcvBuffer
-     */
-    public Buffer getAppRcvBuffer() {
-        return appRcvBuffer;
-    }
-
-    /**
-     * @param appRcvBuffer
-     *            the appRcvBuffer to set
-     */
-    public void setAppRcvBuffer(Buffer appRcvBuffer) {
-        this.appRcvBuffer = appRcvBuffer;
-    }
-
-    /**
-     * @return the appRcvQueue
-     */
-    public Queue getAppRcvQueue() {
-        return appRcvQueue;
-    }
-
-    /**
-     * @param appRcvQueue
-     *            the appRcvQueue to set
-     */
-    public void setAppRcvQueue(Queue appRcvQueue) {
-        this.appRcvQueue = appRcvQueue;
-    }
-
-    /**
-     * @return the appRcvLock
-     */
-    public Lock getAppRcvLock() {
-        return appRcvLock;
-    }
-
-    /**
-     * @param appRcvLock
-     *            the appRcvLock to set
+     * @return the ring of complete transport frames, filled by the transport layer
      */
-    public void setAppRcvLock(Lock appRcvLock) {
-        this.appRcvLock = appRcvLock;
+    public FrameRing getAppRcvRing() {
+        return appRcvRing;
     }
 
     /**
@@ -577,6 +626,13 @@ public class AppRcv extends Thread implements AppFeatures, InitFeatures, DataMap
         this.transportLayer = transportLayer;
     }
 
+    /**
+     * @return the sequence number of the last unsolicited response, -1 before the first one
+     */
+    public byte getUnsLastSeq() {
+        return unsLastSeq;
+    }
+
     /**
      * @return the appLastSeq
      */
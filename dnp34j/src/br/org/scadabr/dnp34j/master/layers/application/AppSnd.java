@@ -1,5 +1,7 @@
 package br.org.scadabr.dnp34j.master.layers.application;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -8,8 +10,9 @@ import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
 import br.org.scadabr.dnp34j.master.common.DataObject;
 import br.org.scadabr.dnp34j.master.common.InitFeatures;
 import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.common.utils.EventLoop;
+import br.org.scadabr.dnp34j.master.common.utils.FrameRing;
 import br.org.scadabr.dnp34j.master.common.utils.Lock;
-import br.org.scadabr.dnp34j.master.common.utils.Queue;
 import br.org.scadabr.dnp34j.master.common.utils.Utils;
 import br.org.scadabr.dnp34j.master.layers.DataMap;
 import br.org.scadabr.dnp34j.master.layers.transport.TransportLayer;
@@ -28,11 +31,7 @@ DataMapFeatures {
     // =============================================================================
     // Attributes
     // =============================================================================
-    private Buffer appSndBuffer; // request or response buffer
-    private Queue appSndQueue; // request or response queue
-    private Buffer conAppSndBuffer; // confirm buffer
-    private Queue conAppSndQueue; // confirm queue
-    private Lock appSndLock; // lock when current send process is running
+    private FrameRing appSndRing; // requests, filled by AppRcv.push()
     private Lock conAppSndLock; // lock until a confirm message is received
     private Buffer frameRcv;
     private Buffer previousFrameSnd;
@@ -40,15 +39,15 @@ DataMapFeatures {
     private TransportLayer transportLayer;
     private DNPConfig config;
 
+    // requests and confirms are built one at a time, an explicit lock so that a virtual thread
+    // waiting for a transport slot doesn't pin its carrier
+    private final ReentrantLock buildLock = new ReentrantLock();
+
     // =============================================================================
     // Constructor
     // =============================================================================
     public AppSnd(DNPUser user) throws Exception {
-        appSndBuffer = new Buffer(M);
-        appSndQueue = new Queue();
-        conAppSndBuffer = new Buffer(S);
-        conAppSndQueue = new Queue();
-        appSndLock = new Lock();
+        appSndRing = new FrameRing(8, M, user.getConfig().getWaitStrategy());
         conAppSndLock = new Lock(UNLOCKED);
         frameRcv = new Buffer(M);
         previousFrameSnd = new Buffer(M);
@@ -63,8 +62,13 @@ DataMapFeatures {
     public void run() {
         try {
             while (!appRcv.isSTOP()) {
-                scheduler(); // scheduler for requests
-                send(false); // OK, go !
+                // wait until a request is ready to send
+                int length = appSndRing.next();
+                if (length < 0)
+                    break;
+
+                buildApplicationMsg(appSndRing.getFrame(), 0, length); // OK, go !
+                appSndRing.release();
             }
         } catch (Throwable t) {
             System.out.print("[MasterAppSnd] ");
@@ -74,60 +78,26 @@ DataMapFeatures {
     }
 
     /**
-     * Temporize between each request/response
+     * Event loop mode : send the requests on the loop instead of starting this
+     * thread
      */
-    public void scheduler() throws Exception {
-        // schedule requests & responses
-        // if a request/response exist, no need to wait
-        while (!appRcv.isSTOP() && appSndQueue.empty())
-            // wait until a request/response is ready to send
-            // appSndLock.waiting(20);
-            Thread.sleep(20);
-        if (!appRcv.isSTOP())
-            return;
-
-        // locked when current process is running
-        // System.out.println("appSndLock.lock");
-        appSndLock.lock();
-
-        // a confirmation may be expected
-        int remainingRetries = appRcv.getAppMaxRetries();
-        while (!appRcv.isSTOP()) {
-            if (conAppSndLock.waiting(appRcv.getAppTimeout())) {
-                // System.out.println("appSndLock OK");
-                /*
-                 * enters here if - no confirmation is expected - or a
-                 * confirmation is expected and - is already received - timeout
-                 * has not expired
-                 *
-                 * -> confirmation received
-                 */
-                break;
-            }
-
-            /*
-             * enters here if - confirmation is expected and - timeout has
-             * expired
-             *
-             * -> confirmation not received
-             */
-            if (remainingRetries > 0) {
-                sendPreviousFrame();
-                remainingRetries--;
-            } else {
-                // notifies this error to database
-                // dataMap.setElementsToInvalid();
-
-                break;
-            }
-        }
+    public void setEventLoop(EventLoop loop) {
+        appSndRing.setConsumer(loop, this::drain);
+    }
 
-        while (!conAppSndQueue.empty()) // priority is to send confirm messages
-        {
+    /**
+     * Send every request waiting in appSndRing, without blocking
+     */
+    private void drain() {
+        int length;
+        while (!appRcv.isSTOP() && (length = appSndRing.poll()) >= 0) {
             try {
-                Thread.currentThread().wait(10);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+                buildApplicationMsg(appSndRing.getFrame(), 0, length);
+            } catch (Throwable t) {
+                System.out.print("[MasterAppSnd] ");
+                t.printStackTrace();
+            } finally {
+                appSndRing.release();
             }
         }
     }
@@ -316,62 +286,53 @@ DataMapFeatures {
     // ///////////////////////////////////////////////////////////////////////
 
     /**
-     * When a response is parsed by AppRcvMaster, a confirmation message and/or
-     * a request may be generated. When a message is generated in this way, it's
-     * pushed in a Buffer - conAppSndBuffer for a confirm message, -
-     * appSndBuffer for a request This method is called - immediatly after a
-     * confirm message is pushed - later when AppSnd scheduler allows next
-     * request to be sent.
-     *
-     * This method pops this message from its buffer and launch
-     * buildApplicationMsg()
+     * When a response is parsed by AppRcvMaster, a confirmation message may be
+     * generated. It doesn't wait behind queued requests : this method is called
+     * immediatly and launches buildApplicationMsg(). Requests go through
+     * appSndRing, sent by the AppSnd thread.
      */
-    public void send(boolean type) throws Exception {
-        if (type) // confirm message
-        {
-            buildApplicationMsg(conAppSndBuffer.readBytes(conAppSndQueue.pop()));
-        } else {
-            buildApplicationMsg(appSndBuffer.readBytes(appSndQueue.pop()));
-        }
+    public void send(Buffer aFrame) throws Exception {
+        byte[] someBytes = aFrame.readBytes();
+        buildApplicationMsg(someBytes, 0, someBytes.length);
     }
 
     /**
      * Update context just before sending the request then, the message is
      * transmitted to transportLayer.
      */
-    private void buildApplicationMsg(byte[] someBytes) throws Exception {
-        frameRcv.reset();
-        frameRcv.writeBytes(someBytes);
+    private void buildApplicationMsg(byte[] someBytes, int off, int length) throws Exception {
+        buildLock.lock();
+        try {
+            frameRcv.reset();
+            frameRcv.writeBytes(someBytes, off, length);
 
-        byte AC = frameRcv.value(0);
+            byte AC = frameRcv.value(0);
 
-        // a confirm message may be expected, and no message will be sent until
-        // it comes
-        if ((AC & 0x20) == 0x20) {
-            conAppSndLock.lock();
-        }
+            // a confirm message may be expected, and no message will be sent until
+            // it comes
+            if ((AC & 0x20) == 0x20) {
+                conAppSndLock.lock();
+            }
 
-        // update application sequence number
-        appRcv.setAppLastSeq((byte) (AC & 0x0F));
-        // store current frame for possible retries
-        previousFrameSnd.reset();
-        previousFrameSnd.writeBytes(frameRcv.value());
+            // update application sequence number, unless confirming an unsolicited response
+            if ((AC & 0x10) == 0) {
+                appRcv.setAppLastSeq((byte) (AC & 0x0F));
+            }
+            // store current frame for possible retries
+            previousFrameSnd.reset();
+            previousFrameSnd.writeBytes(frameRcv.value());
 
-        // transmit this application frame to transport layer
-        transportLayer.buildTransportMsg(frameRcv);
+            // transmit this application frame to transport layer
+            transportLayer.buildTransportMsg(frameRcv);
 
-        if(LOG.isDebugEnabled()) {
-            LOG.debug("[ApplicationLayer] Sending frame"
-                    + Utils.Display(frameRcv.value()));
+            if(LOG.isDebugEnabled()) {
+                LOG.debug("[ApplicationLayer] Sending frame"
+                        + Utils.Display(frameRcv.value()));
+            }
+        }
+        finally {
+            buildLock.unlock();
         }
-
-    }
-
-    // ///////////////////////////////////////////////////////////////////////
-    // ///////////////////////////////////////////////////////////////////////
-    // For the purpose of doing retries, send previous frame
-    private void sendPreviousFrame() throws Exception {
-        transportLayer.buildTransportMsg(previousFrameSnd);
     }
 
     // /**
@@ -389,70 +350,10 @@ DataMapFeatures {
      */
 
     /**
-     * @return the appSndBuffer
-     */
-    public Buffer getAppSndBuffer() {
-        return appSndBuffer;
-    }
-
-    /**
-     * @param appSndBuffer
-     *            the appSndBuffer to set
-     */
-    public void setAppSndBuffer(Buffer appSndBuffer) {
-        this.appSndBuffer = appSndBuffer;
-    }
-
-    /**
-     * @return the appSndQueue
-     */
-    public Queue getAppSndQueue() {
-        return appSndQueue;
-    }
-
-    /**
-     * @param appSndQueue
-     *            the appSndQueue to set
-     */
-    public void setAppSndQueue(Queue appSndQueue) {
-        this.appSndQueue = appSndQueue;
-    }
-
-    /**
-     * @return the conAppSndBuffer
-     */
-    public Buffer getConAppSndBuffer() {
-        return conAppSndBuffer;
-    }
-
-    /**
-     * @param conAppSndBuffer
-     *            the conAppSndBuffer to set
-     */
-    public void setConAppSndBuffer(Buffer conAppSndBuffer) {
-        this.conAppSndBuffer = conAppSndBuffer;
-    }
-
-    /**
-     * @return the conAppSndQueue
-     */
-    public Queue getConAppSndQueue() {
-        return conAppSndQueue;
-    }
-
-    /**
-     * @param conAppSndQueue
-     *            the conAppSndQueue to set
-     */
-    public void setConAppSndQueue(Queue conAppSndQueue) {
-        this.conAppSndQueue = conAppSndQueue;
-    }
-
-    /**
-     * @return the appSndLock
+     * @return the ring of requests waiting to be sent
      */
-    public Lock getAppSndLock() {
-        return appSndLock;
+    public FrameRing getAppSndRing() {
+        return appSndRing;
     }
 
     /**
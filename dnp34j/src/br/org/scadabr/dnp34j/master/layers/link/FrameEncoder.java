@@ -0,0 +1,117 @@
+package br.org.scadabr.dnp34j.master.layers.link;
+
+import br.org.scadabr.dnp34j.master.common.LnkFeatures;
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.common.utils.DnpCrc;
+
+/**
+ * <p>
+ * Send stage of the link layer. Header, 16 octets data blocks and their CRC are written straight
+ * into one array, reused for every frame, which is then handed to the physical layer in a single
+ * write.
+ */
+public class FrameEncoder implements LnkFeatures {
+
+    /**
+     * Longest user data of a link frame
+     */
+    public static final int DATA_SIZE_MAX = 250;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final byte[] frame = new byte[FrameReader.FRAME_SIZE_MAX];
+    private int length;
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Start a new frame with its header and header CRC
+     *
+     * @param basis
+     *            pre-built header : start bytes, direction bit and source address
+     * @param control
+     *            function code and control bits, added to the direction bit
+     * @param destination
+     *            destination address
+     * @param dataLength
+     *            number of user data octets which will follow
+     */
+    public void header(byte[] basis, byte control, int destination, int dataLength) {
+        if (dataLength > DATA_SIZE_MAX) {
+            throw new IllegalArgumentException("Link frame data too long : " + dataLength);
+        }
+
+        System.arraycopy(basis, 0, frame, 0, 8);
+        frame[2] = (byte) (5 + dataLength);
+        frame[3] |= control;
+        frame[4] = (byte) (destination & 0xFF);
+        frame[5] = (byte) ((destination >> 8) & 0xFF);
+
+        length = DnpCrc.writeCRC(frame, 0, 8);
+    }
+
+    /**
+     * Pop user data from a buffer, cut in blocks each followed by its CRC
+     *
+     * @param src
+     *            buffer holding the user data
+     * @param dataLength
+     *            number of octets to pop
+     */
+    public void data(Buffer src, int dataLength) {
+        while (dataLength > 0) {
+            int size = Math.min(DnpCrc.BLOCK_SIZE, dataLength);
+            src.readBytes(frame, length, size);
+            length = DnpCrc.writeCRC(frame, length, size);
+            dataLength -= size;
+        }
+    }
+
+    /**
+     * Copy user data from an array, cut in blocks each followed by its CRC
+     *
+     * @param src
+     *            array holding the user data
+     * @param off
+     *            index of the first octet
+     * @param dataLength
+     *            number of octets to copy
+     */
+    public void data(byte[] src, int off, int dataLength) {
+        while (dataLength > 0) {
+            int size = Math.min(DnpCrc.BLOCK_SIZE, dataLength);
+            System.arraycopy(src, off, frame, length, size);
+            length = DnpCrc.writeCRC(frame, length, size);
+            off += size;
+            dataLength -= size;
+        }
+    }
+
+    /**
+     * Copy the current frame into another encoder, for example to keep it for retries
+     *
+     * @param other
+     *            destination encoder
+     */
+    public void copyTo(FrameEncoder other) {
+        System.arraycopy(frame, 0, other.frame, 0, length);
+        other.length = length;
+    }
+
+    /**
+     * @return the array holding the current frame
+     */
+    public byte[] getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return the length of the current frame
+     */
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,320 @@
+package br.org.scadabr.dnp34j.master.layers.link;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.LnkFeatures;
+import br.org.scadabr.dnp34j.master.common.utils.Utils;
+import br.org.scadabr.dnp34j.master.layers.ThreadStopException;
+import br.org.scadabr.dnp34j.master.layers.physical.PhyLayer;
+
+/**
+ * <p>
+ * Receive stage of the link layer. Bytes are read from the physical layer in large chunks into a
+ * preallocated window, and complete 0x05 0x64 frames are cut out of this window in place.
+ *
+ * <ul>
+ * <li>start : first byte not handled yet
+ * <li>end : next byte to write
+ * </ul>
+ *
+ * A frame returned by {@link #next()} or {@link #poll()} stays valid until the following call.
+ */
+public class FrameReader implements LnkFeatures {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FrameReader.class);
+
+    private static final int DATA_PAUSE_TIME = 20; // milliseconds
+
+    /**
+     * Longest link frame : 10 header bytes, then 250 data bytes in blocks of 16 with their CRC
+     */
+    public static final int FRAME_SIZE_MAX = 292;
+
+    /**
+     * Default window capacity
+     */
+    public static final int CAPACITY = 4096;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private PhyLayer phyLayer;
+
+    // true if read() blocks until data arrives, false to poll available()
+    private boolean blocking;
+    private volatile boolean STOP = false;
+
+    private final byte[] buffer;
+    private int start;
+    private int end;
+
+    // last frame cut out of the window
+    private int frameOffset;
+    private int frameLength;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+    public FrameReader(boolean blocking) {
+        this(blocking, CAPACITY);
+    }
+
+    /**
+     * @param blocking
+     *            true if read() blocks until data arrives
+     * @param capacity
+     *            window capacity, at least {@link #FRAME_SIZE_MAX}
+     */
+    public FrameReader(boolean blocking, int capacity) {
+        if (capacity < FRAME_SIZE_MAX) {
+            throw new IllegalArgumentException("Window capacity must be at least " + FRAME_SIZE_MAX);
+        }
+        this.blocking = blocking;
+        this.buffer = new byte[capacity];
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Cut the next frame out of the window, reading from the physical layer when it doesn't hold a
+     * complete frame yet. Bytes in front of a frame which are not a DNP3 header are skipped.
+     *
+     * @throws ThreadStopException
+     *             if the reader has been stopped
+     * @throws IOException
+     *             if the connection failed or was closed
+     */
+    public void next() throws ThreadStopException, IOException {
+        while (!cut()) {
+            fill();
+        }
+    }
+
+    /**
+     * Cut the next frame out of the window, reading only the bytes the physical layer already
+     * holds. Used by event loops, which must not block.
+     *
+     * @return true if a frame was cut, false if more bytes are needed
+     * @throws IOException
+     *             if the connection failed
+     */
+    public boolean poll() throws IOException {
+        while (!cut()) {
+            InputStream in = phyLayer.getInputStream();
+            int available = in.available();
+            if (available < 1) {
+                return false;
+            }
+
+            compact();
+            int count = in.read(buffer, end, Math.min(buffer.length - end, available));
+            if (count < 0) {
+                throw new EOFException("Remote connection closed");
+            }
+            end += count;
+        }
+        return true;
+    }
+
+    /**
+     * Look for a complete frame in the window
+     *
+     * @return true if a frame was cut
+     */
+    private boolean cut() {
+        while (true) {
+            // byte#0 & byte#1
+            while (end > start) {
+                if ((buffer[start] != START_0) || ((end - start > 1) && (buffer[start + 1] != START_1))) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("[LinkLayer] " + Utils.DisplayByte(buffer[start])
+                                + " is not a DNP3 header. Byte ignored");
+                    }
+                    start++;
+                }
+                else {
+                    break;
+                }
+            }
+
+            // byte#2 gives the length of byte#3 ..#n
+            if (end - start > 2) {
+                int length = buffer[start + 2] & 0xFF;
+
+                if (length < 5) {
+                    // too short for control and addresses, look for the next header
+                    start++;
+                    continue;
+                }
+
+                int size = frameSize(length);
+
+                if (end - start >= size) {
+                    frameOffset = start;
+                    frameLength = size;
+                    start += size;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Make room for a whole frame at the end of the window
+     */
+    private void compact() {
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+        else if (buffer.length - start < FRAME_SIZE_MAX) {
+            // not enough room left for a whole frame, move the pending bytes to the front
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+    }
+
+    /**
+     * Read as many bytes as the window and the physical layer allow
+     */
+    private void fill() throws ThreadStopException, IOException {
+        compact();
+
+        InputStream in = phyLayer.getInputStream();
+        int size = buffer.length - end;
+
+        if (!blocking) {
+            int available = 0;
+
+            while (!STOP && ((available = in.available()) < 1)) {
+                try {
+                    Thread.sleep(DATA_PAUSE_TIME);
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            size = Math.min(size, available);
+        }
+
+        if (STOP)
+            throw new ThreadStopException();
+
+        int count = in.read(buffer, end, size);
+
+        if (count < 0) {
+            if (blocking)
+                throw new EOFException("Remote connection closed");
+            return;
+        }
+        end += count;
+    }
+
+    /**
+     * Total length of a frame
+     *
+     * @param length
+     *            value of the length byte
+     *
+     * @return number of bytes, from the start bytes to the last CRC
+     */
+    public static int frameSize(int length) {
+        return 3 + length + 2 + (2 * ((length + 10) / 16));
+    }
+
+    /**
+     * @return the destination address of a frame
+     */
+    public static int destination(byte[] frame, int off) {
+        return (frame[off + 4] & 0xFF) | ((frame[off + 5] & 0xFF) << 8);
+    }
+
+    /**
+     * @return the source address of a frame
+     */
+    public static int source(byte[] frame, int off) {
+        return (frame[off + 6] & 0xFF) | ((frame[off + 7] & 0xFF) << 8);
+    }
+
+    /**
+     * Drop any pending byte, for example after a reconnection
+     */
+    public void clear() {
+        start = 0;
+        end = 0;
+    }
+
+    /**
+     * @return number of bytes read but not handled yet
+     */
+    public int pending() {
+        return end - start;
+    }
+
+    /**
+     * @return the window holding the last frame
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the offset of the last frame in the window
+     */
+    public int getFrameOffset() {
+        return frameOffset;
+    }
+
+    /**
+     * @return the length of the last frame
+     */
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * @return the phyLayer
+     */
+    public PhyLayer getPhyLayer() {
+        return phyLayer;
+    }
+
+    /**
+     * @param phyLayer
+     *            the phyLayer to set
+     */
+    public void setPhyLayer(PhyLayer phyLayer) {
+        this.phyLayer = phyLayer;
+    }
+
+    /**
+     * @return the blocking
+     */
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    /**
+     * @return the sTOP
+     */
+    public boolean isSTOP() {
+        return STOP;
+    }
+
+    /**
+     * @param sTOP
+     *            the sTOP to set
+     */
+    public void setSTOP(boolean sTOP) {
+        STOP = sTOP;
+    }
+}
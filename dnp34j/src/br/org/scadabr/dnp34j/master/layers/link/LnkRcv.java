@@ -1,6 +1,8 @@
 package br.org.scadabr.dnp34j.master.layers.link;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +11,9 @@ import br.org.scadabr.dnp34j.master.common.InitFeatures;
 import br.org.scadabr.dnp34j.master.common.LnkFeatures;
 import br.org.scadabr.dnp34j.master.common.utils.Buffer;
 import br.org.scadabr.dnp34j.master.common.utils.DnpCrc;
+import br.org.scadabr.dnp34j.master.common.utils.EventLoop;
+import br.org.scadabr.dnp34j.master.common.utils.HashedWheelTimer;
+import br.org.scadabr.dnp34j.master.common.utils.IntMap;
 import br.org.scadabr.dnp34j.master.common.utils.Utils;
 import br.org.scadabr.dnp34j.master.layers.DataMap;
 import br.org.scadabr.dnp34j.master.layers.ThreadStopException;
@@ -16,6 +21,7 @@ import br.org.scadabr.dnp34j.master.layers.physical.PhyLayer;
 import br.org.scadabr.dnp34j.master.layers.transport.TransportLayer;
 import br.org.scadabr.dnp34j.master.session.DNPUser;
 import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig.RECEIVE;
 
 /**
  * 
@@ -23,8 +29,6 @@ import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
  *         &lt;alexis.clerc@sysaware.com&gt;</a>
  */
 public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
-    private static final int DATA_PAUSE_TIME = 20; // milliseconds
-
     private static final Logger LOG = LoggerFactory.getLogger(LnkRcv.class);
 
     private volatile boolean STOP = false;
@@ -62,7 +66,16 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
     // Data Flow Control bit ->> true : when buffer is full, to avoid overflow
     // RS485 hack (pb with Luciol)
     private int ignoreNextBytes;
-    private Buffer frameRcv;
+
+    // receive window, frames are handled in place
+    private FrameReader frameReader;
+
+    // event loop mode : received bytes are handled on the loop
+    private EventLoop eventLoop;
+    private final AtomicBoolean inputScheduled = new AtomicBoolean();
+
+    // transport frame rebuilt from the data blocks, reused for every frame
+    private Buffer trsFrame;
 
     // following parameters are tied to a remote station
     private int[] DNPAddressList;
@@ -71,15 +84,11 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
     // remoteStation n
     private int currentRemoteStation; // refer to a remote station
 
-    // from primary
-    private boolean[] receiveFcb;
-
-    // state of previous Frame Control Bit (Alternate Bit) received
-    private boolean[] sendFcb;
+    // FCB and transport state, one per entry of DNPAddressList
+    private RemoteStation[] remoteStations;
 
-    // state of previous Frame Control Bit (Alternate Bit) sent
-    // buffers
-    private Buffer[] previousFrameRcv;
+    // remote stations by address
+    private IntMap<RemoteStation> stationsByAddress;
 
     // =============================================================================
     // Constructor
@@ -119,19 +128,22 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
 
         setIgnoreNextBytes(0);
 
-        setFrameRcv(new Buffer(M));
+        frameReader = new FrameReader(config.getReceiveMode() == RECEIVE.BLOCKING);
+        trsFrame = new Buffer(S);
 
         currentRemoteStation = 1;
 
         setDNPAddressList(config.getDNPAddressList());
-        receiveFcb = new boolean[DNPAddressList.length];
-
-        sendFcb = new boolean[DNPAddressList.length];
-
-        previousFrameRcv = new Buffer[DNPAddressList.length];
+        remoteStations = new RemoteStation[DNPAddressList.length];
+        stationsByAddress = new IntMap<RemoteStation>(DNPAddressList.length);
 
         for (int i = 0; i < DNPAddressList.length; i++) {
-            previousFrameRcv[i] = new Buffer(M);
+            remoteStations[i] = new RemoteStation(DNPAddressList[i], i);
+
+            // index 0 is the master itself
+            if (i > 0) {
+                stationsByAddress.put(DNPAddressList[i], remoteStations[i]);
+            }
         }
 
     }
@@ -166,37 +178,9 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
             while (!STOP) {
                 // ignore next bytes if RS485 is used
                 // ignoreNextBytes();
-                // byte#0 & byte#1
-                startHandler();
-
-                frameRcv.reset();
-                frameRcv.writeByte(START_0);
-                frameRcv.writeByte(START_1);
-
-                byte length = 0;
-                int remaining;
 
                 try {
-                    // byte#2
-                    waitForAvailable();
-                    length = (byte) phyLayer.getInputStream().read();
-                    frameRcv.writeByte(length);
-
-                    // byte#3 ..#n
-                    remaining = (Utils.byte2int(length) + 2 + (2 * ((Utils.byte2int(length) + 10) / 16)));
-
-                    // System.out.println("BYTES REMAINING: " + remaining);
-
-                    while (remaining > 0) {
-                        int available = phyLayer.getInputStream().available();
-                        int size = Math.min(remaining, available);
-
-                        remaining -= size;
-
-                        byte[] remainingBytes = new byte[size];
-                        phyLayer.getInputStream().read(remainingBytes);
-                        frameRcv.writeBytes(remainingBytes);
-                    }
+                    frameReader.next();
                 }
                 catch (IOException e) {
                     handleConnectionError();
@@ -204,28 +188,7 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
                     break;
                 }
 
-                if(LOG.isDebugEnabled()) {
-                    LOG.debug("[LinkLayer] received " + Utils.Display(frameRcv.value()));
-                }
-
-                // header CRC check
-                error = !DnpCrc.checkCRC(frameRcv.value(0, 9));
-
-                if (LOG.isDebugEnabled() && error) {
-                    LOG.debug("[LinkLayer] error header CRC check");
-                }
-
-                if (rightAddress()) {
-                    control = frameRcv.value(3);
-                    byte function = (byte) (control & 0x0F);
-
-                    if (((control & 0x40) == 0x40) || (function == CON_DATA) || (function == UNCON_DATA)) {
-                        primaryHandler();
-                    }
-                    else {
-                        secondaryHandler();
-                    }
-                }
+                handleFrame(frameReader.getBuffer(), frameReader.getFrameOffset(), frameReader.getFrameLength());
             }
         }
         catch (ThreadStopException e) {
@@ -238,6 +201,78 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
         }
     }
 
+    /**
+     * Event loop mode : handle the received bytes on the loop instead of
+     * starting this thread. The physical layer must notify them, as NIO does.
+     */
+    public void setEventLoop(EventLoop loop) {
+        eventLoop = loop;
+        phyLayer.getPhyNIO().setReadListener(() -> {
+            if (inputScheduled.compareAndSet(false, true)) {
+                eventLoop.execute(this::drainInput);
+            }
+        });
+    }
+
+    /**
+     * Handle every complete frame already received, without blocking
+     */
+    private void drainInput() {
+        inputScheduled.set(false);
+        try {
+            while (!STOP && frameReader.poll()) {
+                handleFrame(frameReader.getBuffer(), frameReader.getFrameOffset(), frameReader.getFrameLength());
+            }
+        }
+        catch (IOException e) {
+            try {
+                handleConnectionError();
+            }
+            catch (Exception ex) {
+                // only logged
+            }
+        }
+        catch (Exception t) {
+            System.out.print("[MasterLnkRcv] ");
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * Handle a complete link frame, read in place from its array
+     *
+     * @param frame
+     *            array holding the frame
+     * @param off
+     *            offset of the start bytes
+     * @param len
+     *            length of the frame, CRCs included
+     */
+    public void handleFrame(byte[] frame, int off, int len) throws Exception {
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("[LinkLayer] received " + Utils.Display(Arrays.copyOfRange(frame, off, off + len)));
+        }
+
+        // header CRC check
+        error = !DnpCrc.checkCRC(frame, off, 10);
+
+        if (LOG.isDebugEnabled() && error) {
+            LOG.debug("[LinkLayer] error header CRC check");
+        }
+
+        if (rightAddress(frame, off)) {
+            control = frame[off + 3];
+            byte function = (byte) (control & 0x0F);
+
+            if (((control & 0x40) == 0x40) || (function == CON_DATA) || (function == UNCON_DATA)) {
+                primaryHandler(frame, off, len);
+            }
+            else {
+                secondaryHandler();
+            }
+        }
+    }
+
     //    /**
     //     * DOCUMENT ME!
     //     */
@@ -253,78 +288,15 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
     //        }
     //    }
 
-    /**
-     * DOCUMENT ME!
-     * 
-     * @throws Exception
-     */
-    private void startHandler() throws Exception {
-        boolean valid = false;
-        byte next;
-
-        try {
-            while (!valid) {
-                waitForAvailable();
-
-                next = (byte) phyLayer.getInputStream().read();
-                // aguarda primeiro byte que deve ser 0x05
-                if (next == START_0) {
-                    waitForAvailable();
-
-                    // aguarda segundo byte que deve ser 0x64
-                    next = (byte) phyLayer.getInputStream().read();
-
-                    if (next == START_1) {
-                        valid = true;
-                    }
-                    else {
-                        if (true) {
-                            System.out.println("[LinkLayer] " + Utils.DisplayByte(next)
-                                    + " is not a DNP3 header. Byte ignored");
-                        }
-
-                        while (next == START_0) {
-                            waitForAvailable();
-                            next = (byte) phyLayer.getInputStream().read();
-                        }
-
-                        if (next == START_1) {
-                            valid = true;
-                        }
-                    }
-                }
-                else {
-                    if (next == -1) {
-                        // System.out.println("IHHHHHHHHHH");
-                        // throw new IOException();
-                    }
-                    else {
-                        if (true) {
-                            System.out.println("[LinkLayer] " + Utils.DisplayByte(next)
-                                    + " is not a DNP3 header. Byte ignored");
-                        }
-                    }
-                }
-            }
-        }
-        catch (ThreadStopException e) {
-            // Ignore
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-            handleConnectionError();
-        }
-    }
-
     /**
      * DOCUMENT ME!
      * 
      * @return DOCUMENT ME!
      */
-    private boolean rightAddress() throws Exception {
+    private boolean rightAddress(byte[] frame, int off) throws Exception {
         boolean valid = false;
 
-        if ((frameRcv.value(4) != ADDRESS_0) || (frameRcv.value(5) != ADDRESS_1)) // wrong address
+        if ((frame[off + 4] != ADDRESS_0) || (frame[off + 5] != ADDRESS_1)) // wrong address
         {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[LinkLayer] dest address doesn't match");
@@ -333,15 +305,11 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
             return false;
         }
 
-        int remoteAddress = frameRcv.value(6) + (frameRcv.value(7) << 8);
+        RemoteStation station = stationsByAddress.get(FrameReader.source(frame, off));
 
-        for (int i = 1; i < DNPAddressList.length; i++) {
-            if (remoteAddress == DNPAddressList[i]) {
-                currentRemoteStation = i;
-                valid = true;
-
-                break;
-            }
+        if (station != null) {
+            currentRemoteStation = station.getIndex();
+            valid = true;
         }
 
         return valid;
@@ -350,11 +318,13 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
     /**
      * DOCUMENT ME!
      */
-    private void primaryHandler() throws Exception {
+    private void primaryHandler(byte[] frame, int off, int len) throws Exception {
         // i'm secondary
         // i receive a message FROM PRIMARY
         // check if its a duplicate frame
-        if (((control & 0x10) == 0x10) && (((control & 0x20) == 0x20) == receiveFcb[currentRemoteStation])) {
+        RemoteStation station = remoteStations[currentRemoteStation];
+
+        if (((control & 0x10) == 0x10) && (((control & 0x20) == 0x20) == station.isReceiveFcb())) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[LinkLayer] duplicate frame");
             }
@@ -376,8 +346,8 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
             // if OK
             if (!error) {
                 // cache this frame in case of a reply
-                previousFrameRcv[currentRemoteStation].reset();
-                previousFrameRcv[currentRemoteStation].writeBytes(frameRcv.value());
+                station.getPreviousFrameRcv().reset();
+                station.getPreviousFrameRcv().writeBytes(frame, off, len);
 
                 // send this frame
                 sendSecondaryMsg(RESPOND);
@@ -388,17 +358,16 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
 
         case CON_DATA:
         case UNCON_DATA: {
-            // handle
-            frameRcv.incrOffset(10);
+            // cache this frame in case of a reply, before its blocks are stripped
+            station.getPreviousFrameRcv().reset();
+            station.getPreviousFrameRcv().writeBytes(frame, off, len);
 
-            Buffer trsFrame = new Buffer(S);
+            // handle : check and strip the data blocks CRCs in a single pass
             int size = 0;
 
-            while ((frameRcv.length() > 0) && (!error)) {
-                size = Math.min(18, frameRcv.length());
-                error |= !DnpCrc.checkCRC(frameRcv.value(0, size - 1));
-                trsFrame.writeBytes(frameRcv.readBytes(size - 2));
-                frameRcv.incrOffset(2);
+            if (!error) {
+                size = DnpCrc.stripBlocks(frame, off + 10, len - 10);
+                error = (size < 0);
             }
 
             // check if a confirmation is requiered
@@ -416,16 +385,17 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
 
             // if OK
             if (!error) {
-                // cache this frame in case of a reply
-                previousFrameRcv[currentRemoteStation].reset();
-                previousFrameRcv[currentRemoteStation].writeBytes(frameRcv.value());
-
                 // update context
-                receiveFcb[currentRemoteStation] = !receiveFcb[currentRemoteStation];
+                station.setReceiveFcb(!station.isReceiveFcb());
 
                 // Transport Layer handle
+                trsFrame.reset();
+                trsFrame.writeBytes(frame, off + 10, size);
                 transportLayer.handleTransportMsg(trsFrame, currentRemoteStation);
             }
+            else {
+                station.getPreviousFrameRcv().reset();
+            }
         }
         }
     }
@@ -445,16 +415,10 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
             // Buffer of the device is full, or there's an error in this frame
             dfc = true;
 
-            try {
-                Thread.sleep(50);
-            }
-            catch (InterruptedException e) {
-                // ignore
-            }
-
             // To verify state of remote device, or to avoid overflow, request
-            // state of the device
-            sendSecondaryMsg(REQUEST);
+            // state of the device, a little later : the receiving thread or
+            // loop may be shared by other sessions, it must not wait
+            schedule(() -> sendSecondaryMsg(REQUEST), 50);
         }
         else {
             switch ((byte) (control & 0x0F)) {
@@ -472,7 +436,7 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
 
             case ACK:
                 // Notify LnkSnd to send the next frame
-                lnkSnd.getConLnkSndLock().unlock();
+                lnkSnd.confirm();
 
             }
         }
@@ -482,14 +446,43 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
      * DOCUMENT ME!
      */
     public void retry() throws Exception {
-        try {
-            Thread.currentThread().wait(100);
+        schedule(lnkSnd::sendPreviousFrame, 100);
+    }
+
+    /**
+     * Run a link task after a delay, on the event loop of the session or else
+     * on its task executor, never on the receiving thread
+     *
+     * @param task
+     *            task to run
+     * @param delay
+     *            delay in ms
+     */
+    private void schedule(LinkTask task, long delay) {
+        Runnable run = () -> {
+            try {
+                if (!STOP) {
+                    task.run();
+                }
+            }
+            catch (Exception e) {
+                LOG.error("[LinkLayer] delayed send failed", e);
+            }
+        };
+
+        if (eventLoop != null) {
+            eventLoop.schedule(run, delay);
         }
-        catch (InterruptedException e) {
-            // ignore
+        else {
+            HashedWheelTimer.getShared().newTimeout(run, delay, user.getTaskExecutor());
         }
+    }
 
-        lnkSnd.sendPreviousFrame();
+    /**
+     * Link task which may fail
+     */
+    private interface LinkTask {
+        void run() throws Exception;
     }
 
     /**
@@ -541,6 +534,17 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
      */
     public void setSTOP(boolean sTOP) {
         STOP = sTOP;
+        frameReader.setSTOP(sTOP);
+        if (sTOP && lnkSnd != null) {
+            lnkSnd.getLnkSndRing().close();
+        }
+    }
+
+    /**
+     * @return the event loop handling received bytes, or null if this thread reads them
+     */
+    public EventLoop getEventLoop() {
+        return eventLoop;
     }
 
     /**
@@ -721,6 +725,7 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
      */
     public void setPhyLayer(PhyLayer phyLayer) {
         this.phyLayer = phyLayer;
+        frameReader.setPhyLayer(phyLayer);
     }
 
     /**
@@ -769,18 +774,10 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
     }
 
     /**
-     * @return the frameRcv
-     */
-    public Buffer getFrameRcv() {
-        return frameRcv;
-    }
-
-    /**
-     * @param frameRcv
-     *            the frameRcv to set
+     * @return the frameReader
      */
-    public void setFrameRcv(Buffer frameRcv) {
-        this.frameRcv = frameRcv;
+    public FrameReader getFrameReader() {
+        return frameReader;
     }
 
     /**
@@ -814,48 +811,30 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
     }
 
     /**
-     * @return the receiveFcb
-     */
-    public boolean[] getReceiveFcb() {
-        return receiveFcb;
-    }
-
-    /**
-     * @param receiveFcb
-     *            the receiveFcb to set
-     */
-    public void setReceiveFcb(boolean[] receiveFcb) {
-        this.receiveFcb = receiveFcb;
-    }
-
-    /**
-     * @return the sendFcb
-     */
-    public boolean[] getSendFcb() {
-        return sendFcb;
-    }
-
-    /**
-     * @param sendFcb
-     *            the sendFcb to set
+     * @param index
+     *            position of the remote station in DNPAddressList
+     *
+     * @return the remote station
      */
-    public void setSendFcb(boolean[] sendFcb) {
-        this.sendFcb = sendFcb;
+    public RemoteStation getRemoteStation(int index) {
+        return remoteStations[index];
     }
 
     /**
-     * @return the previousFrameRcv
+     * @param address
+     *            DNP3 address of a remote station
+     *
+     * @return the remote station, or null if this address isn't in DNPAddressList
      */
-    public Buffer[] getPreviousFrameRcv() {
-        return previousFrameRcv;
+    public RemoteStation getRemoteStationByAddress(int address) {
+        return stationsByAddress.get(address);
     }
 
     /**
-     * @param previousFrameRcv
-     *            the previousFrameRcv to set
+     * @return the remoteStations
      */
-    public void setPreviousFrameRcv(Buffer[] previousFrameRcv) {
-        this.previousFrameRcv = previousFrameRcv;
+    public RemoteStation[] getRemoteStations() {
+        return remoteStations;
     }
 
     public void setUser(DNPUser user) {
@@ -865,18 +844,4 @@ public class LnkRcv extends Thread implements LnkFeatures, InitFeatures {
     public DNPUser getUser() {
         return user;
     }
-
-    private void waitForAvailable() throws ThreadStopException, IOException {
-        while (!STOP && phyLayer.getInputStream().available() < 1) {
-            try {
-                Thread.sleep(DATA_PAUSE_TIME);
-            }
-            catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
-        if (STOP)
-            throw new ThreadStopException();
-    }
 }
@@ -1,15 +1,18 @@
 package br.org.scadabr.dnp34j.master.layers.link;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import br.org.scadabr.dnp34j.master.common.InitFeatures;
 import br.org.scadabr.dnp34j.master.common.LnkFeatures;
-import br.org.scadabr.dnp34j.master.common.utils.Buffer;
-import br.org.scadabr.dnp34j.master.common.utils.DnpCrc;
+import br.org.scadabr.dnp34j.master.common.utils.EventLoop;
+import br.org.scadabr.dnp34j.master.common.utils.FrameRing;
+import br.org.scadabr.dnp34j.master.common.utils.HashedWheelTimer;
 import br.org.scadabr.dnp34j.master.common.utils.Lock;
-import br.org.scadabr.dnp34j.master.common.utils.Queue;
 import br.org.scadabr.dnp34j.master.common.utils.Utils;
+import br.org.scadabr.dnp34j.master.common.utils.WaitStrategy;
 import br.org.scadabr.dnp34j.master.layers.DataMap;
 import br.org.scadabr.dnp34j.master.layers.physical.PhyLayer;
 import br.org.scadabr.dnp34j.master.layers.transport.TransportLayer;
@@ -25,30 +28,44 @@ public class LnkSnd extends Thread implements LnkFeatures, InitFeatures {
     // =============================================================================
     // Attributes
     // =============================================================================
-    private Buffer frameRcv;
-    private Buffer frameSnd;
-    private Buffer previousFrameSnd; // for retries
-    private Buffer lnkSndBuffer;
-    private Queue lnkSndQueue;
-    private Lock lnkSndLock;
+    private FrameEncoder frameSnd;
+    private FrameEncoder previousFrameSnd; // for retries
+    private FrameRing lnkSndRing; // transport frames, filled by the transport layer
     private Lock conLnkSndLock;
     private TransportLayer transportLayer;
     private LnkRcv lnkRcv;
     private PhyLayer phyLayer;
     private int addressToReportTo; // refers to a remote station address
 
+    // event loop mode, accessed on the loop only
+    private EventLoop eventLoop;
+    private boolean awaitingConfirm; // current frame waits for the confirm of the previous one
+    private int remainingRetries;
+    private HashedWheelTimer.Timeout confirmTimeout;
+
+    // frames are encoded and written one at a time, an explicit lock so that a virtual thread
+    // blocked in the write doesn't pin its carrier
+    private final ReentrantLock sndLock = new ReentrantLock();
+
     /**
      * Creates a new LnkSnd object.
      *
      */
     public LnkSnd() {
-        lnkSndBuffer = new Buffer(M);
-        lnkSndQueue = new Queue();
-        lnkSndLock = new Lock();
+        this(WaitStrategy.PARK);
+    }
+
+    /**
+     * Creates a new LnkSnd object.
+     *
+     * @param waitStrategy
+     *            how the send thread waits for transport frames
+     */
+    public LnkSnd(WaitStrategy waitStrategy) {
+        lnkSndRing = new FrameRing(16, FrameEncoder.DATA_SIZE_MAX, waitStrategy);
         conLnkSndLock = new Lock();
-        frameRcv = new Buffer(S);
-        frameSnd = new Buffer(S);
-        previousFrameSnd = new Buffer(M);
+        frameSnd = new FrameEncoder();
+        previousFrameSnd = new FrameEncoder();
 
         addressToReportTo = 1;
     }
@@ -62,16 +79,9 @@ public class LnkSnd extends Thread implements LnkFeatures, InitFeatures {
     public void run() {
         try {
             while (!lnkRcv.isSTOP()) {
-                // something to send (from transport layer)?
-                while (!lnkRcv.isSTOP() && lnkSndQueue.empty())
-                    // waiting something to send
-                    lnkSndLock.waiting(20);
-
-                if (lnkSndQueue.empty())
-                    continue;
-
-                // System.out.println("lnkSndLock.lock");
-                lnkSndLock.lock();
+                // waiting something to send (from transport layer)
+                if (lnkSndRing.next() < 0)
+                    break;
 
                 // a confirmation may be expected
                 int remainingRetries = lnkRcv.getLnkMaxRetries();
@@ -121,6 +131,7 @@ public class LnkSnd extends Thread implements LnkFeatures, InitFeatures {
                 }
 
                 // end while (retries)
+                lnkSndRing.release();
             }
 
             // end while (run)
@@ -133,6 +144,117 @@ public class LnkSnd extends Thread implements LnkFeatures, InitFeatures {
 
     // end run()
 
+    /**
+     * Event loop mode : send the transport frames on the loop instead of
+     * starting this thread. Waiting for a confirmation becomes a timeout.
+     */
+    public void setEventLoop(EventLoop loop) {
+        eventLoop = loop;
+        lnkSndRing.setConsumer(loop, this::drain);
+    }
+
+    /**
+     * Send the frames waiting in lnkSndRing, until one must wait for the
+     * confirmation of the previous one
+     */
+    private void drain() {
+        try {
+            while (!lnkRcv.isSTOP() && !awaitingConfirm && lnkSndRing.poll() >= 0) {
+                if (conLnkSndLock.isLocked()) {
+                    // previous frame not confirmed yet
+                    awaitingConfirm = true;
+                    remainingRetries = lnkRcv.getLnkMaxRetries();
+                    confirmTimeout = eventLoop.schedule(this::confirmTimedOut, lnkRcv.getLnkTimeout());
+                    return;
+                }
+                sendCurrentFrame();
+            }
+        }
+        catch (Throwable t) {
+            System.out.print("[MasterLnkSnd] ");
+            System.out.println(t);
+        }
+    }
+
+    private void sendCurrentFrame() throws Exception {
+        try {
+            if (lnkRcv.isLnkConfirm()) {
+                // a confirmation is now expected
+                conLnkSndLock.lock();
+                send(true, CON_DATA);
+            }
+            else {
+                send(true, UNCON_DATA);
+            }
+        }
+        finally {
+            lnkSndRing.release();
+        }
+    }
+
+    /**
+     * A confirmation was received : send the frame waiting for it
+     */
+    private void confirmed() {
+        if (!awaitingConfirm || conLnkSndLock.isLocked()) {
+            return;
+        }
+
+        awaitingConfirm = false;
+        confirmTimeout.cancel();
+        try {
+            sendCurrentFrame();
+        }
+        catch (Throwable t) {
+            System.out.print("[MasterLnkSnd] ");
+            System.out.println(t);
+        }
+        drain();
+    }
+
+    private void confirmTimedOut() {
+        if (!awaitingConfirm || lnkRcv.isSTOP()) {
+            return;
+        }
+        if (!conLnkSndLock.isLocked()) {
+            confirmed();
+            return;
+        }
+
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("LnkSnd error");
+        }
+
+        try {
+            if (remainingRetries > 0) {
+                sendPreviousFrame();
+                remainingRetries--;
+                confirmTimeout = eventLoop.schedule(this::confirmTimedOut, lnkRcv.getLnkTimeout());
+                return;
+            }
+
+            // notifies this error to application layer, and drop the frame
+            awaitingConfirm = false;
+            lnkSndRing.release();
+            lnkRcv.handleConnectionError();
+        }
+        catch (Throwable t) {
+            System.out.print("[MasterLnkSnd] ");
+            System.out.println(t);
+        }
+        drain();
+    }
+
+    /**
+     * Called by the link receive part when a confirmation arrives
+     */
+    public void confirm() {
+        conLnkSndLock.unlock();
+        if (eventLoop != null) {
+            eventLoop.execute(this::confirmed);
+        }
+    }
+
     /**
      * DOCUMENT ME!
      *
@@ -141,88 +263,84 @@ public class LnkSnd extends Thread implements LnkFeatures, InitFeatures {
      * @param FC
      *            DOCUMENT ME!
      */
-    public synchronized void send(boolean PRI, byte FC) throws Exception {
-        frameSnd.setMarker(0);
-        frameSnd.reset();
-        frameSnd.writeBytes(lnkRcv.getBASIS());
-
-        // remoteAddress field
-        int remoteAddress = lnkRcv.getDNPAddressList()[addressToReportTo];
-        frameSnd.getBuffer()[4] = (byte) (remoteAddress & 0xFF);
-        frameSnd.getBuffer()[5] = (byte) ((remoteAddress >> 8) & 0x00FF);
-
-        if (PRI) {
-            sendPrimaryMessage(FC, remoteAddress);
+    public void send(boolean PRI, byte FC) throws Exception {
+        sndLock.lock();
+        try {
+            // remoteAddress field
+            int remoteAddress = lnkRcv.getDNPAddressList()[addressToReportTo];
+
+            if (PRI) {
+                sendPrimaryMessage(FC, remoteAddress);
+            }
+            else {
+                sendSecondaryMessage(FC, remoteAddress);
+            }
         }
-        else {
-            sendSecondaryMessage(FC);
+        finally {
+            sndLock.unlock();
         }
     }
 
     // i'm the secondary station, and i send a CONFIRM or a RESPOND message
-    private void sendSecondaryMessage(byte FC) throws Exception {
-        frameSnd.getBuffer()[3] |= FC;
-        frameSnd.writeBytes(DnpCrc.makeCRC(frameSnd.value()));
+    private void sendSecondaryMessage(byte FC, int remoteAddress) throws Exception {
+        frameSnd.header(lnkRcv.getBASIS(), FC, remoteAddress, 0);
 
         if(LOG.isDebugEnabled()) {
-            LOG.debug("[LinkLayer] send secondary msg" + Utils.Display(frameSnd.value()));
+            LOG.debug("[LinkLayer] send secondary msg" + Utils.Display(frameSnd.getFrame(), frameSnd.getLength()));
         }
 
-        write(frameSnd.readBytes());
+        write(frameSnd.getFrame(), 0, frameSnd.getLength());
     }
 
     // i'm the primary station, and i send data requiring (or not) a
     // confirmation
     private void sendPrimaryMessage(byte FC, int remoteAddress) throws Exception {
-        frameRcv.reset();
+        int dataLength = 0;
 
         // get data if it's not a reset link function
         if (FC != RESET_LINK) {
-            frameRcv.writeBytes(lnkSndBuffer.readBytes(lnkSndQueue.pop()));
+            dataLength = lnkSndRing.getLength();
         }
 
-        // length field
-        frameSnd.getBuffer()[2] = (byte) (5 + frameRcv.length());
-
         // control field
+        byte control;
         if(FC == CON_DATA || FC == TEST_LINK) {
-            frameSnd.getBuffer()[3] |= (byte) (FC + 0x40 + ((lnkRcv.getSendFcb()[addressToReportTo]) ? 0x20 : 0x00) + ((FC == CON_DATA) ? 0x10
+            control = (byte) (FC + 0x40 + ((lnkRcv.getRemoteStation(addressToReportTo).isSendFcb()) ? 0x20 : 0x00) + ((FC == CON_DATA) ? 0x10
                     : 0x00));
         }else {
-            frameSnd.getBuffer()[3] |= (byte) (FC + 0x40 + ((FC == CON_DATA) ? 0x10 : 0x00));
+            control = (byte) (FC + 0x40 + ((FC == CON_DATA) ? 0x10 : 0x00));
         }
 
-        // CRC field (header)
-        frameSnd.writeBytes(DnpCrc.makeCRC(frameSnd.value()));
-        while (frameRcv.length() > 0) {
-            int length = Math.min(16, frameRcv.length());
-            byte[] frag = frameRcv.readBytes(length);
-            frameSnd.writeBytes(frag);
-            frameSnd.writeBytes(DnpCrc.makeCRC(frag));
+        // header, then data blocks, each one followed by its CRC
+        frameSnd.header(lnkRcv.getBASIS(), control, remoteAddress, dataLength);
+        if (dataLength > 0) {
+            frameSnd.data(lnkSndRing.getFrame(), 0, dataLength);
         }
+
         if(LOG.isDebugEnabled()) {
-            LOG.debug("[LinkLayer] send primary msg" + Utils.Display(frameSnd.value()));
+            LOG.debug("[LinkLayer] send primary msg" + Utils.Display(frameSnd.getFrame(), frameSnd.getLength()));
         }
 
         // store current frame for possible retries
-        previousFrameSnd.reset();
-        previousFrameSnd.writeBytes(frameSnd.value());
+        frameSnd.copyTo(previousFrameSnd);
         // send this frame
-        write(frameSnd.readBytes());
+        write(frameSnd.getFrame(), 0, frameSnd.getLength());
         // Invert Fcb (Frame Control Bit)
         if (remoteAddress == BROADCAST) {
-            for (int i = 1; i < lnkRcv.getDNPAddressList().length; i++) {
-                lnkRcv.getSendFcb()[i] = !lnkRcv.getSendFcb()[i];
+            for (int i = 1; i < lnkRcv.getRemoteStations().length; i++) {
+                RemoteStation station = lnkRcv.getRemoteStation(i);
+                station.setSendFcb(!station.isSendFcb());
             }
         }
         else {
-            lnkRcv.getSendFcb()[addressToReportTo] = !lnkRcv.getSendFcb()[addressToReportTo];
+            RemoteStation station = lnkRcv.getRemoteStation(addressToReportTo);
+            station.setSendFcb(!station.isSendFcb());
         }
     }
 
     // For the purpose of doing retries, send previous frame
     protected void sendPreviousFrame() throws Exception {
-        write(previousFrameSnd.value());
+        write(previousFrameSnd.getFrame(), 0, previousFrameSnd.getLength());
     }
 
     /**
@@ -230,33 +348,31 @@ public class LnkSnd extends Thread implements LnkFeatures, InitFeatures {
      * DNP encapsulation process. Other encapsulation may be processed, with
      * TCP/IP for exemple.
      */
-    public synchronized void write(byte[] someByte) throws Exception {
-        if (lnkRcv.isSTOP()) {
-            return;
-        }
-
-        phyLayer.write(someByte);
+    public void write(byte[] someByte) throws Exception {
+        write(someByte, 0, someByte.length);
     }
 
     /**
-     * @return the frameRcv
+     * Send a segment of an array as a "final" frame, in a single write
      */
-    public Buffer getFrameRcv() {
-        return frameRcv;
-    }
+    public void write(byte[] someByte, int off, int len) throws Exception {
+        sndLock.lock();
+        try {
+            if (lnkRcv.isSTOP()) {
+                return;
+            }
 
-    /**
-     * @param frameRcv
-     *            the frameRcv to set
-     */
-    public void setFrameRcv(Buffer frameRcv) {
-        this.frameRcv = frameRcv;
+            phyLayer.write(someByte, off, len);
+        }
+        finally {
+            sndLock.unlock();
+        }
     }
 
     /**
      * @return the frameSnd
      */
-    public Buffer getFrameSnd() {
+    public FrameEncoder getFrameSnd() {
         return frameSnd;
     }
 
@@ -264,14 +380,14 @@ public class LnkSnd extends Thread implements LnkFeatures, InitFeatures {
      * @param frameSnd
      *            the frameSnd to set
      */
-    public void setFrameSnd(Buffer frameSnd) {
+    public void setFrameSnd(FrameEncoder frameSnd) {
         this.frameSnd = frameSnd;
     }
 
     /**
      * @return the previousFrameSnd
      */
-    public Buffer getPreviousFrameSnd() {
+    public FrameEncoder getPreviousFrameSnd() {
         return previousFrameSnd;
     }
 
@@ -279,53 +395,15 @@ public class LnkSnd extends Thread implements LnkFeatures, InitFeatures {
      * @param previousFrameSnd
      *            the previousFrameSnd to set
      */
-    public void setPreviousFrameSnd(Buffer previousFrameSnd) {
+    public void setPreviousFrameSnd(FrameEncoder previousFrameSnd) {
         this.previousFrameSnd = previousFrameSnd;
     }
 
     /**
-     * @return the lnkSndBuffer
-     */
-    public Buffer getLnkSndBuffer() {
-        return lnkSndBuffer;
-    }
-
-    /**
-     * @param lnkSndBuffer
-     *            the lnkSndBuffer to set
-     */
-    public void setLnkSndBuffer(Buffer lnkSndBuffer) {
-        this.lnkSndBuffer = lnkSndBuffer;
-    }
-
-    /**
-     * @return the lnkSndQueue
-     */
-    public Queue getLnkSndQueue() {
-        return lnkSndQueue;
-    }
-
-    /**
-     * @param lnkSndQueue
-     *            the lnkSndQueue to set
-     */
-    public void setLnkSndQueue(Queue lnkSndQueue) {
-        this.lnkSndQueue = lnkSndQueue;
-    }
-
-    /**
-     * @return the lnkSndLock
-     */
-    public Lock getLnkSndLock() {
-        return lnkSndLock;
-    }
-
-    /**
-     * @param lnkSndLock
-     *            the lnkSndLock to set
+     * @return the ring of transport frames waiting to be sent
      */
-    public void setLnkSndLock(Lock lnkSndLock) {
-        this.lnkSndLock = lnkSndLock;
+    public FrameRing getLnkSndRing() {
+        return lnkSndRing;
     }
 
     /**
@@ -0,0 +1,142 @@
+package br.org.scadabr.dnp34j.master.layers.link;
+
+import br.org.scadabr.dnp34j.master.common.InitFeatures;
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+
+/**
+ * <p>
+ * Link and transport state of one remote station. A link hosts one of these per address of
+ * {@link br.org.scadabr.dnp34j.master.session.config.DNPConfig#getDNPAddressList()}, found by
+ * address through {@link LnkRcv#getRemoteStation(int)}.
+ */
+public class RemoteStation implements InitFeatures {
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private int address;
+
+    // position in the address list
+    private int index;
+
+    // state of previous Frame Control Bit (Alternate Bit) received
+    private boolean receiveFcb;
+
+    // state of previous Frame Control Bit (Alternate Bit) sent
+    private boolean sendFcb;
+
+    // last frame received, in case of a reply
+    private Buffer previousFrameRcv;
+
+    // link frames collected until the last transport segment
+    private Buffer trsFrame;
+
+    // next frame must be a first transport frame
+    private boolean trsFirstFrame;
+
+    // sequence number of previous transport frame sent
+    private byte trsLastSeq;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+    public RemoteStation(int address, int index) {
+        this.address = address;
+        this.index = index;
+        previousFrameRcv = new Buffer(M);
+        trsFrame = new Buffer(M);
+        trsFirstFrame = true;
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * @return the address
+     */
+    public int getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the receiveFcb
+     */
+    public boolean isReceiveFcb() {
+        return receiveFcb;
+    }
+
+    /**
+     * @param receiveFcb
+     *            the receiveFcb to set
+     */
+    public void setReceiveFcb(boolean receiveFcb) {
+        this.receiveFcb = receiveFcb;
+    }
+
+    /**
+     * @return the sendFcb
+     */
+    public boolean isSendFcb() {
+        return sendFcb;
+    }
+
+    /**
+     * @param sendFcb
+     *            the sendFcb to set
+     */
+    public void setSendFcb(boolean sendFcb) {
+        this.sendFcb = sendFcb;
+    }
+
+    /**
+     * @return the previousFrameRcv
+     */
+    public Buffer getPreviousFrameRcv() {
+        return previousFrameRcv;
+    }
+
+    /**
+     * @return the trsFrame
+     */
+    public Buffer getTrsFrame() {
+        return trsFrame;
+    }
+
+    /**
+     * @return the trsFirstFrame
+     */
+    public boolean isTrsFirstFrame() {
+        return trsFirstFrame;
+    }
+
+    /**
+     * @param trsFirstFrame
+     *            the trsFirstFrame to set
+     */
+    public void setTrsFirstFrame(boolean trsFirstFrame) {
+        this.trsFirstFrame = trsFirstFrame;
+    }
+
+    /**
+     * @return the trsLastSeq
+     */
+    public byte getTrsLastSeq() {
+        return trsLastSeq;
+    }
+
+    /**
+     * @param trsLastSeq
+     *            the trsLastSeq to set
+     */
+    public void setTrsLastSeq(byte trsLastSeq) {
+        this.trsLastSeq = trsLastSeq;
+    }
+}
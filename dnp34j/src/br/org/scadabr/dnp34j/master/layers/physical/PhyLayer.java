@@ -3,13 +3,14 @@ package br.org.scadabr.dnp34j.master.layers.physical;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import br.org.scadabr.dnp34j.master.common.InitFeatures;
 import br.org.scadabr.dnp34j.master.common.LnkFeatures;
-import br.org.scadabr.dnp34j.master.common.utils.Buffer;
 import br.org.scadabr.dnp34j.master.layers.DataMap;
 import br.org.scadabr.dnp34j.master.layers.link.LnkRcv;
 import br.org.scadabr.dnp34j.master.session.DNPUser;
@@ -35,7 +36,6 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
     // =============================================================================
     private InputStream inputStream;
     private OutputStream outputStream;
-    private Buffer sendingBytes;
     private String uri;
     private int commType;
     private String commAddress;
@@ -45,9 +45,15 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
     private LnkRcv lnkRcv;
     private PhySERIAL phySERIAL;
     private PhyETHERNET phyETHERNET;
+    private PhyNIO phyNIO;
     private Socket socket;
     private PhyLayer phyLayer;
     private DNPUser user;
+    private Consumer<Exception> exceptionHandler;
+
+    // guards the streams, an explicit lock rather than a monitor so that a virtual thread blocked
+    // in a socket write doesn't pin its carrier
+    private final ReentrantLock ioLock = new ReentrantLock();
 
     /**
      * Constructor. Initalize physical port, with InitFeatures & MainClass parameters
@@ -58,32 +64,56 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
 
     public PhyLayer(DNPUser user) throws Exception {
         this.config = user.getConfig();
+        this.exceptionHandler = user::reportException;
         process(config);
         this.user = user;
     }
 
+    /**
+     * Open a physical port which isn't owned by a single session
+     *
+     * @param commType ETHERNET or SERIAL
+     * @param commConfig EthernetParameters or SerialPortWrapper
+     * @param exceptionHandler notified of writing errors
+     * @throws Exception
+     */
+    public PhyLayer(COMM commType, Object commConfig, Consumer<Exception> exceptionHandler) throws Exception {
+        this.exceptionHandler = exceptionHandler;
+        process(commType, commConfig);
+    }
+
     // =============================================================================
     // Methods
     // =============================================================================
     private PhyLayer process(DNPConfig config) throws Exception {
-        try {
-            this.config = config;
+        this.config = config;
+        return process(config.getCommType(), config.getCommConfig());
+    }
 
-            if (config.getCommType() == COMM.ETHERNET) {
-                EthernetParameters parameters = (EthernetParameters) config.getCommConfig();
+    private PhyLayer process(COMM commType, Object commConfig) throws Exception {
+        try {
+            if (commType == COMM.ETHERNET) {
+                EthernetParameters parameters = (EthernetParameters) commConfig;
                 setCommAddress(parameters.getHost());
                 setPort(parameters.getPort());
-                setPhyETHERNET(new PhyETHERNET(this));
 
-                setInputStream(phyETHERNET.getInputStream());
-                setOutputStream(phyETHERNET.getOutputStream());
-            } else if (config.getCommType() == COMM.SERIAL) {
-                this.serialPort = (SerialPortWrapper) config.getCommConfig();
+                if (parameters.getSelectorPool() != null) {
+                    setPhyNIO(new PhyNIO(this, parameters.getSelectorPool()));
+
+                    setInputStream(phyNIO.getInputStream());
+                    setOutputStream(phyNIO.getOutputStream());
+                } else {
+                    setPhyETHERNET(new PhyETHERNET(this));
+
+                    setInputStream(phyETHERNET.getInputStream());
+                    setOutputStream(phyETHERNET.getOutputStream());
+                }
+            } else if (commType == COMM.SERIAL) {
+                this.serialPort = (SerialPortWrapper) commConfig;
                 setPhySERIAL(new PhySERIAL(this));
                 setInputStream(phySERIAL.getInputStream());
                 setOutputStream(phySERIAL.getOutputStream());
             }
-            sendingBytes = new Buffer(S);
         } catch (Exception e) {
             this.close();
             throw new Exception("Connection fault", e);
@@ -110,6 +140,10 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
                         phyETHERNET.close();
                         phyETHERNET.init();
                     }
+                    if (phyNIO != null) {
+                        phyNIO.close();
+                        phyNIO.init();
+                    }
                     break;
             }
         } catch (Exception e) {
@@ -124,18 +158,25 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
      *
      * @throws Exception
      */
-    public synchronized void close() throws Exception {
+    public void close() throws Exception {
+        ioLock.lock();
+        try {
+            if (inputStream != null)
+                inputStream.close();
+            if (outputStream != null)
+                outputStream.close();
 
-        if (inputStream != null)
-            inputStream.close();
-        if (outputStream != null)
-            outputStream.close();
+            if (phySERIAL != null)
+                phySERIAL.close();
 
-        if (phySERIAL != null)
-            phySERIAL.close();
+            if (phyETHERNET != null)
+                phyETHERNET.close();
 
-        if (phyETHERNET != null)
-            phyETHERNET.close();
+            if (phyNIO != null)
+                phyNIO.close();
+        } finally {
+            ioLock.unlock();
+        }
     }
 
     /**
@@ -143,30 +184,45 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
      *
      * @param someByte DOCUMENT ME!
      */
-    public synchronized void write(byte[] someByte) throws Exception {
-        sendingBytes.reset();
-        sendingBytes.writeBytes(someByte);
+    public void write(byte[] someByte) throws Exception {
+        write(someByte, 0, someByte.length);
+    }
 
+    /**
+     * Write a segment of an array to the remote device in a single write, without copying it
+     *
+     * @param someByte array holding the bytes to send
+     * @param off first byte to send
+     * @param len number of bytes to send
+     */
+    public void write(byte[] someByte, int off, int len) throws Exception {
+        ioLock.lock();
         try {
-            while (sendingBytes.length() > 0) {
-                int size = sendingBytes.length();
-                outputStream.write(sendingBytes.readBytes(size));
-                outputStream.flush();
-            }
+            outputStream.write(someByte, off, len);
+            outputStream.flush();
         } catch (Exception e) {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("[PhyLayer] Writing Exception");
                 LOG.debug("[PhyLayer] Remote Connection closed.");
             }
-            user.reportException(e);
+            if (exceptionHandler != null) {
+                exceptionHandler.accept(e);
+            }
+        } finally {
+            ioLock.unlock();
         }
     }
 
     /**
      * @return the inputStream
      */
-    public synchronized InputStream getInputStream() {
-        return inputStream;
+    public InputStream getInputStream() {
+        ioLock.lock();
+        try {
+            return inputStream;
+        } finally {
+            ioLock.unlock();
+        }
     }
 
     /**
@@ -179,8 +235,13 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
     /**
      * @return the outputStream
      */
-    public synchronized OutputStream getOutputStream() {
-        return outputStream;
+    public OutputStream getOutputStream() {
+        ioLock.lock();
+        try {
+            return outputStream;
+        } finally {
+            ioLock.unlock();
+        }
     }
 
     /**
@@ -190,20 +251,6 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
         this.outputStream = outputStream;
     }
 
-    /**
-     * @return the sendingBytes
-     */
-    public Buffer getSendingBytes() {
-        return sendingBytes;
-    }
-
-    /**
-     * @param sendingBytes the sendinif (phyETHERNET != null) { phyETHERNET.close();
-     *        phyETHERNET.init(); gBytes to set
-     */
-    public void setSendingBytes(Buffer sendingBytes) {
-        this.sendingBytes = sendingBytes;
-    }
 
     /**
      * @return the uri
@@ -300,6 +347,20 @@ public class PhyLayer implements LnkFeatures, InitFeatures {
         this.phyETHERNET = phyETHERNET;
     }
 
+    /**
+     * @return the phyNIO
+     */
+    public PhyNIO getPhyNIO() {
+        return phyNIO;
+    }
+
+    /**
+     * @param phyNIO the phyNIO to set
+     */
+    public void setPhyNIO(PhyNIO phyNIO) {
+        this.phyNIO = phyNIO;
+    }
+
     /**
      * @return the socket
      */
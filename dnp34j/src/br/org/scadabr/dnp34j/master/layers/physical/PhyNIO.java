@@ -0,0 +1,460 @@
+package br.org.scadabr.dnp34j.master.layers.physical;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.InitFeatures;
+
+/**
+ * <p>
+ * TCP connection to a remote DNP device driven by a shared {@link SelectorPool} instead of a
+ * blocking socket. The selector thread fills a receive buffer and drains a send buffer; the link
+ * layer keeps using plain streams, so nothing above {@link PhyLayer} has to change.
+ *
+ * <ul>
+ * <li>the input stream blocks on the receive buffer until the selector delivers bytes
+ * <li>the output stream writes straight to the channel and only queues what the socket refuses
+ * </ul>
+ */
+public class PhyNIO implements InitFeatures {
+    private static final Logger LOG = LoggerFactory.getLogger(PhyNIO.class);
+
+    /**
+     * Receive buffer capacity. Reading is suspended while it is full.
+     */
+    private static final int RECEIVE_CAPACITY = 8192;
+
+    /**
+     * Send buffer capacity for bytes the socket didn't accept immediately
+     */
+    private static final int SEND_CAPACITY = 8192;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private String host;
+    private int port;
+    private PhyLayer phyLayer;
+    private SelectorPool pool;
+    private SocketChannel channel;
+    private volatile SelectionKey key;
+    private volatile SelectorPool.SelectorThread selectorThread;
+    private volatile boolean closed;
+
+    // explicit locks rather than monitors, so that waiting virtual threads don't pin their carrier
+    private final ReentrantLock rcvLock = new ReentrantLock();
+    private final Condition rcvReady = rcvLock.newCondition();
+    private final ByteBuffer rcvBuffer = ByteBuffer.allocate(RECEIVE_CAPACITY);
+    private boolean readSuspended;
+
+    // run by the selector thread when bytes were received, instead of waking a reader
+    private volatile Runnable readListener;
+
+    private final ReentrantLock sndLock = new ReentrantLock();
+    private final Condition sndReady = sndLock.newCondition();
+    private final ByteBuffer sndBuffer = ByteBuffer.allocate(SEND_CAPACITY);
+    private byte[] wrappedArray;
+    private ByteBuffer wrapped;
+
+    private final InputStream inputStream = new NioInputStream();
+    private final OutputStream outputStream = new NioOutputStream();
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+    public PhyNIO(PhyLayer parent, SelectorPool pool) throws Exception {
+        this.phyLayer = parent;
+        this.pool = pool;
+        initialize(phyLayer);
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    public void init() throws Exception {
+        initialize(phyLayer);
+    }
+
+    /**
+     * Connect the channel, then hand it to the selector pool
+     *
+     * @throws Exception
+     */
+    private void initialize(PhyLayer phyLayer) throws Exception {
+        host = phyLayer.getCommAddress();
+        port = phyLayer.getPort();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[PhyNIO] Trying to connect to " + host + ":" + port);
+        }
+
+        rcvLock.lock();
+        try {
+            rcvBuffer.clear();
+            readSuspended = false;
+        } finally {
+            rcvLock.unlock();
+        }
+        sndLock.lock();
+        try {
+            sndBuffer.clear();
+        } finally {
+            sndLock.unlock();
+        }
+
+        channel = SocketChannel.open();
+        try {
+            channel.connect(new InetSocketAddress(host, port));
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            closed = false;
+            pool.register(this);
+        } catch (IOException e) {
+            closed = true;
+            channel.close();
+            throw e;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[PhyNIO] Connected to " + host + ":" + port);
+        }
+    }
+
+    public void close() throws Exception {
+        closeClient();
+    }
+
+    /**
+     * Close the channel and release any thread blocked on a stream
+     *
+     * @throws Exception
+     */
+    protected void closeClient() throws Exception {
+        closed = true;
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+            throw new Exception("[PhyNIO] - channel.close() failed", e);
+        } finally {
+            rcvLock.lock();
+            try {
+                rcvReady.signalAll();
+            } finally {
+                rcvLock.unlock();
+            }
+            sndLock.lock();
+            try {
+                sndReady.signalAll();
+            } finally {
+                sndLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Called by the selector thread when the channel is readable
+     */
+    void onReadable() throws IOException {
+        int count;
+        rcvLock.lock();
+        try {
+            count = channel.read(rcvBuffer);
+            if (count < 0) {
+                throw new IOException("Remote connection closed");
+            }
+            if (!rcvBuffer.hasRemaining()) {
+                // receive buffer full, wait until the link layer catches up
+                readSuspended = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (count > 0) {
+                rcvReady.signalAll();
+            }
+        } finally {
+            rcvLock.unlock();
+        }
+
+        Runnable listener = readListener;
+        if (count > 0 && listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Called by the selector thread when queued bytes can be written
+     */
+    void onWritable() throws IOException {
+        sndLock.lock();
+        try {
+            sndBuffer.flip();
+            channel.write(sndBuffer);
+            sndBuffer.compact();
+            if (sndBuffer.position() == 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            sndReady.signalAll();
+        } finally {
+            sndLock.unlock();
+        }
+    }
+
+    /**
+     * Called by the selector thread when the channel failed
+     */
+    void handleError(IOException e) {
+        if (!closed && LOG.isDebugEnabled()) {
+            LOG.debug("[PhyNIO] Remote connection closed: " + e.getMessage());
+        }
+        try {
+            closeClient();
+        } catch (Exception ex) {
+            // already reported
+        }
+    }
+
+    /**
+     * Change interest operations from the selector thread
+     */
+    private void updateInterest(final int add) {
+        final SelectorPool.SelectorThread thread = selectorThread;
+        if (thread == null) {
+            return;
+        }
+        thread.execute(() -> {
+            SelectionKey k = key;
+            if (k != null && k.isValid()) {
+                k.interestOps(k.interestOps() | add);
+            }
+        });
+    }
+
+    /**
+     * Copy received bytes, blocking until at least one is available
+     *
+     * @return number of bytes copied, or -1 if the connection is closed
+     */
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        rcvLock.lock();
+        try {
+            while (rcvBuffer.position() == 0) {
+                if (closed) {
+                    return -1;
+                }
+                try {
+                    rcvReady.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading", e);
+                }
+            }
+
+            rcvBuffer.flip();
+            int count = Math.min(len, rcvBuffer.remaining());
+            rcvBuffer.get(b, off, count);
+            rcvBuffer.compact();
+
+            if (readSuspended) {
+                readSuspended = false;
+                updateInterest(SelectionKey.OP_READ);
+            }
+            return count;
+        } finally {
+            rcvLock.unlock();
+        }
+    }
+
+    /**
+     * Write to the channel, queueing what the socket doesn't accept right away
+     */
+    private void write(byte[] b, int off, int len) throws IOException {
+        sndLock.lock();
+        try {
+            if (b != wrappedArray) {
+                // the link layer writes from the same array every time, wrap it once
+                wrappedArray = b;
+                wrapped = ByteBuffer.wrap(b);
+            }
+            ByteBuffer src = wrapped;
+            src.clear();
+            src.limit(off + len);
+            src.position(off);
+
+            while (src.hasRemaining()) {
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+
+                if (sndBuffer.position() == 0) {
+                    channel.write(src);
+                    if (!src.hasRemaining()) {
+                        break;
+                    }
+                }
+
+                int count = Math.min(src.remaining(), sndBuffer.remaining());
+                if (count == 0) {
+                    try {
+                        sndReady.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing", e);
+                    }
+                    continue;
+                }
+
+                boolean wasEmpty = sndBuffer.position() == 0;
+                src.limit(src.position() + count);
+                sndBuffer.put(src);
+                src.limit(off + len);
+                if (wasEmpty) {
+                    updateInterest(SelectionKey.OP_WRITE);
+                }
+            }
+        } finally {
+            sndLock.unlock();
+        }
+    }
+
+    private int available() {
+        rcvLock.lock();
+        try {
+            return rcvBuffer.position();
+        } finally {
+            rcvLock.unlock();
+        }
+    }
+
+    void setSelectorThread(SelectorPool.SelectorThread selectorThread) {
+        this.selectorThread = selectorThread;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the inputStream
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return the outputStream
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @return the host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the phyLayer
+     */
+    public PhyLayer getPhyLayer() {
+        return phyLayer;
+    }
+
+    /**
+     * @return the pool
+     */
+    public SelectorPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Notify an event loop of received bytes, rather than blocking a thread in read()
+     *
+     * @param readListener
+     *            task run by the selector thread, must not block
+     */
+    public void setReadListener(Runnable readListener) {
+        this.readListener = readListener;
+    }
+
+    /**
+     * @return <tt>true</tt> once the channel has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private class NioInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (PhyNIO.this.read(single, 0, 1) < 0) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return PhyNIO.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return PhyNIO.this.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                closeClient();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private class NioOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            PhyNIO.this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            PhyNIO.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                closeClient();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package br.org.scadabr.dnp34j.master.layers.physical;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Fixed pool of selector threads shared by every {@link PhyNIO} connection. Each connection is
+ * bound to one selector thread for its whole life, so socket reads and writes of hundreds of
+ * outstations are multiplexed on a handful of threads instead of one blocking socket each.
+ *
+ * <p>
+ * A single pool is intended to be shared by all sessions of a process, through
+ * {@link br.org.scadabr.dnp34j.master.session.config.EthernetParameters#setSelectorPool}.
+ */
+public class SelectorPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorPool.class);
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final SelectorThread[] threads;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean started;
+    private volatile boolean STOP;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * Build a pool with one selector thread per available processor
+     */
+    public SelectorPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Build a pool with a fixed number of selector threads
+     *
+     * @param size number of selector threads
+     */
+    public SelectorPool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Selector pool size must be at least 1");
+        }
+        threads = new SelectorThread[size];
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Open the selectors and start their threads. Called lazily by the first registration.
+     *
+     * @throws IOException if a selector can't be opened
+     */
+    public synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+        if (STOP) {
+            throw new IOException("Selector pool is closed");
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new SelectorThread(Selector.open(), i);
+            threads[i].start();
+        }
+        started = true;
+    }
+
+    /**
+     * Bind a connected, non-blocking channel to one of the selector threads. If the thread stops
+     * before registering it, the connection is closed.
+     *
+     * @param connection connection to register
+     * @throws IOException if the pool is closed
+     */
+    synchronized void register(PhyNIO connection) throws IOException {
+        if (STOP) {
+            throw new IOException("Selector pool is closed");
+        }
+        if (!started) {
+            start();
+        }
+
+        SelectorThread thread = threads[(next.getAndIncrement() & Integer.MAX_VALUE) % threads.length];
+        connection.setSelectorThread(thread);
+        thread.execute(new Registration(connection, thread));
+    }
+
+    /**
+     * Stop all selector threads. Connections still registered are closed.
+     */
+    public synchronized void close() {
+        STOP = true;
+        for (SelectorThread thread : threads) {
+            if (thread != null) {
+                thread.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * @return number of selector threads
+     */
+    public int getSize() {
+        return threads.length;
+    }
+
+    /**
+     * @return number of connections currently registered on all selectors
+     */
+    public int getConnectionCount() {
+        int count = 0;
+        for (SelectorThread thread : threads) {
+            if (thread != null) {
+                count += thread.selector.keys().size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * One selector and the thread polling it. Interest changes and registrations are handed to
+     * the owning thread through a task queue, which keeps all key operations on that thread.
+     */
+    class SelectorThread extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private volatile boolean done;
+
+        SelectorThread(Selector selector, int id) {
+            super("DNP3 selector " + id);
+            this.selector = selector;
+            setDaemon(true);
+        }
+
+        /**
+         * Run a task on this selector thread
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+            if (done) {
+                // stopped meanwhile : nothing will run the task
+                dropTasks();
+            }
+        }
+
+        /**
+         * Drop the tasks left, closing the connections waiting for their registration
+         */
+        private void dropTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                if (task instanceof Registration) {
+                    ((Registration) task).connection.handleError(new IOException("Selector pool closed"));
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!STOP) {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+
+                        PhyNIO connection = (PhyNIO) key.attachment();
+                        try {
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException e) {
+                            connection.handleError(e);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                LOG.error("[SelectorPool] selector thread failed", t);
+            } finally {
+                done = true;
+                dropTasks();
+                for (SelectionKey key : selector.keys()) {
+                    ((PhyNIO) key.attachment()).handleError(new IOException("Selector pool closed"));
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Registration of a connection, run on its selector thread
+     */
+    private static class Registration implements Runnable {
+        private final PhyNIO connection;
+        private final SelectorThread thread;
+
+        Registration(PhyNIO connection, SelectorThread thread) {
+            this.connection = connection;
+            this.thread = thread;
+        }
+
+        @Override
+        public void run() {
+            try {
+                connection.setKey(connection.getChannel().register(thread.selector,
+                        SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException e) {
+                connection.handleError(e);
+            }
+        }
+    }
+}
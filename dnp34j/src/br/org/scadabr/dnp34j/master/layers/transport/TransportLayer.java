@@ -1,16 +1,20 @@
 package br.org.scadabr.dnp34j.master.layers.transport;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import br.org.scadabr.dnp34j.master.common.AppFeatures;
 import br.org.scadabr.dnp34j.master.common.InitFeatures;
 import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.common.utils.FrameRing;
 import br.org.scadabr.dnp34j.master.layers.DataMap;
 import br.org.scadabr.dnp34j.master.layers.application.AppRcv;
 import br.org.scadabr.dnp34j.master.layers.application.AppSnd;
 import br.org.scadabr.dnp34j.master.layers.link.LnkRcv;
 import br.org.scadabr.dnp34j.master.layers.link.LnkSnd;
+import br.org.scadabr.dnp34j.master.layers.link.RemoteStation;
 import br.org.scadabr.dnp34j.master.session.DNPUser;
 
 /**
@@ -24,12 +28,7 @@ public class TransportLayer implements AppFeatures, InitFeatures {
     // =============================================================================
     // Attributes
     // =============================================================================
-    // variables used to check the header of transport frames
-    private Buffer[] trsFrame; // used to collect link frames from any remote
-    // device
-    private boolean[] trsFirstFrame; // next frame must be a first transport
-    // frame
-    private byte[] trsLastSeq; // sequence number of previous frame
+    // transport state of each remote device is kept by its link RemoteStation
 
     // intra-connection between layers
     private AppRcv appRcv;
@@ -39,6 +38,10 @@ public class TransportLayer implements AppFeatures, InitFeatures {
 
     private DNPUser user;
 
+    // requests and confirms come from different threads, one at a time : an explicit lock so that
+    // a virtual thread waiting for a link slot doesn't pin its carrier
+    private final ReentrantLock buildLock = new ReentrantLock();
+
     // =============================================================================
     // Constructor
     // =============================================================================
@@ -50,19 +53,6 @@ public class TransportLayer implements AppFeatures, InitFeatures {
         // setLnkSnd(user.getLnkSnd());
         // lnkRcv.start();
 
-        trsFrame = new Buffer[user.getConfig().getDNPAddressList().length];
-
-        for (int i = 0; i < user.getConfig().getDNPAddressList().length; i++) {
-            trsFrame[i] = new Buffer(M);
-        }
-
-        trsFirstFrame = new boolean[user.getConfig().getDNPAddressList().length];
-
-        for (int i = 0; i < user.getConfig().getDNPAddressList().length; i++) {
-            trsFirstFrame[i] = true;
-        }
-
-        trsLastSeq = new byte[user.getConfig().getDNPAddressList().length];
         // lnkRcv.init();
     }
 
@@ -70,21 +60,26 @@ public class TransportLayer implements AppFeatures, InitFeatures {
     // Methods
     // =============================================================================
     // build some transport frames from an application frame
+    // requests and confirms come from different threads, one at a time
     public void buildTransportMsg(Buffer anAppFrame) throws Exception {
-        byte sequence = (byte) 0x00;
-        byte header;
-
-        while (anAppFrame.length() != 0) {
-            int length = Math.min(TRANSPORT_FRAME_SIZE_MAX - 1, anAppFrame.length());
-            header = (byte) (trsLastSeq[lnkSnd.getAddressToReportTo()] + ((sequence == 0) ? 0x40 : 0x00)
-                    + ((anAppFrame.length() == length) ? 0x80 : 0x00));
-            pushLower(header, anAppFrame, length);
-            sequence += 1;
-            trsLastSeq[lnkSnd.getAddressToReportTo()] = (byte)(trsLastSeq[lnkSnd.getAddressToReportTo()] + 1);
-            if(trsLastSeq[lnkSnd.getAddressToReportTo()] == 64) {
-                trsLastSeq[lnkSnd.getAddressToReportTo()] = 0;
+        buildLock.lock();
+        try {
+            byte sequence = (byte) 0x00;
+            byte header;
+            RemoteStation station = lnkRcv.getRemoteStation(lnkSnd.getAddressToReportTo());
+
+            while (anAppFrame.length() != 0) {
+                int length = Math.min(TRANSPORT_FRAME_SIZE_MAX - 1, anAppFrame.length());
+                header = (byte) (station.getTrsLastSeq() + ((sequence == 0) ? 0x40 : 0x00)
+                        + ((anAppFrame.length() == length) ? 0x80 : 0x00));
+                pushLower(header, anAppFrame, length);
+                sequence += 1;
+                station.setTrsLastSeq((byte) ((station.getTrsLastSeq() + 1) % 64));
             }
         }
+        finally {
+            buildLock.unlock();
+        }
     }
 
     // ///////////////////////////////////////////////////////////////////////
@@ -98,12 +93,16 @@ public class TransportLayer implements AppFeatures, InitFeatures {
     // ///////////////////////////////////////////////////////////////////////
     // ///////////////////////////////////////////////////////////////////////
     private void pushUpper(byte TH, Buffer aFrame, int currentRemoteStation) throws Exception {
-        trsFrame[currentRemoteStation].writeBytes(aFrame.readBytes());
+        RemoteStation station = lnkRcv.getRemoteStation(currentRemoteStation);
+        Buffer trsFrame = station.getTrsFrame();
+
+        trsFrame.writeBytes(aFrame.readBytes());
         if ((TH & 0x80) == 0x80) {
-            trsFirstFrame[currentRemoteStation] = true;
-            appRcv.getAppRcvBuffer().writeBytes(trsFrame[currentRemoteStation].readBytes());
-            appRcv.getAppRcvQueue().push(appRcv.getAppRcvBuffer().length());
-            appRcv.getAppRcvLock().unlock();
+            station.setTrsFirstFrame(true);
+            FrameRing ring = appRcv.getAppRcvRing();
+            int length = trsFrame.length();
+            trsFrame.readBytes(ring.claim(), 0, length);
+            ring.publish(length);
         }
     }
 
@@ -115,52 +114,11 @@ public class TransportLayer implements AppFeatures, InitFeatures {
      * @param length DOCUMENT ME!
      */
     private void pushLower(byte header, Buffer anAppFrame, int length) throws Exception {
-        lnkSnd.getLnkSndBuffer().writeByte(header);
-        lnkSnd.getLnkSndBuffer().writeBytes(anAppFrame.readBytes(length));
-        lnkSnd.getLnkSndQueue().push(length + 1);
-        lnkSnd.getLnkSndLock().unlock();
-    }
-
-    /**
-     * @return the trsFrame
-     */
-    public Buffer[] getTrsFrame() {
-        return trsFrame;
-    }
-
-    /**
-     * @param trsFrame the trsFrame to set
-     */
-    public void setTrsFrame(Buffer[] trsFrame) {
-        this.trsFrame = trsFrame;
-    }
-
-    /**
-     * @return the trsFirstFrame
-     */
-    public boolean[] getTrsFirstFrame() {
-        return trsFirstFrame;
-    }
-
-    /**
-     * @param trsFirstFrame the trsFirstFrame to set
-     */
-    public void setTrsFirstFrame(boolean[] trsFirstFrame) {
-        this.trsFirstFrame = trsFirstFrame;
-    }
-
-    /**
-     * @return the trsLastSeq
-     */
-    public byte[] getTrsLastSeq() {
-        return trsLastSeq;
-    }
-
-    /**
-     * @param trsLastSeq the trsLastSeq to set
-     */
-    public void setTrsLastSeq(byte[] trsLastSeq) {
-        this.trsLastSeq = trsLastSeq;
+        FrameRing ring = lnkSnd.getLnkSndRing();
+        byte[] slot = ring.claim();
+        slot[0] = header;
+        anAppFrame.readBytes(slot, 1, length);
+        ring.publish(length + 1);
     }
 
     /**
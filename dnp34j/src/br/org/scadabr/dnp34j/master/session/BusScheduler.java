@@ -0,0 +1,325 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.InternalIndication;
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+
+/**
+ * <p>
+ * Orders the transactions of every session sharing a {@link DNPChannel}. Only one request is in
+ * flight on a multi-drop line, so requests are queued per session and a single thread runs them
+ * back-to-back:
+ * <ul>
+ * <li>sessions with the highest {@link br.org.scadabr.dnp34j.master.session.config.DNPConfig#getBusPriority() priority}
+ * are served first
+ * <li>sessions of the same priority share the line in proportion of their
+ * {@link br.org.scadabr.dnp34j.master.session.config.DNPConfig#getBusWeight() weight}, with a
+ * smooth weighted round-robin
+ * <li>a session whose requests time out is skipped for a while, twice as long after each new
+ * failure, as long as other sessions have something to send
+ * </ul>
+ */
+public class BusScheduler implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BusScheduler.class);
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final List<Station> stations = new ArrayList<Station>();
+    private Thread thread;
+    private boolean STOP = false;
+
+    // skip time after a first failure, and upper bound
+    private long skipTime = 1000;
+    private long maxSkipTime = 60000;
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Queue a request of a session and wait for its response
+     *
+     * @param user session sending the request
+     * @param aFrame application frame
+     * @return the internal indications of the response
+     * @throws Exception the failure of the transaction
+     */
+    public InternalIndication transact(DNPUser user, Buffer aFrame) throws Exception {
+        CompletableFuture<InternalIndication> result = submit(user, aFrame);
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Queue a request of a session
+     *
+     * @param user session sending the request
+     * @param aFrame application frame
+     * @return completed with the internal indications of the response, or exceptionally on failure
+     */
+    public synchronized CompletableFuture<InternalIndication> submit(DNPUser user, Buffer aFrame) {
+        CompletableFuture<InternalIndication> result = new CompletableFuture<InternalIndication>();
+
+        if (STOP) {
+            result.completeExceptionally(new Exception("Bus scheduler is closed"));
+            return result;
+        }
+
+        Station station = find(user);
+        if (station == null) {
+            station = new Station(user);
+            stations.add(station);
+        }
+        station.pending.add(new Request(aFrame, result));
+
+        if (thread == null) {
+            thread = new Thread(this, "DNP3 bus scheduler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        return result;
+    }
+
+    /**
+     * Forget a session, failing its pending requests
+     *
+     * @param user session to remove
+     */
+    public synchronized void remove(DNPUser user) {
+        Station station = find(user);
+        if (station != null) {
+            stations.remove(station);
+            fail(station, new Exception("Session stopped"));
+        }
+    }
+
+    /**
+     * Stop the scheduler thread, failing every pending request
+     */
+    public synchronized void close() {
+        STOP = true;
+        for (Station station : stations) {
+            fail(station, new Exception("Bus scheduler is closed"));
+        }
+        stations.clear();
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Station station = null;
+            Request request;
+
+            synchronized (this) {
+                while (!STOP && (station = next(System.currentTimeMillis())) == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (STOP) {
+                    thread = null;
+                    return;
+                }
+                request = station.pending.poll();
+            }
+
+            InternalIndication iin = null;
+            Exception failure = null;
+            try {
+                iin = station.user.transact(request.frame);
+            } catch (Exception e) {
+                failure = e;
+            }
+
+            synchronized (this) {
+                station.transactions++;
+                if (failure == null) {
+                    station.failures = 0;
+                    station.skipUntil = 0;
+                } else {
+                    station.timeouts++;
+                    station.failures++;
+                    long skip = Math.min(maxSkipTime, skipTime << Math.min(station.failures - 1, 16));
+                    station.skipUntil = System.currentTimeMillis() + skip;
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("[BusScheduler] skipping station " + station.user.getConfig().getDNPAddressList()[1]
+                                + " for " + skip + " ms");
+                    }
+                }
+            }
+
+            if (failure == null) {
+                request.result.complete(iin);
+            } else {
+                request.result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Pick the next station to serve : highest priority first, then smooth weighted round-robin
+     * among healthy stations. Stations being skipped are served only if nobody else is waiting.
+     */
+    private Station next(long now) {
+        Station skipped = null;
+        int priority = Integer.MIN_VALUE;
+
+        for (Station station : stations) {
+            if (station.pending.isEmpty()) {
+                continue;
+            }
+
+            if (station.skipUntil > now) {
+                if (skipped == null || station.skipUntil < skipped.skipUntil) {
+                    skipped = station;
+                }
+            } else {
+                priority = Math.max(priority, station.user.getConfig().getBusPriority());
+            }
+        }
+
+        Station best = null;
+        int totalWeight = 0;
+
+        for (Station station : stations) {
+            if (station.pending.isEmpty() || station.skipUntil > now
+                    || station.user.getConfig().getBusPriority() != priority) {
+                continue;
+            }
+
+            int weight = station.user.getConfig().getBusWeight();
+            station.currentWeight += weight;
+            totalWeight += weight;
+            if (best == null || station.currentWeight > best.currentWeight) {
+                best = station;
+            }
+        }
+
+        if (best != null) {
+            best.currentWeight -= totalWeight;
+            return best;
+        }
+        return skipped;
+    }
+
+    private Station find(DNPUser user) {
+        for (Station station : stations) {
+            if (station.user == user) {
+                return station;
+            }
+        }
+        return null;
+    }
+
+    private void fail(Station station, Exception e) {
+        Request request;
+        while ((request = station.pending.poll()) != null) {
+            request.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return number of requests waiting for the line
+     */
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (Station station : stations) {
+            count += station.pending.size();
+        }
+        return count;
+    }
+
+    /**
+     * @param user a session of the channel
+     * @return number of transactions run for this session
+     */
+    public synchronized long getTransactionCount(DNPUser user) {
+        Station station = find(user);
+        return (station != null) ? station.transactions : 0;
+    }
+
+    /**
+     * @param user a session of the channel
+     * @return number of failed transactions of this session
+     */
+    public synchronized long getTimeoutCount(DNPUser user) {
+        Station station = find(user);
+        return (station != null) ? station.timeouts : 0;
+    }
+
+    /**
+     * @return the skipTime
+     */
+    public long getSkipTime() {
+        return skipTime;
+    }
+
+    /**
+     * @param skipTime the time a station is skipped after a first failure, in ms
+     */
+    public void setSkipTime(long skipTime) {
+        this.skipTime = skipTime;
+    }
+
+    /**
+     * @return the maxSkipTime
+     */
+    public long getMaxSkipTime() {
+        return maxSkipTime;
+    }
+
+    /**
+     * @param maxSkipTime the longest time a failing station is skipped, in ms
+     */
+    public void setMaxSkipTime(long maxSkipTime) {
+        this.maxSkipTime = maxSkipTime;
+    }
+
+    /**
+     * Scheduling state of a session
+     */
+    private static class Station {
+        private final DNPUser user;
+        private final ArrayDeque<Request> pending = new ArrayDeque<Request>();
+        private int currentWeight;
+        private int failures;
+        private long skipUntil;
+        private long transactions;
+        private long timeouts;
+
+        private Station(DNPUser user) {
+            this.user = user;
+        }
+    }
+
+    private static class Request {
+        private final Buffer frame;
+        private final CompletableFuture<InternalIndication> result;
+
+        private Request(Buffer frame, CompletableFuture<InternalIndication> result) {
+            this.frame = frame;
+            this.result = result;
+        }
+    }
+}
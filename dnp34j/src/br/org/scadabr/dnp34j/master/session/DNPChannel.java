@@ -0,0 +1,269 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.utils.IntMap;
+import br.org.scadabr.dnp34j.master.layers.ThreadStopException;
+import br.org.scadabr.dnp34j.master.layers.link.FrameReader;
+import br.org.scadabr.dnp34j.master.layers.link.LnkRcv;
+import br.org.scadabr.dnp34j.master.layers.physical.PhyLayer;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig.COMM;
+import br.org.scadabr.dnp34j.master.session.config.DNPConfig.RECEIVE;
+import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
+import br.org.scadabr.dnp34j.serial.SerialPortWrapper;
+
+/**
+ * <p>
+ * Physical port shared by several sessions, typically a multi-drop RS-485 loop hosting dozens of
+ * outstations. Each outstation keeps its own {@link DNPUser}, with its own link, transport and
+ * application state, while a single reader cuts the frames of the port and hands each one to the
+ * session of its source address.
+ *
+ * <p>
+ * Sessions join a channel through
+ * {@link br.org.scadabr.dnp34j.master.session.config.DNPConfig#DNPConfig(DNPChannel, int, int)}.
+ * The port is opened by the first session and closed when the last one stops. Requests of all
+ * sessions go through a {@link BusScheduler}, so only one transaction is on the line at a time.
+ */
+public class DNPChannel implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DNPChannel.class);
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private COMM commType;
+    private Object commConfig;
+    private RECEIVE receiveMode;
+
+    private PhyLayer phyLayer;
+    private BusScheduler scheduler;
+    private FrameReader frameReader;
+    private Thread reader;
+    private volatile boolean STOP = false;
+
+    // sessions by remote station address, replaced on every change
+    private volatile IntMap<DNPUser> sessions = new IntMap<DNPUser>();
+    private final List<DNPUser> users = new CopyOnWriteArrayList<DNPUser>();
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+    public DNPChannel(EthernetParameters parameters) {
+        this.commType = COMM.ETHERNET;
+        this.commConfig = parameters;
+        this.receiveMode = RECEIVE.BLOCKING;
+    }
+
+    public DNPChannel(SerialPortWrapper serialPort) {
+        this.commType = COMM.SERIAL;
+        this.commConfig = serialPort;
+        this.receiveMode = RECEIVE.POLLING;
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Open the port if no session did it yet
+     *
+     * @return the shared physical layer
+     * @throws Exception
+     */
+    public synchronized PhyLayer open() throws Exception {
+        if (phyLayer == null) {
+            phyLayer = new PhyLayer(commType, commConfig, this::reportException);
+            scheduler = new BusScheduler();
+
+            frameReader = new FrameReader(receiveMode == RECEIVE.BLOCKING);
+            frameReader.setPhyLayer(phyLayer);
+
+            STOP = false;
+            reader = new Thread(this, "DNP3 channel reader");
+            reader.start();
+        }
+        return phyLayer;
+    }
+
+    /**
+     * Route the frames of every remote station of a session to its link layer
+     *
+     * @param user session to attach
+     * @throws Exception if an address is already used by another session
+     */
+    synchronized void attach(DNPUser user) throws Exception {
+        int[] addresses = user.getConfig().getDNPAddressList();
+        IntMap<DNPUser> copy = new IntMap<DNPUser>(sessions);
+
+        // index 0 is the master itself
+        for (int i = 1; i < addresses.length; i++) {
+            DNPUser other = copy.put(addresses[i], user);
+            if (other != null && other != user) {
+                throw new Exception("Address " + addresses[i] + " is already used on this channel");
+            }
+        }
+
+        open();
+        sessions = copy;
+        users.add(user);
+    }
+
+    /**
+     * Stop routing frames to a session, and close the port after the last one
+     *
+     * @param user session to detach
+     * @throws Exception
+     */
+    synchronized void detach(DNPUser user) throws Exception {
+        int[] addresses = user.getConfig().getDNPAddressList();
+        IntMap<DNPUser> copy = new IntMap<DNPUser>(sessions);
+
+        for (int i = 1; i < addresses.length; i++) {
+            if (copy.get(addresses[i]) == user) {
+                copy.remove(addresses[i]);
+            }
+        }
+
+        sessions = copy;
+        users.remove(user);
+        if (scheduler != null) {
+            scheduler.remove(user);
+        }
+
+        if (users.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * Stop the reader and close the port
+     *
+     * @throws Exception
+     */
+    public synchronized void close() throws Exception {
+        STOP = true;
+
+        if (frameReader != null) {
+            frameReader.setSTOP(true);
+        }
+
+        if (scheduler != null) {
+            scheduler.close();
+        }
+
+        if (phyLayer != null) {
+            phyLayer.close();
+            phyLayer = null;
+        }
+    }
+
+    /**
+     * Read frames and hand them to the session of their source address
+     */
+    @Override
+    public void run() {
+        FrameReader frameReader = this.frameReader;
+
+        try {
+            while (!STOP) {
+                frameReader.next();
+
+                byte[] frame = frameReader.getBuffer();
+                int off = frameReader.getFrameOffset();
+                int source = FrameReader.source(frame, off);
+                DNPUser user = sessions.get(source);
+                LnkRcv lnkRcv = (user != null) ? user.getLnkRcv() : null;
+
+                if (lnkRcv == null) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("[DNPChannel] no session for address " + source);
+                    }
+                    continue;
+                }
+
+                try {
+                    lnkRcv.handleFrame(frame, off, frameReader.getFrameLength());
+                } catch (Exception e) {
+                    user.reportException(e);
+                }
+            }
+        } catch (ThreadStopException e) {
+            // Ignore
+        } catch (IOException e) {
+            if (!STOP) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[DNPChannel] Remote Connection closed.");
+                }
+                reportException(e);
+            }
+        }
+    }
+
+    /**
+     * Notify every session of a port error
+     */
+    private void reportException(Exception e) {
+        for (DNPUser user : users) {
+            user.reportException(e);
+        }
+    }
+
+    /**
+     * @return the physical layer, or null if the port isn't open
+     */
+    public PhyLayer getPhyLayer() {
+        return phyLayer;
+    }
+
+    /**
+     * @return the scheduler ordering the requests of all sessions, or null if the port isn't open
+     */
+    public BusScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the commType
+     */
+    public COMM getCommType() {
+        return commType;
+    }
+
+    /**
+     * @return the commConfig
+     */
+    public Object getCommConfig() {
+        return commConfig;
+    }
+
+    /**
+     * @return the receiveMode
+     */
+    public RECEIVE getReceiveMode() {
+        return receiveMode;
+    }
+
+    /**
+     * Serial ports default to POLLING, see
+     * {@link br.org.scadabr.dnp34j.master.session.config.DNPConfig#setReceiveMode(RECEIVE)}
+     *
+     * @param receiveMode
+     *            the receiveMode to set, before the port is opened
+     */
+    public void setReceiveMode(RECEIVE receiveMode) {
+        this.receiveMode = receiveMode;
+    }
+
+    /**
+     * @return number of sessions attached
+     */
+    public int getSessionCount() {
+        return users.size();
+    }
+}
@@ -1,14 +1,28 @@
 package br.org.scadabr.dnp34j.master.session;
 
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import br.org.scadabr.dnp34j.master.common.AppFeatures;
 import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
 import br.org.scadabr.dnp34j.master.common.DataObject;
 import br.org.scadabr.dnp34j.master.common.InitFeatures;
 import br.org.scadabr.dnp34j.master.common.InternalIndication;
 import br.org.scadabr.dnp34j.master.common.utils.Buffer;
-import br.org.scadabr.dnp34j.master.common.utils.Lock;
+import br.org.scadabr.dnp34j.master.common.utils.EventLoop;
+import br.org.scadabr.dnp34j.master.common.utils.EventLoopGroup;
+import br.org.scadabr.dnp34j.master.common.utils.HashedWheelTimer;
 import br.org.scadabr.dnp34j.master.layers.application.AppRcv;
 import br.org.scadabr.dnp34j.master.layers.application.AppSnd;
 import br.org.scadabr.dnp34j.master.layers.link.LnkRcv;
@@ -17,10 +31,13 @@ import br.org.scadabr.dnp34j.master.layers.physical.PhyLayer;
 import br.org.scadabr.dnp34j.master.layers.transport.TransportLayer;
 import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
 import br.org.scadabr.dnp34j.master.session.database.Database;
+import br.org.scadabr.dnp34j.master.session.database.SnapshotStore;
 
 public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
 
-    private Lock userRcvLock;
+    private static final Logger LOG = LoggerFactory.getLogger(DNPUser.class);
+
+    private static ExecutorService sharedTaskExecutor;
 
     private AppRcv appRcv;
     private AppSnd appSnd;
@@ -33,22 +50,50 @@ public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
     private DNPConfig config;
     private Consumer<Exception> exceptionHandler;
     private Consumer<InternalIndication> iinHandler;
+    private Consumer<InternalIndication> unsolicitedHandler;
+
+    // threads running the layers, when they come from a factory
+    private final Map<Thread, Thread> layerThreads = new IdentityHashMap<Thread, Thread>();
+
+    // requests waiting for their response, the first one is on the line
+    private final ArrayDeque<Transaction> transactions = new ArrayDeque<Transaction>();
+    private byte lastSeq = -1;
+    private EventLoop eventLoop;
 
     public DNPUser(DNPConfig config, Consumer<Exception> exceptionHandler, Consumer<InternalIndication> iinHandler) {
+        this(config, exceptionHandler, iinHandler, null);
+    }
+
+    /**
+     * @param unsolicitedHandler
+     *            called once the database is updated with the content of an unsolicited response,
+     *            on the thread of the application layer
+     */
+    public DNPUser(DNPConfig config, Consumer<Exception> exceptionHandler, Consumer<InternalIndication> iinHandler,
+            Consumer<InternalIndication> unsolicitedHandler) {
         this.config = config;
         this.exceptionHandler = exceptionHandler;
         this.iinHandler = iinHandler;
+        this.unsolicitedHandler = unsolicitedHandler;
     }
 
     public void init() throws Exception {
-        phyLayer = new PhyLayer(this);
-
-        database = new Database();
+        DNPChannel channel = config.getChannel();
+        phyLayer = (channel != null) ? channel.open() : new PhyLayer(this);
+
+        database = new Database(config.getHistoryDepth());
+        database.setListenerExecutor(config.getListenerExecutor());
+        if (config.getSnapshotFile() != null) {
+            // last known values, until the first poll
+            SnapshotStore snapshotStore = new SnapshotStore(config.getSnapshotFile());
+            snapshotStore.open(database, config.getSnapshotFlushPeriod());
+            database.setSnapshotStore(snapshotStore);
+        }
         appRcv = new AppRcv(this);
         appSnd = new AppSnd(this);
         transpLayer = new TransportLayer(this);
         lnkRcv = new LnkRcv(this);
-        lnkSnd = new LnkSnd();
+        lnkSnd = new LnkSnd(config.getWaitStrategy());
 
         appRcv.setAppSnd(appSnd);
         appRcv.setTransportLayer(transpLayer);
@@ -66,27 +111,253 @@ public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
         transpLayer.setLnkRcv(lnkRcv);
         transpLayer.setLnkSnd(lnkSnd);
 
-        appRcv.start();
-        appSnd.start();
-        lnkRcv.start();
-        lnkSnd.start();
+        EventLoopGroup group = config.getEventLoopGroup();
+        EventLoop loop = (group != null) ? group.next() : null;
+        eventLoop = loop;
+        if (loop != null) {
+            // one loop runs the whole stack of this session
+            appRcv.setEventLoop(loop);
+            appSnd.setEventLoop(loop);
+            lnkSnd.setEventLoop(loop);
+        } else {
+            startLayer(appRcv);
+            startLayer(appSnd);
+        }
+        if (channel != null) {
+            // frames are received by the channel reader
+            channel.attach(this);
+        } else if (loop != null && phyLayer.getPhyNIO() != null) {
+            // the selector hands received bytes to the loop
+            lnkRcv.setEventLoop(loop);
+        } else {
+            startLayer(lnkRcv);
+        }
+        if (loop == null) {
+            startLayer(lnkSnd);
+        }
 
-        userRcvLock = new Lock();
-        Thread.sleep(1000);
+        // the receive side is ready : the acknowledge of the reset signals the link is up
         boolean ok = resetLink(config.getRequestTimeout());
         if (!ok)
             throw new Exception("Reset Link Failed!");
     }
 
-    public synchronized void sendSynch(Buffer aFrame) throws Exception {
-        appRcv.push(aFrame, false);
-        userRcvLock.lock();
-        if (!userRcvLock.waiting(config.getRequestTimeout())) {
-            throw new Exception("REQUEST TIMEOUT EXCEPTION");
-        };
+    /**
+     * Start the loop of a layer, on a thread of the configured factory if any
+     */
+    private void startLayer(Thread layer) {
+        ThreadFactory factory = config.getThreadFactory();
+        if (factory == null) {
+            layer.start();
+            return;
+        }
+
+        Thread thread = factory.newThread(layer);
+        synchronized (layerThreads) {
+            layerThreads.put(layer, thread);
+        }
+        thread.start();
+    }
+
+    /**
+     * @param layer
+     *            a layer of this session
+     * @return true if the thread running its loop is alive
+     */
+    public boolean isLayerAlive(Thread layer) {
+        Thread thread;
+        synchronized (layerThreads) {
+            thread = layerThreads.get(layer);
+        }
+        return (thread != null) ? thread.isAlive() : layer.isAlive();
+    }
+
+    /**
+     * Send a request and wait for its response
+     *
+     * @return the internal indications of the response
+     * @throws Exception
+     *             if no response came in time
+     */
+    public InternalIndication sendSynch(Buffer aFrame) throws Exception {
+        DNPChannel channel = config.getChannel();
+        if (channel != null) {
+            // wait for the turn of this session on the shared line
+            return channel.getScheduler().transact(this, aFrame);
+        }
+        return transact(aFrame);
+    }
+
+    /**
+     * Send a request of this session, bypassing the bus scheduler, and wait for its response
+     */
+    InternalIndication transact(Buffer aFrame) throws Exception {
+        CompletableFuture<InternalIndication> result = request(aFrame);
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Send a request without waiting for its response. Requests of a session are queued and sent
+     * one at a time, each one once the previous one is answered. A response is matched to its
+     * request by the application sequence number of its first fragment, so a late response to a
+     * request already timed out is ignored.
+     *
+     * <p>
+     * The future is completed by the thread of the application layer, or by the timer on timeout :
+     * dependent actions that block must run on another executor. Cancelling the future drops the
+     * request, or stops waiting for its response if it's already sent.
+     *
+     * @return completed with the internal indications of the final response fragment, or
+     *         exceptionally if no response came in time
+     */
+    public CompletableFuture<InternalIndication> sendAsync(Buffer aFrame) {
+        DNPChannel channel = config.getChannel();
+        if (channel != null) {
+            // wait for the turn of this session on the shared line
+            return channel.getScheduler().submit(this, aFrame);
+        }
+        return request(aFrame);
+    }
+
+    /**
+     * Queue a request of this session, bypassing the bus scheduler
+     */
+    CompletableFuture<InternalIndication> request(Buffer aFrame) {
+        final Transaction transaction = new Transaction(aFrame);
+        boolean first;
+        synchronized (transactions) {
+            transactions.add(transaction);
+            first = transactions.size() == 1;
+        }
+
+        transaction.result.whenComplete((iin, e) -> {
+            if (transaction.result.isCancelled()) {
+                finish(transaction);
+            }
+        });
+        if (first) {
+            start(transaction);
+        }
+        return transaction.result;
+    }
+
+    /**
+     * Send the request at the head of the queue and arm its timeout
+     */
+    private void start(final Transaction transaction) {
+        if (transaction.result.isDone()) {
+            return;
+        }
+
+        // a new sequence number for each request : the frame may have been built before the
+        // previous one was sent, and a late response to a timed out request must not match it
+        lastSeq = (byte) ((lastSeq + 1) & 0x0F);
+        Buffer frame = transaction.frame;
+        frame.getBuffer()[frame.getOffset()] = (byte) ((frame.value(0) & 0xF0) | lastSeq);
+        transaction.seq = lastSeq;
+        transaction.started = true;
+        transaction.timeout = HashedWheelTimer.getShared().newTimeout(() -> {
+            if (transaction.result.completeExceptionally(new Exception("REQUEST TIMEOUT EXCEPTION"))) {
+                finish(transaction);
+            }
+        }, config.getRequestTimeout(), getTaskExecutor());
+
+        try {
+            appRcv.push(transaction.frame, false);
+        } catch (Exception e) {
+            if (transaction.result.completeExceptionally(e)) {
+                finish(transaction);
+            }
+        }
+    }
+
+    /**
+     * Remove a completed request from the queue, and send the next one if it was on the line
+     */
+    private void finish(Transaction transaction) {
+        final Transaction next;
+        synchronized (transactions) {
+            boolean head = transactions.peek() == transaction;
+            if (!transactions.remove(transaction)) {
+                return;
+            }
+            next = head ? transactions.peek() : null;
+        }
+
+        if (transaction.timeout != null) {
+            transaction.timeout.cancel();
+        }
+        if (next != null) {
+            // not inside the handling of the previous response : sending may wait for room in
+            // the rings of the session
+            getTaskExecutor().execute(() -> start(next));
+        }
     }
 
-    public synchronized void send(Buffer aFrame) throws Exception {
+    /**
+     * Called by the application layer for every fragment of a solicited response
+     *
+     * @param AC
+     *            application control of the fragment
+     * @param iin
+     *            its internal indications
+     */
+    public void responseReceived(byte AC, InternalIndication iin) {
+        Transaction transaction;
+        synchronized (transactions) {
+            transaction = transactions.peek();
+        }
+        if (transaction == null || !transaction.started) {
+            return;
+        }
+
+        // the first fragment carries the sequence number of the request
+        if ((AC & 0x80) == 0x80) {
+            transaction.matched = (AC & 0x0F) == transaction.seq;
+        }
+        if (!transaction.matched) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[DNPUser] response " + (AC & 0x0F) + " doesn't match request " + transaction.seq);
+            }
+            return;
+        }
+
+        // completed by the final fragment
+        if ((AC & 0x40) == 0x40) {
+            InternalIndication result = new InternalIndication(iin.getIin1(), iin.getIin2(), (byte) (AC & 0x0F));
+            if (transaction.result.complete(result)) {
+                finish(transaction);
+            }
+        }
+    }
+
+    /**
+     * Fail every queued request
+     */
+    private void failRequests(Exception e) {
+        Transaction[] pending;
+        synchronized (transactions) {
+            pending = transactions.toArray(new Transaction[transactions.size()]);
+            transactions.clear();
+        }
+
+        for (Transaction transaction : pending) {
+            if (transaction.timeout != null) {
+                transaction.timeout.cancel();
+            }
+            transaction.result.completeExceptionally(e);
+        }
+    }
+
+    public void send(Buffer aFrame) throws Exception {
         appRcv.push(aFrame, false);
     }
 
@@ -98,6 +369,44 @@ public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
         return request;
     }
 
+    /**
+     * Build a request allowing the remote station to report the events of some classes by itself
+     *
+     * @return the request, to send like any other
+     */
+    public Buffer buildEnableUnsolicitedMsg(boolean class1, boolean class2, boolean class3) {
+        return buildUnsolicitedMsg(ENABLE_UNSOLICITED, class1, class2, class3);
+    }
+
+    /**
+     * Build a request stopping the remote station from reporting the events of some classes by
+     * itself
+     *
+     * @return the request, to send like any other
+     */
+    public Buffer buildDisableUnsolicitedMsg(boolean class1, boolean class2, boolean class3) {
+        return buildUnsolicitedMsg(DISABLE_UNSOLICITED, class1, class2, class3);
+    }
+
+    private Buffer buildUnsolicitedMsg(byte FC, boolean class1, boolean class2, boolean class3) {
+        Buffer request = new Buffer(S);
+
+        if (class1) {
+            request = appSnd.addObjectToRequest(request, FC, CLASS_STATIC, CLASS_1_VAR);
+        }
+        if (class2) {
+            request = appSnd.addObjectToRequest(request, FC, CLASS_STATIC, CLASS_2_VAR);
+        }
+        if (class3) {
+            request = appSnd.addObjectToRequest(request, FC, CLASS_STATIC, CLASS_3_VAR);
+        }
+        if (request.length() == 0) {
+            throw new IllegalArgumentException("No event class selected");
+        }
+
+        return request;
+    }
+
     public Buffer buildReadDataMsg(byte group, byte classVar) {
         Buffer request = new Buffer(S);
         request = appSnd.addObjectToRequest(request, READ, group, classVar);
@@ -105,11 +414,27 @@ public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
     }
 
     public Buffer buildReadAllEventDataMsg() {
+        return buildReadEventDataMsg(true, true, true);
+    }
+
+    /**
+     * Build a read of the events of some classes
+     */
+    public Buffer buildReadEventDataMsg(boolean class1, boolean class2, boolean class3) {
         Buffer request = new Buffer(S);
 
-        request = appSnd.addObjectToRequest(request, READ, CLASS_STATIC, CLASS_1_VAR);
-        request = appSnd.addObjectToRequest(request, READ, CLASS_STATIC, CLASS_2_VAR);
-        request = appSnd.addObjectToRequest(request, READ, CLASS_STATIC, CLASS_3_VAR);
+        if (class1) {
+            request = appSnd.addObjectToRequest(request, READ, CLASS_STATIC, CLASS_1_VAR);
+        }
+        if (class2) {
+            request = appSnd.addObjectToRequest(request, READ, CLASS_STATIC, CLASS_2_VAR);
+        }
+        if (class3) {
+            request = appSnd.addObjectToRequest(request, READ, CLASS_STATIC, CLASS_3_VAR);
+        }
+        if (request.length() == 0) {
+            throw new IllegalArgumentException("No event class selected");
+        }
 
         return request;
     }
@@ -176,9 +501,17 @@ public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
     }
 
     public void stop() throws Exception {
+        failRequests(new Exception("Session stopped"));
         appRcv.setSTOP(true);
         lnkRcv.setSTOP(true);
-        phyLayer.close();
+        if (config.getChannel() != null) {
+            config.getChannel().detach(this);
+        } else {
+            phyLayer.close();
+        }
+        if (database.getSnapshotStore() != null) {
+            database.getSnapshotStore().close();
+        }
     }
 
     private boolean resetLink(long timeout) throws Exception {
@@ -243,6 +576,26 @@ public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
         return config;
     }
 
+    /**
+     * @return the executor of the tasks of this session that may wait, such as sending a request
+     *         once a timeout expired : its event loop, or else a pool of threads shared by every
+     *         session. Never the timer thread.
+     */
+    public Executor getTaskExecutor() {
+        return (eventLoop != null) ? eventLoop : getSharedTaskExecutor();
+    }
+
+    private static synchronized ExecutorService getSharedTaskExecutor() {
+        if (sharedTaskExecutor == null) {
+            sharedTaskExecutor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "DNP3 session task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedTaskExecutor;
+    }
+
     public void setDatabase(Database database) {
         this.database = database;
     }
@@ -251,10 +604,6 @@ public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
         return database;
     }
 
-    public Lock getUserRcvLock() {
-        return userRcvLock;
-    }
-
     public void reportException(Exception e) {
         if(exceptionHandler != null) {
             exceptionHandler.accept(e);
@@ -270,7 +619,35 @@ public class DNPUser implements InitFeatures, DataMapFeatures, AppFeatures {
         }
     }
 
+    /**
+     * @param internalIndication
+     *            of an unsolicited response
+     */
+    public void notifyUnsolicited(InternalIndication internalIndication) {
+        if(unsolicitedHandler != null) {
+            unsolicitedHandler.accept(internalIndication);
+        }
+    }
+
     public byte getApplicationLayerSequence() {
         return appRcv.getAppLastSeq();
     }
+
+    /**
+     * A request and its response
+     */
+    private static class Transaction {
+        private final Buffer frame;
+        private final CompletableFuture<InternalIndication> result = new CompletableFuture<InternalIndication>();
+        private HashedWheelTimer.Timeout timeout;
+        private byte seq;
+        private volatile boolean started;
+
+        // accessed by the application layer only
+        private boolean matched;
+
+        private Transaction(Buffer frame) {
+            this.frame = frame;
+        }
+    }
 }
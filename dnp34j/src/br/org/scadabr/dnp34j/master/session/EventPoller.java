@@ -0,0 +1,232 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.InternalIndication;
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+import br.org.scadabr.dnp34j.master.common.utils.HashedWheelTimer;
+
+/**
+ * <p>
+ * Polls the events of a session as the remote station reports them. Every response carries the
+ * class 1/2/3 event available bits of IIN1 :
+ * <ul>
+ * <li>if some are set, the classes having data are read again after {@link #getMinPeriod()}
+ * <li>if none is set, the next poll of all classes waits twice as long as the previous one, up to
+ * {@link #getMaxPeriod()}
+ * <li>a failed poll waits {@link #getMaxPeriod()}
+ * </ul>
+ * A static data poll is also made every {@link #getIntegrityPeriod()}, in place of the next poll
+ * of events or classes once it's due.
+ *
+ * <p>
+ * Polls are sent with {@link DNPUser#sendAsync(Buffer)} and timed by the
+ * {@link HashedWheelTimer}, so a poller holds no thread between two polls. Polls are sent by the
+ * task executor of the session, never by the timer thread.
+ */
+public class EventPoller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventPoller.class);
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final DNPUser user;
+
+    private long minPeriod = 100;
+    private long maxPeriod = 5000;
+    private long integrityPeriod = 60000;
+
+    private long delay;
+    private long nextIntegrity;
+    private long pollCount;
+    private HashedWheelTimer.Timeout timeout;
+    private CompletableFuture<InternalIndication> poll;
+    private boolean STOP = true;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * @param user
+     *            session to poll, initialized
+     */
+    public EventPoller(DNPUser user) {
+        this.user = user;
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Start with a static data poll
+     */
+    public synchronized void start() {
+        if (!STOP) {
+            return;
+        }
+
+        STOP = false;
+        delay = minPeriod;
+        nextIntegrity = 0;
+        schedule(0);
+    }
+
+    /**
+     * Stop polling. A poll already sent still completes.
+     */
+    public synchronized void stop() {
+        STOP = true;
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+        if (poll != null) {
+            poll.cancel(false);
+            poll = null;
+        }
+    }
+
+    private void schedule(long wait) {
+        timeout = HashedWheelTimer.getShared().newTimeout(this::poll, wait, user.getTaskExecutor());
+    }
+
+    /**
+     * Send the next poll : static data when due, else the event classes
+     */
+    private synchronized void poll() {
+        if (STOP) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Buffer request;
+        if (now >= nextIntegrity) {
+            nextIntegrity = (integrityPeriod > 0) ? now + integrityPeriod : Long.MAX_VALUE;
+            request = user.buildReadStaticDataMsg();
+        } else {
+            request = user.buildReadAllEventDataMsg();
+        }
+
+        send(request);
+    }
+
+    private void send(Buffer request) {
+        pollCount++;
+        final CompletableFuture<InternalIndication> result = user.sendAsync(request);
+        poll = result;
+        result.whenComplete((iin, e) -> polled(result, iin, e));
+    }
+
+    /**
+     * Pick the next poll from the internal indications of the response
+     */
+    private synchronized void polled(CompletableFuture<InternalIndication> result, InternalIndication iin,
+            Throwable failure) {
+        if (STOP || result != poll) {
+            return;
+        }
+        poll = null;
+
+        if (failure != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[EventPoller] poll failed : " + failure.getMessage());
+            }
+            delay = maxPeriod;
+            schedule(delay);
+            return;
+        }
+
+        boolean class1 = iin.class1DataAvailable();
+        boolean class2 = iin.class2DataAvailable();
+        boolean class3 = iin.class3DataAvailable();
+
+        if (class1 || class2 || class3) {
+            // read only the classes having data, as soon as allowed
+            delay = minPeriod;
+            timeout = HashedWheelTimer.getShared().newTimeout(() -> pollClasses(class1, class2, class3), minPeriod,
+                    user.getTaskExecutor());
+        } else {
+            // nothing pending : back off
+            schedule(delay);
+            delay = Math.min(delay * 2, maxPeriod);
+        }
+    }
+
+    private synchronized void pollClasses(boolean class1, boolean class2, boolean class3) {
+        if (STOP) {
+            return;
+        }
+
+        // a busy station always has events : the static data poll is due all the same
+        if (System.currentTimeMillis() >= nextIntegrity) {
+            poll();
+            return;
+        }
+        send(user.buildReadEventDataMsg(class1, class2, class3));
+    }
+
+    /**
+     * @return number of polls sent
+     */
+    public synchronized long getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * @return true if polling
+     */
+    public synchronized boolean isStarted() {
+        return !STOP;
+    }
+
+    /**
+     * @return the minPeriod
+     */
+    public long getMinPeriod() {
+        return minPeriod;
+    }
+
+    /**
+     * @param minPeriod
+     *            the time between two polls while events are pending, in ms
+     */
+    public void setMinPeriod(long minPeriod) {
+        this.minPeriod = minPeriod;
+    }
+
+    /**
+     * @return the maxPeriod
+     */
+    public long getMaxPeriod() {
+        return maxPeriod;
+    }
+
+    /**
+     * @param maxPeriod
+     *            the longest time between two polls of a quiet station, in ms
+     */
+    public void setMaxPeriod(long maxPeriod) {
+        this.maxPeriod = maxPeriod;
+    }
+
+    /**
+     * @return the integrityPeriod
+     */
+    public long getIntegrityPeriod() {
+        return integrityPeriod;
+    }
+
+    /**
+     * @param integrityPeriod
+     *            the time between two static data polls in ms, 0 for the first one only
+     */
+    public void setIntegrityPeriod(long integrityPeriod) {
+        this.integrityPeriod = integrityPeriod;
+    }
+}
@@ -0,0 +1,284 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.utils.Buffer;
+
+/**
+ * <p>
+ * Runs the periodic polls of many sessions from a single thread. Each session registers an
+ * interval for its integrity poll and for each event class, 0 to never poll it.
+ *
+ * <p>
+ * Polls of different sessions are spread over their interval : the first one of each poll is
+ * placed at random in its first interval, then every poll is moved by a random jitter of up to
+ * {@link #getJitter()} of the interval around its nominal time. Nominal times don't drift, so
+ * 1,000 outstations polled every minute are polled about 17 times per second, not all in the same
+ * second.
+ *
+ * <p>
+ * Polls are sent with {@link DNPUser#sendAsync(Buffer)}. A poll still waiting for its response
+ * when it's due again is skipped. The lag between the time a poll was due and the time it was sent
+ * is measured.
+ */
+public class PollScheduler implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PollScheduler.class);
+
+    private static final int INTEGRITY = 0;
+    private static final int CLASS_1 = 1;
+    private static final int CLASS_2 = 2;
+    private static final int CLASS_3 = 3;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final PriorityQueue<Poll> polls = new PriorityQueue<Poll>();
+    private Thread thread;
+    private boolean STOP = false;
+
+    // fraction of the interval a poll may be moved from its nominal time
+    private double jitter = 0.1;
+
+    private long pollCount;
+    private long skipCount;
+    private long lagTotal;
+    private long lagMax;
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Schedule the polls of a session, replacing its previous ones
+     *
+     * @param user
+     *            session to poll, initialized
+     * @param integrityPeriod
+     *            interval of the static data poll in ms, 0 for none
+     * @param class1Period
+     *            interval of the class 1 event poll in ms, 0 for none
+     * @param class2Period
+     *            interval of the class 2 event poll in ms, 0 for none
+     * @param class3Period
+     *            interval of the class 3 event poll in ms, 0 for none
+     */
+    public synchronized void register(DNPUser user, long integrityPeriod, long class1Period, long class2Period,
+            long class3Period) {
+        if (STOP) {
+            throw new IllegalStateException("Poll scheduler is closed");
+        }
+
+        unregister(user);
+
+        long now = System.currentTimeMillis();
+        add(user, INTEGRITY, integrityPeriod, now);
+        add(user, CLASS_1, class1Period, now);
+        add(user, CLASS_2, class2Period, now);
+        add(user, CLASS_3, class3Period, now);
+
+        if (thread == null) {
+            thread = new Thread(this, "DNP3 poll scheduler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    private void add(DNPUser user, int kind, long period, long now) {
+        if (period <= 0) {
+            return;
+        }
+
+        // phase staggered over the first interval
+        Poll poll = new Poll(user, kind, period, now + ThreadLocalRandom.current().nextLong(period));
+        poll.due = poll.nominal;
+        polls.add(poll);
+    }
+
+    /**
+     * Stop polling a session. Polls already sent still complete.
+     */
+    public synchronized void unregister(DNPUser user) {
+        Iterator<Poll> it = polls.iterator();
+        while (it.hasNext()) {
+            if (it.next().user == user) {
+                it.remove();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stop the scheduler thread and forget every session
+     */
+    public synchronized void close() {
+        STOP = true;
+        polls.clear();
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Poll poll;
+            long lag;
+
+            synchronized (this) {
+                while (!STOP) {
+                    poll = polls.peek();
+                    long wait = (poll == null) ? 0 : poll.due - System.currentTimeMillis();
+                    if (poll != null && wait <= 0) {
+                        break;
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (STOP) {
+                    thread = null;
+                    return;
+                }
+
+                poll = polls.poll();
+                long now = System.currentTimeMillis();
+                lag = now - poll.due;
+
+                // next nominal time, catching up if this one is over a whole interval late
+                poll.nominal += poll.period;
+                if (poll.nominal < now) {
+                    poll.nominal = now + poll.period;
+                }
+                long range = (long) (poll.period * jitter);
+                poll.due = poll.nominal + ((range > 0) ? ThreadLocalRandom.current().nextLong(-range, range + 1) : 0);
+                polls.add(poll);
+
+                if (poll.pending) {
+                    skipCount++;
+                    continue;
+                }
+                poll.pending = true;
+                pollCount++;
+                lagTotal += lag;
+                lagMax = Math.max(lagMax, lag);
+            }
+
+            send(poll);
+        }
+    }
+
+    private void send(final Poll poll) {
+        try {
+            poll.user.sendAsync(build(poll)).whenComplete((iin, e) -> {
+                poll.pending = false;
+                if (e != null && LOG.isDebugEnabled()) {
+                    LOG.debug("[PollScheduler] poll failed : " + e.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            // session not ready, or stopped
+            poll.pending = false;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[PollScheduler] poll not sent : " + e);
+            }
+        }
+    }
+
+    private Buffer build(Poll poll) {
+        switch (poll.kind) {
+            case CLASS_1:
+                return poll.user.buildReadEventDataMsg(true, false, false);
+            case CLASS_2:
+                return poll.user.buildReadEventDataMsg(false, true, false);
+            case CLASS_3:
+                return poll.user.buildReadEventDataMsg(false, false, true);
+            default:
+                return poll.user.buildReadStaticDataMsg();
+        }
+    }
+
+    /**
+     * @return number of polls sent
+     */
+    public synchronized long getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * @return number of polls skipped because the previous one was still waiting for its response
+     */
+    public synchronized long getSkipCount() {
+        return skipCount;
+    }
+
+    /**
+     * @return the mean time between the due time of a poll and its sending, in ms
+     */
+    public synchronized double getLagAverage() {
+        return (pollCount > 0) ? (double) lagTotal / pollCount : 0;
+    }
+
+    /**
+     * @return the longest time between the due time of a poll and its sending, in ms
+     */
+    public synchronized long getLagMax() {
+        return lagMax;
+    }
+
+    /**
+     * @return number of polls scheduled, all sessions together
+     */
+    public synchronized int getScheduledCount() {
+        return polls.size();
+    }
+
+    /**
+     * @return the jitter
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param jitter
+     *            the fraction of its interval a poll may be moved from its nominal time, between 0
+     *            and 0.5
+     */
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter > 0.5) {
+            throw new IllegalArgumentException("Invalid jitter " + jitter);
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * A periodic poll of a session
+     */
+    private static class Poll implements Comparable<Poll> {
+        private final DNPUser user;
+        private final int kind;
+        private final long period;
+        private long nominal;
+        private long due;
+        private volatile boolean pending;
+
+        private Poll(DNPUser user, int kind, long period, long nominal) {
+            this.user = user;
+            this.kind = kind;
+            this.period = period;
+            this.nominal = nominal;
+        }
+
+        @Override
+        public int compareTo(Poll other) {
+            return Long.signum(due - other.due);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package br.org.scadabr.dnp34j.master.session;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.org.scadabr.dnp34j.master.common.utils.HashedWheelTimer;
+
+/**
+ * <p>
+ * Brings many sessions up without flooding the network, typically when the master restarts :
+ * <ul>
+ * <li>at most {@link #getConcurrency()} sessions connect and reset their link at the same time
+ * <li>at most {@link #getRate()} sessions start per second
+ * <li>the integrity poll of each session that is up is deferred along a ramp, one every
+ * {@link #getIntegrityRamp()} ms
+ * </ul>
+ * A session is up as soon as the remote station acknowledges the reset of its link.
+ */
+public class SessionStarter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionStarter.class);
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final ThreadPoolExecutor executor;
+    private final double rate;
+
+    private long integrityRamp = 100;
+    private boolean integrityPoll = true;
+
+    // next start allowed by the rate, and next integrity poll of the ramp
+    private long nextStart;
+    private long nextIntegrity;
+
+    private long startedCount;
+    private long failedCount;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * @param concurrency
+     *            number of sessions starting at the same time
+     * @param rate
+     *            number of sessions started per second, 0 for no limit
+     */
+    public SessionStarter(int concurrency, double rate) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency " + concurrency);
+        }
+        if (rate < 0) {
+            throw new IllegalArgumentException("Invalid rate " + rate);
+        }
+
+        this.rate = rate;
+
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread thread = new Thread(r, "DNP3 session starter " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Queue the start of a session
+     *
+     * @param user
+     *            session not initialized yet
+     * @return completed with the session once its link is reset, or exceptionally if it failed to
+     *         start
+     */
+    public CompletableFuture<DNPUser> start(final DNPUser user) {
+        final CompletableFuture<DNPUser> result = new CompletableFuture<DNPUser>();
+
+        executor.execute(() -> {
+            try {
+                long wait = reserveStart();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+
+                user.init();
+            } catch (Exception e) {
+                synchronized (this) {
+                    failedCount++;
+                }
+                result.completeExceptionally(e);
+                return;
+            }
+
+            synchronized (this) {
+                startedCount++;
+            }
+            if (integrityPoll) {
+                scheduleIntegrityPoll(user);
+            }
+            result.complete(user);
+        });
+
+        return result;
+    }
+
+    /**
+     * @return the time to wait before the next start, according to the rate
+     */
+    private synchronized long reserveStart() {
+        if (rate <= 0) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        long start = Math.max(now, nextStart);
+        nextStart = start + (long) (1000 / rate);
+        return start - now;
+    }
+
+    /**
+     * Send the integrity poll of a session that is up, at its place on the ramp
+     */
+    private void scheduleIntegrityPoll(final DNPUser user) {
+        long wait;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long poll = Math.max(now, nextIntegrity);
+            nextIntegrity = poll + integrityRamp;
+            wait = poll - now;
+        }
+
+        HashedWheelTimer.getShared().newTimeout(() -> {
+            try {
+                user.sendAsync(user.buildReadStaticDataMsg()).whenComplete((iin, e) -> {
+                    if (e != null && LOG.isDebugEnabled()) {
+                        LOG.debug("[SessionStarter] integrity poll failed : " + e.getMessage());
+                    }
+                });
+            } catch (Exception e) {
+                // session stopped meanwhile
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[SessionStarter] integrity poll not sent : " + e);
+                }
+            }
+        }, wait, user.getTaskExecutor());
+    }
+
+    /**
+     * Stop the starter threads once the queued sessions are started
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return number of sessions up
+     */
+    public synchronized long getStartedCount() {
+        return startedCount;
+    }
+
+    /**
+     * @return number of sessions that failed to start
+     */
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return number of sessions waiting for their turn
+     */
+    public int getPendingCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the concurrency
+     */
+    public int getConcurrency() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the rate
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the integrityRamp
+     */
+    public long getIntegrityRamp() {
+        return integrityRamp;
+    }
+
+    /**
+     * @param integrityRamp
+     *            the time between the integrity polls of two sessions, in ms
+     */
+    public void setIntegrityRamp(long integrityRamp) {
+        this.integrityRamp = integrityRamp;
+    }
+
+    /**
+     * @return the integrityPoll
+     */
+    public boolean isIntegrityPoll() {
+        return integrityPoll;
+    }
+
+    /**
+     * @param integrityPoll
+     *            false if the integrity polls are left to the application
+     */
+    public void setIntegrityPoll(boolean integrityPoll) {
+        this.integrityPoll = integrityPoll;
+    }
+}
@@ -12,13 +12,17 @@ public class WatchDog extends Thread {
 		System.out.println("[Watchdog] Started!");
 		STOP = false;
 		while (!STOP) {
-			if (!user.getAppRcv().isAlive())
+			// layers of an event loop session have no thread
+			boolean threads = user.getConfig().getEventLoopGroup() == null;
+			if (threads && !user.isLayerAlive(user.getAppRcv()))
 				System.out.print("appRcv is dead!");
-			if (!user.getAppSnd().isAlive())
+			if (threads && !user.isLayerAlive(user.getAppSnd()))
 				System.out.print("appSnd is dead!");
-			if (!user.getLnkRcv().isAlive())
+			// frames of a shared channel are received by the channel reader, NIO bytes may go to a loop
+			if (user.getConfig().getChannel() == null && user.getLnkRcv().getEventLoop() == null
+					&& !user.isLayerAlive(user.getLnkRcv()))
 				System.out.print("lnkRcv is dead!");
-			if (!user.getLnkSnd().isAlive())
+			if (threads && !user.isLayerAlive(user.getLnkSnd()))
 				System.out.print("lnkSnd is dead!");
 
 			try {
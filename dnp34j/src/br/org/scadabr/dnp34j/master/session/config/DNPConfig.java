@@ -1,5 +1,14 @@
 package br.org.scadabr.dnp34j.master.session.config;
 
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import br.org.scadabr.dnp34j.master.common.utils.EventLoopGroup;
+import br.org.scadabr.dnp34j.master.common.utils.WaitStrategy;
+import br.org.scadabr.dnp34j.master.layers.PointVisitor;
+import br.org.scadabr.dnp34j.master.session.DNPChannel;
+import br.org.scadabr.dnp34j.master.session.database.DataBuffer;
 import br.org.scadabr.dnp34j.serial.SerialPortWrapper;
 
 public class DNPConfig {
@@ -16,14 +25,39 @@ public class DNPConfig {
     private int[] DNPAddressList;
     private COMM commType;
     private Object commConfig;
+    private RECEIVE receiveMode;
+    private DNPChannel channel;
+    private int busWeight = 1;
+    private int busPriority = 0;
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private EventLoopGroup eventLoopGroup;
+    private ThreadFactory threadFactory;
+    private File snapshotFile;
+    private long snapshotFlushPeriod = 1000;
+    private int historyDepth = DataBuffer.DEFAULT_SIZE;
+    private Executor listenerExecutor;
+    private PointVisitor pointVisitor;
+    private boolean databaseEnabled = true;
 
     public enum COMM {
         ETHERNET, SERIAL
     }
 
+    /**
+     * How the link layer waits for incoming bytes
+     * <ul>
+     * <li>POLLING : check available() and sleep between checks, for streams whose read() doesn't block
+     * <li>BLOCKING : block in read() and handle bytes as soon as they arrive
+     * </ul>
+     */
+    public enum RECEIVE {
+        POLLING, BLOCKING
+    }
+
     public DNPConfig(EthernetParameters parameters, int masterAddress, int slaveAddress) {
         this.commType = COMM.ETHERNET;
         this.commConfig = parameters;
+        this.receiveMode = RECEIVE.BLOCKING;
         this.masterAddress = masterAddress;
         // this.slaveAddress = slaveAddress;
         this.setDNPAddressList(new int[] {masterAddress, slaveAddress});
@@ -33,11 +67,25 @@ public class DNPConfig {
     public DNPConfig(SerialPortWrapper serialPort, int masterAddress, int slaveAddress) {
         this.commType = COMM.SERIAL;
         this.commConfig = serialPort;
+        this.receiveMode = RECEIVE.POLLING;
         this.masterAddress = masterAddress;
         // this.slaveAddress = slaveAddress;
         this.setDNPAddressList(new int[] {masterAddress, slaveAddress});
     }
 
+    /**
+     * Session sharing the port of a channel with other sessions, each one polling its own
+     * outstation address
+     */
+    public DNPConfig(DNPChannel channel, int masterAddress, int slaveAddress) {
+        this.commType = channel.getCommType();
+        this.commConfig = channel.getCommConfig();
+        this.receiveMode = channel.getReceiveMode();
+        this.channel = channel;
+        this.masterAddress = masterAddress;
+        this.setDNPAddressList(new int[] {masterAddress, slaveAddress});
+    }
+
     public boolean isREQ_LNK_CONFIRM() {
         return REQ_LNK_CONFIRM;
     }
@@ -62,6 +110,200 @@ public class DNPConfig {
         this.commType = commType;
     }
 
+    public RECEIVE getReceiveMode() {
+        return receiveMode;
+    }
+
+    /**
+     * Serial ports default to POLLING since some wrappers return from read() without data,
+     * use BLOCKING when the port blocks until bytes arrive.
+     */
+    public void setReceiveMode(RECEIVE receiveMode) {
+        this.receiveMode = receiveMode;
+    }
+
+    /**
+     * @return how layer threads wait for frames from each other
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * PARK by default. SPIN and YIELD trade CPU for a lower latency between layers, and should be
+     * kept for a few sessions on dedicated cores.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return the loops running the stack of the session, or null if it runs its own layer threads
+     */
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    /**
+     * Run the application, transport and link layers of the session on one loop of a group,
+     * shared with other sessions, instead of one thread per layer. Frames are still received by
+     * the link thread, the NIO selector or the channel reader.
+     */
+    public void setEventLoopGroup(EventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    /**
+     * @return the factory of the layer threads, or null if layers run as their own threads
+     */
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * Run the layer loops of the session on threads of this factory, for example
+     * {@link br.org.scadabr.dnp34j.master.common.utils.Threads#virtualThreadFactory(String) virtual
+     * threads} on Java 21. Ignored for the layers run by an event loop.
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * @return the file keeping the last value of every point, or null
+     */
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Keep the last value of every point in this file, one per session : the database is filled
+     * from it on init, before the first poll.
+     */
+    public void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * @return the historyDepth
+     */
+    public int getHistoryDepth() {
+        return historyDepth;
+    }
+
+    /**
+     * @param historyDepth
+     *            the number of records kept by each point of the database until read, 1 to keep
+     *            only its latest value
+     */
+    public void setHistoryDepth(int historyDepth) {
+        if ((historyDepth < DataBuffer.MIN_SIZE) || (historyDepth > DataBuffer.MAX_SIZE)) {
+            throw new IllegalArgumentException("Invalid history depth " + historyDepth);
+        }
+        this.historyDepth = historyDepth;
+    }
+
+    /**
+     * @return the listenerExecutor
+     */
+    public Executor getListenerExecutor() {
+        return listenerExecutor;
+    }
+
+    /**
+     * @param listenerExecutor
+     *            the executor calling the point listeners of the session, null for a thread shared
+     *            by every session
+     */
+    public void setListenerExecutor(Executor listenerExecutor) {
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /**
+     * @return the pointVisitor
+     */
+    public PointVisitor getPointVisitor() {
+        return pointVisitor;
+    }
+
+    /**
+     * @param pointVisitor
+     *            the visitor told of every object decoded, null for none
+     */
+    public void setPointVisitor(PointVisitor pointVisitor) {
+        this.pointVisitor = pointVisitor;
+    }
+
+    /**
+     * @return the databaseEnabled
+     */
+    public boolean isDatabaseEnabled() {
+        return databaseEnabled;
+    }
+
+    /**
+     * @param databaseEnabled
+     *            false to leave the database of the session empty, the objects being only told to
+     *            the point visitor
+     */
+    public void setDatabaseEnabled(boolean databaseEnabled) {
+        this.databaseEnabled = databaseEnabled;
+    }
+
+    /**
+     * @return the snapshotFlushPeriod
+     */
+    public long getSnapshotFlushPeriod() {
+        return snapshotFlushPeriod;
+    }
+
+    /**
+     * @param snapshotFlushPeriod
+     *            the time between two writes of the snapshot, in ms
+     */
+    public void setSnapshotFlushPeriod(long snapshotFlushPeriod) {
+        this.snapshotFlushPeriod = snapshotFlushPeriod;
+    }
+
+    /**
+     * @return the shared channel, or null if the session owns its port
+     */
+    public DNPChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return share of the line of a channel given to this session
+     */
+    public int getBusWeight() {
+        return busWeight;
+    }
+
+    /**
+     * A session of weight 2 gets twice as many transactions as a session of weight 1 of the same
+     * priority, when both have requests waiting.
+     */
+    public void setBusWeight(int busWeight) {
+        if (busWeight < 1) {
+            throw new IllegalArgumentException("Bus weight must be at least 1");
+        }
+        this.busWeight = busWeight;
+    }
+
+    /**
+     * @return priority of this session on the line of a channel
+     */
+    public int getBusPriority() {
+        return busPriority;
+    }
+
+    /**
+     * Requests of higher priority sessions are sent before those of lower priority sessions.
+     */
+    public void setBusPriority(int busPriority) {
+        this.busPriority = busPriority;
+    }
+
     public Object getCommConfig() {
         return commConfig;
     }
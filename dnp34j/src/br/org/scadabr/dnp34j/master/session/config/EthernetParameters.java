@@ -1,14 +1,27 @@
 package br.org.scadabr.dnp34j.master.session.config;
 
+import br.org.scadabr.dnp34j.master.layers.physical.SelectorPool;
+
 public class EthernetParameters {
 	private String host;
 	private int port;
+	private SelectorPool selectorPool;
 
 	public EthernetParameters(String host, int port) {
 		this.host = host;
 		this.port = port;
 	}
 
+	/**
+	 * Connection served by a shared selector pool instead of a dedicated
+	 * blocking socket
+	 */
+	public EthernetParameters(String host, int port, SelectorPool selectorPool) {
+		this.host = host;
+		this.port = port;
+		this.selectorPool = selectorPool;
+	}
+
 	public void setHost(String host) {
 		this.host = host;
 	}
@@ -25,4 +38,12 @@ public class EthernetParameters {
 		return port;
 	}
 
+	public void setSelectorPool(SelectorPool selectorPool) {
+		this.selectorPool = selectorPool;
+	}
+
+	public SelectorPool getSelectorPool() {
+		return selectorPool;
+	}
+
 }
@@ -2,14 +2,37 @@ package br.org.scadabr.dnp34j.master.session.database;
 
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring of the last records of a point, not read yet. The ring grows up to its size as records
+ * come, so a point holding only its latest value costs a single slot.
+ *
+ * <p>
+ * The ring is written by a single thread, the application layer, and read by any thread without
+ * locking. Records are numbered : the writer publishes the number of the next record, readers
+ * claim the records they read by moving the number of the oldest one. When the ring is full, the
+ * writer drops the oldest record and counts it in {@link #getOverflowCount()}. Once the ring has
+ * grown to its working size, writing a record allocates nothing.
+ */
 public class DataBuffer {
-    public static final int MAX_SIZE = 512;
+    public static final int MAX_SIZE = 1 << 16;
     public static final int DEFAULT_SIZE = 128;
     public static final int MIN_SIZE = 1;
 
-    private DataElement[] data;
-    private int index;
+    private static final int INITIAL_SIZE = 2;
+
+    private final int size;
+    // length of the ring once grown, the power of 2 holding the size
+    private final int capacity;
+    private volatile DataElement[] data;
+
+    // number of the oldest record not read, and of the next record written
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+
+    private volatile DataElement last;
+    private volatile long overflowCount;
 
     public DataBuffer() {
         this(DEFAULT_SIZE);
@@ -17,69 +40,130 @@ public class DataBuffer {
 
     public DataBuffer(int size) {
         if ((size < MIN_SIZE) || (size > MAX_SIZE)) {
-            throw new IllegalArgumentException();
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        this.size = size;
+        int length = 1;
+        while (length < size) {
+            length <<= 1;
         }
-        index = 0;
-        data = new DataElement[size];
+        capacity = length;
+        data = new DataElement[Math.min(capacity, INITIAL_SIZE)];
     }
 
     public DataElement readLastRecord() {
-        if (index > 0)
-            return data[index - 1];
-        else
-            return data[data.length - 1];
+        return last;
     }
 
+    /**
+     * @return the records not read yet, oldest first
+     */
     public List<DataElement> readAndPop() {
-        List<DataElement> lista = new ArrayList<DataElement>();
-        for (int i = 0; i < index; i++) {
-            lista.add(data[i]);
+        DataElement[] events = new DataElement[getCount()];
+        int count = drainTo(events);
+        List<DataElement> lista = new ArrayList<DataElement>(count);
+        for (int i = 0; i < count; i++) {
+            lista.add(events[i]);
         }
-
-        index = 0;
-
         return lista;
     }
 
+    /**
+     * Move the records not read yet into an array, oldest first. Records that don't fit stay in
+     * the ring.
+     *
+     * @return number of records read
+     */
+    public int drainTo(DataElement[] events) {
+        while (true) {
+            long first = head.get();
+            long next = tail;
+            DataElement[] ring = data;
+
+            int count = (int) Math.min(next - first, events.length);
+            int mask = ring.length - 1;
+            for (int i = 0; i < count; i++) {
+                events[i] = ring[(int) (first + i) & mask];
+            }
+
+            // the writer may have dropped the oldest records meanwhile
+            if (head.compareAndSet(first, first + count)) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Append a record, dropping the oldest one if the ring is full. Called by the writer only.
+     *
+     * @return the slot of the record in the ring
+     */
     public int insert(DataElement element) {
-        data[index] = element;
-        incrementIndex();
-        return (index - 1);
+        DataElement[] ring = data;
+        long next = tail;
+        long first = head.get();
+
+        if (next - first >= size) {
+            // full : drop the oldest record, unless a reader just took it
+            if (head.compareAndSet(first, first + 1)) {
+                overflowCount++;
+            }
+        }
+        else if (next - first >= ring.length) {
+            ring = grow(ring, first, next);
+        }
+
+        int slot = (int) next & (ring.length - 1);
+        ring[slot] = element;
+        last = element;
+        tail = next + 1;
+        return slot;
     }
 
-    public int remove() {
-        decrementIndex();
-        return (index);
+    /**
+     * Double the ring, up to its capacity, keeping the records not read. The new ring is
+     * published before the next record.
+     */
+    private DataElement[] grow(DataElement[] ring, long first, long next) {
+        DataElement[] grown = new DataElement[Math.min(ring.length * 2, capacity)];
+        for (long i = first; i < next; i++) {
+            grown[(int) i & (grown.length - 1)] = ring[(int) i & (ring.length - 1)];
+        }
+        data = grown;
+        return grown;
     }
 
-    private void incrementIndex() {
-        if (data.length - 1 == index)
-            index = 0;
-        else
-            index++;
+    /**
+     * @return the slot of the next record in the ring
+     */
+    public int getIndex() {
+        return (int) tail & (data.length - 1);
     }
 
-    private void decrementIndex() {
-        if (index == 0)
-            index = data.length - 1;
-        else
-            index--;
+    /**
+     * @return number of records not read yet
+     */
+    public int getCount() {
+        long first = head.get();
+        return (int) (tail - first);
     }
 
-    public int getIndex() {
-        return index;
+    /**
+     * @return number of records dropped unread because the ring was full
+     */
+    public long getOverflowCount() {
+        return overflowCount;
     }
 
-    public void setIndex(int index) {
-        this.index = index;
+    /**
+     * @return the largest number of records held
+     */
+    public int getSize() {
+        return size;
     }
 
     public DataElement[] getData() {
         return data;
     }
 
-    public void setData(DataElement[] data) {
-        this.data = data;
-    }
-
 }
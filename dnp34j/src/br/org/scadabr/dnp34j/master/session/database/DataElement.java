@@ -1,8 +1,21 @@
 package br.org.scadabr.dnp34j.master.session.database;
 
 import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
+import br.org.scadabr.dnp34j.master.common.ObjectDescriptor;
 
+/**
+ * A record of a point. Its value is held in primitive fields with a tag of its type, so decoding a
+ * point allocates nothing else ; {@link #getValue()} boxes it only when asked.
+ */
 public class DataElement implements DataMapFeatures {
+    public static final byte VALUE_NONE = 0;
+    public static final byte VALUE_BOOLEAN = 1;
+    public static final byte VALUE_SHORT = 2;
+    public static final byte VALUE_INTEGER = 3;
+    public static final byte VALUE_LONG = 4;
+    public static final byte VALUE_FLOAT = 5;
+    public static final byte VALUE_DOUBLE = 6;
+
     private int index;
     /**
      * This is the generic group like 2x or 3x not the specific group of the data type.  This is internal to DNP34J
@@ -12,9 +25,44 @@ public class DataElement implements DataMapFeatures {
     private byte variation;
     private long timestamp;
     private int quality;
-    private Object value;
+    // raw bits of the value, a float as its int bits
+    private byte valueType = VALUE_NONE;
+    private long valueBits;
     private byte controlStatus;
 
+    public DataElement() {
+    }
+
+    /**
+     * Copy a record
+     */
+    public DataElement(DataElement other) {
+        index = other.index;
+        group = other.group;
+        specificGroup = other.specificGroup;
+        variation = other.variation;
+        timestamp = other.timestamp;
+        quality = other.quality;
+        valueType = other.valueType;
+        valueBits = other.valueBits;
+        controlStatus = other.controlStatus;
+    }
+
+    /**
+     * Reset every field, to decode another record into this one
+     */
+    public void clear() {
+        index = 0;
+        group = 0;
+        specificGroup = 0;
+        variation = 0;
+        timestamp = 0;
+        quality = 0;
+        valueType = VALUE_NONE;
+        valueBits = 0;
+        controlStatus = 0;
+    }
+
     public int getIndex() {
         return index;
     }
@@ -63,12 +111,141 @@ public class DataElement implements DataMapFeatures {
         this.quality = quality;
     }
 
+    /**
+     * @return the value, boxed, or null
+     */
     public Object getValue() {
-        return value;
+        switch (valueType) {
+            case VALUE_BOOLEAN:
+                return Boolean.valueOf(valueBits != 0);
+            case VALUE_SHORT:
+                return Short.valueOf((short) valueBits);
+            case VALUE_INTEGER:
+                return Integer.valueOf((int) valueBits);
+            case VALUE_LONG:
+                return Long.valueOf(valueBits);
+            case VALUE_FLOAT:
+                return Float.valueOf(Float.intBitsToFloat((int) valueBits));
+            case VALUE_DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(valueBits));
+            default:
+                return null;
+        }
     }
 
+    /**
+     * @param value
+     *            a Boolean, Short, Integer, Long, Float or Double, or null
+     */
     public void setValue(Object value) {
-        this.value = value;
+        if (value == null) {
+            valueType = VALUE_NONE;
+            valueBits = 0;
+        } else if (value instanceof Boolean) {
+            setBooleanValue((Boolean) value);
+        } else if (value instanceof Short) {
+            setShortValue((Short) value);
+        } else if (value instanceof Integer) {
+            setIntValue((Integer) value);
+        } else if (value instanceof Long) {
+            setLongValue((Long) value);
+        } else if (value instanceof Float) {
+            setFloatValue((Float) value);
+        } else if (value instanceof Double) {
+            setDoubleValue((Double) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported value " + value.getClass().getName());
+        }
+    }
+
+    public void setBooleanValue(boolean value) {
+        valueType = VALUE_BOOLEAN;
+        valueBits = value ? 1 : 0;
+    }
+
+    public void setShortValue(short value) {
+        valueType = VALUE_SHORT;
+        valueBits = value;
+    }
+
+    public void setIntValue(int value) {
+        valueType = VALUE_INTEGER;
+        valueBits = value;
+    }
+
+    public void setLongValue(long value) {
+        valueType = VALUE_LONG;
+        valueBits = value;
+    }
+
+    public void setFloatValue(float value) {
+        valueType = VALUE_FLOAT;
+        valueBits = Float.floatToRawIntBits(value);
+    }
+
+    public void setDoubleValue(double value) {
+        valueType = VALUE_DOUBLE;
+        valueBits = Double.doubleToRawLongBits(value);
+    }
+
+    /**
+     * @return the type of the value, one of the VALUE_ constants
+     */
+    public byte getValueType() {
+        return valueType;
+    }
+
+    /**
+     * @return true for a boolean value true or a number other than 0
+     */
+    public boolean getBooleanValue() {
+        return (valueType == VALUE_FLOAT || valueType == VALUE_DOUBLE) ? getDoubleValue() != 0 : valueBits != 0;
+    }
+
+    /**
+     * @return the value as a long, 1 or 0 for a boolean, truncated for a float or a double
+     */
+    public long getLongValue() {
+        return (valueType == VALUE_FLOAT || valueType == VALUE_DOUBLE) ? (long) getDoubleValue() : valueBits;
+    }
+
+    /**
+     * @return the value as a double, 1 or 0 for a boolean
+     */
+    public double getDoubleValue() {
+        switch (valueType) {
+            case VALUE_FLOAT:
+                return Float.intBitsToFloat((int) valueBits);
+            case VALUE_DOUBLE:
+                return Double.longBitsToDouble(valueBits);
+            default:
+                return valueBits;
+        }
+    }
+
+    /**
+     * @return the raw bits of the value, the int bits of a float
+     */
+    public long getValueBits() {
+        return valueBits;
+    }
+
+    /**
+     * Set the value from its type and raw bits
+     */
+    public void setValueBits(byte valueType, long valueBits) {
+        if (valueType < VALUE_NONE || valueType > VALUE_DOUBLE) {
+            throw new IllegalArgumentException("Invalid value type " + valueType);
+        }
+        this.valueType = valueType;
+        this.valueBits = valueBits;
+    }
+
+    /**
+     * @return true if the value of another record has the same type and bits
+     */
+    public boolean valueEquals(DataElement other) {
+        return valueType == other.valueType && valueBits == other.valueBits;
     }
 
     public byte getControlStatus() {
@@ -84,204 +261,8 @@ public class DataElement implements DataMapFeatures {
      * @return
      */
     public boolean supportsQuality() {
-        switch(specificGroup) {
-            case BINARY_INPUT_STATIC:
-                //Binary Inputs
-                switch(variation) {
-                    case 2:
-                        return true;
-                    case 1:
-                    default:
-                        return false;
-                }
-            case BINARY_INPUT_EVENT:
-                //Binary input events
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                        return true;
-                    default:
-                        return false;
-                }
-            case BINARY_OUTPUT_STATIC:
-                //Binary outputs
-                switch(variation) {
-                    case 2:
-                        return true;
-                    case 1:
-                    default:
-                        return false;
-                }
-            case BINARY_OUTPUT_EVENT:
-                //Binary output events
-                switch(variation) {
-                    case 1:
-                    case 2:
-                        return true;
-
-                    default:
-                        return false;
-                }
-            case COUNTER_STATIC:
-                //Counters
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                        return true;
-                    case 5:
-                    case 6:
-                    case 7:
-                    case 8:
-                    default:
-                        return false;
-                }
-            case FROZEN_COUNTER:
-                //Frozen Counters
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                    case 5:
-                    case 6:
-                    case 7:
-                    case 8:
-                        return true;
-                    case 9:
-                    case 10:
-                    case 11:
-                    case 12:
-                    default:
-                        return false;
-                }
-            case COUNTER_EVENT:
-                //Counter events
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                    case 5:
-                    case 6:
-                    case 7:
-                    case 8:
-                        return true;
-                    default:
-                        return false;
-                }
-            case FROZEN_COUNTER_EVENT:
-                //Frozen Counter events
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                    case 5:
-                    case 6:
-                    case 7:
-                    case 8:
-                        return true;
-                    default:
-                        return false;
-                }
-            case ANALOG_INPUT_STATIC:
-                //Analog Inputs
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 5:
-                    case 6:
-                        return true;
-                    case 3:
-                    case 4:
-                    default:
-                        return false;
-                }
-            case FROZEN_ANALOG_INPUT:
-                //Frozen analog Inputs
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                    case 7:
-                    case 8:
-                        return true;
-                    case 5:
-                    case 6:
-                    default:
-                        return false;
-                }
-            case ANALOG_INPUT_EVENT:
-                //Analog Input Events
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                    case 5:
-                    case 6:
-                    case 7:
-                    case 8:
-                        return true;
-                    default:
-                        return false;
-                }
-            case FROZEN_ANALOG_INPUT_EVENT:
-                //Frozen Analog Input Events
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                    case 5:
-                    case 6:
-                    case 7:
-                    case 8:
-                        return true;
-                    default:
-                        return false;
-                }
-            case ANALOG_INPUT_REPORTING_DEADBAND:
-                //Analog Input Reporting Deadband
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    default:
-                        return false;
-                }
-            case ANALOG_OUTPUT_STATIC:
-                //Analog output status
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                        return true;
-                    case 4:
-                    default:
-                        return false;
-                }
-            case ANALOG_OUTPUT_EVENTS:
-                //Analog output events
-                switch(variation) {
-                    case 1:
-                    case 2:
-                    case 3:
-                    case 4:
-                    case 5:
-                    case 6:
-                    case 7:
-                    case 8:
-                    default:
-                        return false;
-                }
-            default:
-                return false;
-        }
+        ObjectDescriptor descriptor = ObjectDescriptor.get(specificGroup, variation);
+        return (descriptor != null) && descriptor.hasQuality();
     }
 
     public boolean isUnreliable() {
@@ -420,6 +401,6 @@ public class DataElement implements DataMapFeatures {
     @Override
     public String toString() {
         return "DataElement [index=" + index + ", group=" + group + ", timestamp=" + timestamp + ", quality=" + quality
-                + ", value=" + value + "]";
+                + ", value=" + getValue() + "]";
     }
 }
@@ -1,143 +1,414 @@
 package br.org.scadabr.dnp34j.master.session.database;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 import br.org.scadabr.dnp34j.master.common.DataMapFeatures;
 
+/**
+ * Points of a session, written by its application layer and read by the application from any
+ * thread.
+ *
+ * <p>
+ * The records of a response fragment are written between {@link #beginUpdate()} and
+ * {@link #endUpdate()}. The version of the database is odd while a fragment is written, so
+ * {@link #readLatest(int)} reads the latest values without locking, again if a fragment was
+ * written meanwhile, and {@link #readLastUpdate()} returns the records of the last fragment.
+ *
+ * <p>
+ * The application can also {@link #subscribe(int, int, int, PointListener) subscribe} to the
+ * points it's interested in, and be told of their changes fragment by fragment instead of reading
+ * them.
+ */
 public class Database implements DataMapFeatures {
-	private HashMap<Integer, DataBuffer> binaryInputPoints;
-	private HashMap<Integer, DataBuffer> binaryOutputPoints;
-	private HashMap<Integer, DataBuffer> counterInputPoints;
-	private HashMap<Integer, DataBuffer> analogInputPoints;
-	private HashMap<Integer, DataBuffer> analogOutputPoints;
+	// optimistic reads before waiting for the fragment being written
+	private static final int READ_RETRIES = 16;
+
+	// calls the listeners of every session without an executor of their own
+	private static ExecutorService sharedListenerExecutor;
+
+	private PointTable binaryInputPoints;
+	private PointTable binaryOutputPoints;
+	private PointTable counterInputPoints;
+	private PointTable analogInputPoints;
+	private PointTable analogOutputPoints;
+	private SnapshotStore snapshotStore;
+
+	// seqlock, odd while a fragment is written
+	private volatile long version;
+	private final ReentrantLock updateLock = new ReentrantLock();
+	private List<DataElement> updating;
+	private volatile List<DataElement> lastUpdate = Collections.emptyList();
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private Executor listenerExecutor;
+	// records of the fragment changing their point, while someone listens
+	private List<DataElement> changing;
 
 	public Database() {
-		binaryInputPoints = new HashMap<Integer, DataBuffer>();
-		binaryOutputPoints = new HashMap<Integer, DataBuffer>();
-		counterInputPoints = new HashMap<Integer, DataBuffer>();
-		analogInputPoints = new HashMap<Integer, DataBuffer>();
-		analogOutputPoints = new HashMap<Integer, DataBuffer>();
+		this(DataBuffer.DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param historyDepth
+	 *            number of records kept by each point until read
+	 */
+	public Database(int historyDepth) {
+		binaryInputPoints = new PointTable(historyDepth);
+		binaryOutputPoints = new PointTable(historyDepth);
+		counterInputPoints = new PointTable(historyDepth);
+		analogInputPoints = new PointTable(historyDepth);
+		analogOutputPoints = new PointTable(historyDepth);
 	}
 
 	public List<DataElement> readBinaryInputPoint(int index) {
-		if (binaryInputPoints.get(index) != null)
-			return binaryInputPoints.get(index).readAndPop();
+		DataBuffer buffer = binaryInputPoints.get(index);
+		if (buffer != null)
+			return buffer.readAndPop();
 		else
 			return null;
 	}
 
 	public DataElement readAnalogInputPoint(int index) {
-		if (analogInputPoints.get(index) != null)
-			return analogInputPoints.get(index).readLastRecord();
+		DataBuffer buffer = analogInputPoints.get(index);
+		if (buffer != null)
+			return buffer.readLastRecord();
 		else
 			return null;
 	}
 
 	public void writeRecord(DataElement element) {
-		getDataBuffer(element.getIndex(), element.getGroup()).insert(element);
+		DataBuffer buffer = getDataBuffer(element.getIndex(), element.getGroup());
+		DataElement previous = buffer.readLastRecord();
+		buffer.insert(element);
+		if (updating != null && updateLock.isHeldByCurrentThread()) {
+			updating.add(element);
+			if (changing != null && isChange(previous, element))
+				changing.add(element);
+		}
+		if (snapshotStore != null)
+			snapshotStore.record(element);
+	}
+
+	/**
+	 * Start writing the records of a response fragment
+	 */
+	public void beginUpdate() {
+		updateLock.lock();
+		updating = new ArrayList<DataElement>();
+		changing = subscriptions.isEmpty() ? null : new ArrayList<DataElement>();
+		version++;
+	}
+
+	/**
+	 * Publish the records of a response fragment
+	 */
+	public void endUpdate() {
+		List<DataElement> records = Collections.unmodifiableList(updating);
+		List<DataElement> changes = changing;
+		lastUpdate = records;
+		updating = null;
+		changing = null;
+		version++;
+		updateLock.unlock();
+
+		if (changes != null && !records.isEmpty()) {
+			changes = Collections.unmodifiableList(changes);
+			for (Subscription subscription : subscriptions)
+				subscription.offer(records, changes);
+		}
+	}
+
+	private static boolean isChange(DataElement previous, DataElement element) {
+		return previous == null || previous.getQuality() != element.getQuality()
+				|| !previous.valueEquals(element);
+	}
+
+	/**
+	 * Tell a listener of the changes of a range of points, with the executor of the listeners
+	 * 
+	 * @param group
+	 *            generic group of the points
+	 * @param fromIndex
+	 *            first index
+	 * @param toIndex
+	 *            last index
+	 */
+	public Subscription subscribe(int group, int fromIndex, int toIndex, PointListener listener) {
+		return subscribe(group, fromIndex, toIndex, listener, getListenerExecutor());
+	}
+
+	/**
+	 * Tell a listener of the changes of a range of points
+	 * 
+	 * @param group
+	 *            generic group of the points
+	 * @param fromIndex
+	 *            first index
+	 * @param toIndex
+	 *            last index
+	 * @param executor
+	 *            executor calling the listener
+	 */
+	public Subscription subscribe(int group, final int fromIndex, final int toIndex, PointListener listener,
+			Executor executor) {
+		final PointTable points = getPoints(group);
+		if (points == null)
+			throw new IllegalArgumentException("Invalid group " + group);
+		if (fromIndex > toIndex)
+			throw new IllegalArgumentException("Invalid range " + fromIndex + "-" + toIndex);
+
+		return subscribe(element -> getPoints(element.getGroup()) == points && element.getIndex() >= fromIndex
+				&& element.getIndex() <= toIndex, true, listener, executor);
+	}
+
+	/**
+	 * Tell a listener of the records selected by a filter
+	 * 
+	 * @param filter
+	 *            records to tell, tested on the application layer thread
+	 * @param changesOnly
+	 *            true to tell only the records changing the value or quality of their point,
+	 *            false to tell every record, events repeating a value included
+	 * @param executor
+	 *            executor calling the listener
+	 */
+	public Subscription subscribe(Predicate<DataElement> filter, boolean changesOnly, PointListener listener,
+			Executor executor) {
+		Subscription subscription = new Subscription(this, filter, changesOnly, listener, executor);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Stop telling the listener of a subscription
+	 */
+	public void unsubscribe(Subscription subscription) {
+		subscriptions.remove(subscription);
+	}
+
+	/**
+	 * @return the subscriptions
+	 */
+	public List<Subscription> getSubscriptions() {
+		return Collections.unmodifiableList(subscriptions);
+	}
+
+	/**
+	 * @return the executor calling the listeners, by default a thread shared by every session
+	 */
+	public Executor getListenerExecutor() {
+		if (listenerExecutor != null)
+			return listenerExecutor;
+		return getSharedListenerExecutor();
+	}
+
+	/**
+	 * @param listenerExecutor
+	 *            the executor calling the listeners subscribed without one
+	 */
+	public void setListenerExecutor(Executor listenerExecutor) {
+		this.listenerExecutor = listenerExecutor;
+	}
+
+	private static synchronized ExecutorService getSharedListenerExecutor() {
+		if (sharedListenerExecutor == null) {
+			sharedListenerExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "DNP3 point listener");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return sharedListenerExecutor;
+	}
+
+	/**
+	 * @return the records written by the last response fragment
+	 */
+	public List<DataElement> readLastUpdate() {
+		return lastUpdate;
+	}
+
+	/**
+	 * @return the number of fragments written, twice, plus one while a fragment is written
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Read the latest value of every point of a group, between two fragments. The records read
+	 * stay available to {@link #read(int, int)}.
+	 * 
+	 * @return the latest record of each point by index, empty for an unknown group
+	 */
+	public Map<Integer, DataElement> readLatest(int group) {
+		PointTable points = getPoints(group);
+		if (points == null)
+			return new HashMap<Integer, DataElement>();
+
+		for (int i = 0; i < READ_RETRIES; i++) {
+			long start = version;
+			if ((start & 1) == 0) {
+				Map<Integer, DataElement> latest = readLatest(points);
+				if (version == start)
+					return latest;
+			}
+			Thread.yield();
+		}
+
+		// fragments keep coming : wait for the end of this one
+		updateLock.lock();
+		try {
+			return readLatest(points);
+		} finally {
+			updateLock.unlock();
+		}
+	}
+
+	private Map<Integer, DataElement> readLatest(PointTable points) {
+		Map<Integer, DataElement> latest = new HashMap<Integer, DataElement>();
+		for (Map.Entry<Integer, DataBuffer> point : points.entrySet()) {
+			DataElement element = point.getValue().readLastRecord();
+			if (element != null)
+				latest.put(point.getKey(), element);
+		}
+		return latest;
 	}
 
 	public List<DataElement> read(int index, int group) {
-		switch (group) {
-		case 0x00:
-		case 0x01:
-			if (binaryInputPoints.get(index) == null)
-				binaryInputPoints.put(index, new DataBuffer());
-			return binaryInputPoints.get(index).readAndPop();
-		case 0x10:
-			if (binaryOutputPoints.get(index) == null)
-				binaryOutputPoints.put(index, new DataBuffer());
-			return binaryOutputPoints.get(index).readAndPop();
-		case 0x20:
-			if (counterInputPoints.get(index) == null)
-				counterInputPoints.put(index, new DataBuffer());
-			return counterInputPoints.get(index).readAndPop();
-		case 0x30:
-			if (analogInputPoints.get(index) == null)
-				analogInputPoints.put(index, new DataBuffer());
-			return analogInputPoints.get(index).readAndPop();
-		case 0x40:
-			if (analogOutputPoints.get(index) == null)
-				analogOutputPoints.put(index, new DataBuffer());
-			return analogOutputPoints.get(index).readAndPop();
-		default:
+		PointTable points = getPoints(group);
+		if (points == null)
 			return new ArrayList<DataElement>();
+		return points.getOrCreate(index).readAndPop();
+	}
+
+	/**
+	 * Move the records of a point not read yet into an array, oldest first
+	 * 
+	 * @return number of records read
+	 */
+	public int drain(int index, int group, DataElement[] events) {
+		PointTable points = getPoints(group);
+		if (points == null)
+			return 0;
+		DataBuffer buffer = points.get(index);
+		return (buffer != null) ? buffer.drainTo(events) : 0;
+	}
+
+	/**
+	 * @return number of records of all points dropped unread because their ring was full
+	 */
+	public long getOverflowCount() {
+		long count = 0;
+		for (PointTable points : new PointTable[] { binaryInputPoints, binaryOutputPoints,
+				counterInputPoints, analogInputPoints, analogOutputPoints }) {
+			for (DataBuffer buffer : points.values())
+				count += buffer.getOverflowCount();
 		}
+		return count;
 	}
 
 	private DataBuffer getDataBuffer(int index, int group) {
+		PointTable points = getPoints(group);
+		if (points == null)
+			return new DataBuffer(1);
+		return points.getOrCreate(index);
+	}
+
+	/**
+	 * @return the points of a generic group, or null
+	 */
+	private PointTable getPoints(int group) {
 		switch (group) {
 		case 0x00:
 		case 0x01:
-			if (binaryInputPoints.get(index) == null)
-				binaryInputPoints.put(index, new DataBuffer());
-			return binaryInputPoints.get(index);
+			return binaryInputPoints;
 		case 0x10:
-			if (binaryOutputPoints.get(index) == null)
-				binaryOutputPoints.put(index, new DataBuffer());
-			return binaryOutputPoints.get(index);
+			return binaryOutputPoints;
 		case 0x20:
-			if (counterInputPoints.get(index) == null)
-				counterInputPoints.put(index, new DataBuffer());
-			return counterInputPoints.get(index);
+			return counterInputPoints;
 		case 0x30:
-			if (analogInputPoints.get(index) == null)
-				analogInputPoints.put(index, new DataBuffer());
-			return analogInputPoints.get(index);
+			return analogInputPoints;
 		case 0x40:
-			if (analogOutputPoints.get(index) == null)
-				analogOutputPoints.put(index, new DataBuffer());
-			return analogOutputPoints.get(index);
+			return analogOutputPoints;
 		default:
-			return new DataBuffer();
+			return null;
 		}
 	}
 
-	public HashMap<Integer, DataBuffer> getBinaryInputPoints() {
+	/**
+	 * @return the store keeping the last value of every point, or null
+	 */
+	public SnapshotStore getSnapshotStore() {
+		return snapshotStore;
+	}
+
+	/**
+	 * @param snapshotStore
+	 *            the store to which every update is written
+	 */
+	public void setSnapshotStore(SnapshotStore snapshotStore) {
+		this.snapshotStore = snapshotStore;
+	}
+
+	public PointTable getBinaryInputPoints() {
 		return binaryInputPoints;
 	}
 
-	public void setBinaryInputPoints(
-			HashMap<Integer, DataBuffer> binaryInputPoints) {
-		this.binaryInputPoints = binaryInputPoints;
+	public void setBinaryInputPoints(Map<Integer, DataBuffer> binaryInputPoints) {
+		PointTable points = new PointTable(this.binaryInputPoints.getDepth());
+		points.putAll(binaryInputPoints);
+		this.binaryInputPoints = points;
 	}
 
-	public HashMap<Integer, DataBuffer> getBinaryOutputPoints() {
+	public PointTable getBinaryOutputPoints() {
 		return binaryOutputPoints;
 	}
 
-	public void setBinaryOutputPoints(
-			HashMap<Integer, DataBuffer> binaryOutputPoints) {
-		this.binaryOutputPoints = binaryOutputPoints;
+	public void setBinaryOutputPoints(Map<Integer, DataBuffer> binaryOutputPoints) {
+		PointTable points = new PointTable(this.binaryOutputPoints.getDepth());
+		points.putAll(binaryOutputPoints);
+		this.binaryOutputPoints = points;
 	}
 
-	public HashMap<Integer, DataBuffer> getCounterInputPoints() {
+	public PointTable getCounterInputPoints() {
 		return counterInputPoints;
 	}
 
-	public void setCounterInputPoints(
-			HashMap<Integer, DataBuffer> counterInputPoints) {
-		this.counterInputPoints = counterInputPoints;
+	public void setCounterInputPoints(Map<Integer, DataBuffer> counterInputPoints) {
+		PointTable points = new PointTable(this.counterInputPoints.getDepth());
+		points.putAll(counterInputPoints);
+		this.counterInputPoints = points;
 	}
 
-	public HashMap<Integer, DataBuffer> getAnalogInputPoints() {
+	public PointTable getAnalogInputPoints() {
 		return analogInputPoints;
 	}
 
-	public void setAnalogInputPoints(
-			HashMap<Integer, DataBuffer> analogInputPoints) {
-		this.analogInputPoints = analogInputPoints;
+	public void setAnalogInputPoints(Map<Integer, DataBuffer> analogInputPoints) {
+		PointTable points = new PointTable(this.analogInputPoints.getDepth());
+		points.putAll(analogInputPoints);
+		this.analogInputPoints = points;
 	}
 
-	public HashMap<Integer, DataBuffer> getAnalogOutputPoints() {
+	public PointTable getAnalogOutputPoints() {
 		return analogOutputPoints;
 	}
 
-	public void setAnalogOutputPoints(
-			HashMap<Integer, DataBuffer> analogOutputPoints) {
-		this.analogOutputPoints = analogOutputPoints;
+	public void setAnalogOutputPoints(Map<Integer, DataBuffer> analogOutputPoints) {
+		PointTable points = new PointTable(this.analogOutputPoints.getDepth());
+		points.putAll(analogOutputPoints);
+		this.analogOutputPoints = points;
 	}
 
 }
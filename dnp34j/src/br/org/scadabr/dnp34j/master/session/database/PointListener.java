@@ -0,0 +1,16 @@
+package br.org.scadabr.dnp34j.master.session.database;
+
+import java.util.List;
+
+/**
+ * Told of the points of a {@link Subscription} updated by a response fragment
+ */
+public interface PointListener {
+
+    /**
+     * @param points
+     *            records of the fragment selected by the subscription, in the order of the
+     *            fragment
+     */
+    void pointsChanged(List<DataElement> points);
+}
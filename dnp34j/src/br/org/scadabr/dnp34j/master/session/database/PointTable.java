@@ -0,0 +1,333 @@
+package br.org.scadabr.dnp34j.master.session.database;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * Points of a group, by index, without boxing the index on lookup. Indexes below
+ * {@link #DENSE_LIMIT}, those of a 16 bits range, are held in an array grown to the highest index
+ * seen, with a bitmap of the points present. Other indexes are held in an open addressing table.
+ *
+ * <p>
+ * The table is also a {@link Map}, to be browsed by the application. It iterates over a copy of
+ * the entries, which can't be removed while iterating.
+ *
+ * <p>
+ * Changes are made under the lock of the table. A dense index is looked up without locking, the
+ * array being replaced, not changed, when it grows.
+ */
+public class PointTable extends AbstractMap<Integer, DataBuffer> {
+
+    public static final int DENSE_LIMIT = 1 << 16;
+
+    private static final int INITIAL_DENSE = 16;
+    private static final int INITIAL_SPARSE = 8;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final int depth;
+
+    private volatile AtomicReferenceArray<DataBuffer> dense = new AtomicReferenceArray<DataBuffer>(INITIAL_DENSE);
+    private long[] present = new long[INITIAL_DENSE / 64 + 1];
+
+    // open addressing, linear probing, a null value is a free slot
+    private int[] sparseKeys;
+    private DataBuffer[] sparseValues;
+    private int sparseSize;
+
+    private int size;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    public PointTable() {
+        this(DataBuffer.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param depth
+     *            number of records kept by each point created by {@link #getOrCreate(int)}
+     */
+    public PointTable(int depth) {
+        if ((depth < DataBuffer.MIN_SIZE) || (depth > DataBuffer.MAX_SIZE)) {
+            throw new IllegalArgumentException("Invalid depth " + depth);
+        }
+        this.depth = depth;
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * @return the point of this index, or null
+     */
+    public DataBuffer get(int index) {
+        if (index >= 0 && index < DENSE_LIMIT) {
+            AtomicReferenceArray<DataBuffer> points = dense;
+            return (index < points.length()) ? points.get(index) : null;
+        }
+        return getSparse(index);
+    }
+
+    private synchronized DataBuffer getSparse(int index) {
+        if (sparseValues == null) {
+            return null;
+        }
+        return sparseValues[find(index)];
+    }
+
+    /**
+     * @return the point of this index, created empty if missing
+     */
+    public DataBuffer getOrCreate(int index) {
+        DataBuffer buffer = get(index);
+        if (buffer != null) {
+            return buffer;
+        }
+
+        synchronized (this) {
+            buffer = get(index);
+            if (buffer == null) {
+                buffer = new DataBuffer(depth);
+                put(index, buffer);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * @return the point previously held at this index, or null
+     */
+    public synchronized DataBuffer put(int index, DataBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Null point " + index);
+        }
+
+        if (index >= 0 && index < DENSE_LIMIT) {
+            if (index >= dense.length()) {
+                grow(index);
+            }
+            DataBuffer previous = dense.getAndSet(index, buffer);
+            if (previous == null) {
+                present[index >>> 6] |= 1L << index;
+                size++;
+            }
+            return previous;
+        }
+
+        if (sparseValues == null) {
+            sparseKeys = new int[INITIAL_SPARSE];
+            sparseValues = new DataBuffer[INITIAL_SPARSE];
+        }
+        int slot = find(index);
+        DataBuffer previous = sparseValues[slot];
+        sparseKeys[slot] = index;
+        sparseValues[slot] = buffer;
+        if (previous == null) {
+            size++;
+            // load factor 1/2
+            if (++sparseSize * 2 > sparseValues.length) {
+                rehash(sparseValues.length * 2);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * @return the point removed from this index, or null
+     */
+    public synchronized DataBuffer remove(int index) {
+        if (index >= 0 && index < DENSE_LIMIT) {
+            if (index >= dense.length() || dense.get(index) == null) {
+                return null;
+            }
+            DataBuffer previous = dense.getAndSet(index, null);
+            present[index >>> 6] &= ~(1L << index);
+            size--;
+            return previous;
+        }
+
+        if (sparseValues == null) {
+            return null;
+        }
+        int slot = find(index);
+        DataBuffer previous = sparseValues[slot];
+        if (previous == null) {
+            return null;
+        }
+
+        // shift back the following entries of the probe sequence
+        int mask = sparseValues.length - 1;
+        int free = slot;
+        int next = (free + 1) & mask;
+        while (sparseValues[next] != null) {
+            int home = hash(sparseKeys[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                sparseKeys[free] = sparseKeys[next];
+                sparseValues[free] = sparseValues[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        sparseValues[free] = null;
+
+        sparseSize--;
+        size--;
+        return previous;
+    }
+
+    /**
+     * Replace the dense array by a larger one holding this index
+     */
+    private void grow(int index) {
+        int length = dense.length();
+        while (length <= index) {
+            length <<= 1;
+        }
+        length = Math.min(length, DENSE_LIMIT);
+
+        AtomicReferenceArray<DataBuffer> points = new AtomicReferenceArray<DataBuffer>(length);
+        for (int i = nextDense(0); i >= 0; i = nextDense(i + 1)) {
+            points.set(i, dense.get(i));
+        }
+        present = Arrays.copyOf(present, length / 64 + 1);
+        dense = points;
+    }
+
+    /**
+     * @return the slot of this index, or the free slot where it would be
+     */
+    private int find(int index) {
+        int mask = sparseValues.length - 1;
+        int slot = hash(index) & mask;
+        while (sparseValues[slot] != null && sparseKeys[slot] != index) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int length) {
+        int[] keys = sparseKeys;
+        DataBuffer[] values = sparseValues;
+        sparseKeys = new int[length];
+        sparseValues = new DataBuffer[length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                int slot = find(keys[i]);
+                sparseKeys[slot] = keys[i];
+                sparseValues[slot] = values[i];
+            }
+        }
+    }
+
+    private static int hash(int index) {
+        int h = index * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the next dense index holding a point from this one, or -1
+     */
+    private int nextDense(int from) {
+        int word = from >>> 6;
+        if (word >= present.length) {
+            return -1;
+        }
+        long bits = present[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == present.length) {
+                return -1;
+            }
+            bits = present[word];
+        }
+    }
+
+    @Override
+    public DataBuffer get(Object key) {
+        return (key instanceof Integer) ? get(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public DataBuffer put(Integer key, DataBuffer value) {
+        return put(key.intValue(), value);
+    }
+
+    @Override
+    public DataBuffer remove(Object key) {
+        return (key instanceof Integer) ? remove(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void clear() {
+        dense = new AtomicReferenceArray<DataBuffer>(INITIAL_DENSE);
+        present = new long[INITIAL_DENSE / 64 + 1];
+        sparseKeys = null;
+        sparseValues = null;
+        sparseSize = 0;
+        size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, DataBuffer>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, DataBuffer>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, DataBuffer>> iterator() {
+                return entries().iterator();
+            }
+
+            @Override
+            public int size() {
+                return PointTable.this.size();
+            }
+        };
+    }
+
+    /**
+     * @return the points of the table at this time, dense ones by index, then sparse ones
+     */
+    private synchronized List<Map.Entry<Integer, DataBuffer>> entries() {
+        List<Map.Entry<Integer, DataBuffer>> entries = new ArrayList<Map.Entry<Integer, DataBuffer>>(size);
+        for (int i = nextDense(0); i >= 0; i = nextDense(i + 1)) {
+            entries.add(new SimpleImmutableEntry<Integer, DataBuffer>(i, dense.get(i)));
+        }
+        if (sparseValues != null) {
+            for (int i = 0; i < sparseValues.length; i++) {
+                if (sparseValues[i] != null) {
+                    entries.add(new SimpleImmutableEntry<Integer, DataBuffer>(sparseKeys[i], sparseValues[i]));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+}
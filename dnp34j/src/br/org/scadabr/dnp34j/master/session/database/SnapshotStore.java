@@ -0,0 +1,318 @@
+package br.org.scadabr.dnp34j.master.session.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Keeps the last value, quality and timestamp of every point of a {@link Database} in a local
+ * file, so that the database of a restarted session is filled at once, before its first integrity
+ * poll.
+ *
+ * <p>
+ * The file is an append log of fixed size records. Updates are collected in memory, only the last
+ * one of each point, and appended in a single write every flush period. The log is compacted to
+ * one record per point when it grows over {@link #COMPACT_RATIO} times the number of points. A
+ * record cut by a crash at the end of the log is ignored on load.
+ */
+public class SnapshotStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotStore.class);
+
+    private static final long MAGIC = 0x444e5033534e4150L; // "DNP3SNAP"
+    private static final int HEADER_SIZE = 8;
+
+    // value type, group, specific group, variation, index, timestamp, quality, control status, value
+    static final int RECORD_SIZE = 1 + 1 + 1 + 1 + 4 + 8 + 1 + 1 + 8;
+
+    // log records per point before compaction
+    public static final int COMPACT_RATIO = 4;
+
+    // one thread writes the snapshots of every session
+    private static ScheduledExecutorService writer;
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final File file;
+    private final Object writeLock = new Object();
+    private FileChannel channel;
+    private ScheduledFuture<?> flushTask;
+
+    // last record of every point, and points updated since the last flush
+    private final Map<Long, DataElement> points = new HashMap<Long, DataElement>();
+    private Map<Long, DataElement> dirty = new HashMap<Long, DataElement>();
+    private long logRecords;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    /**
+     * @param file
+     *            snapshot of a session, created if it doesn't exist
+     */
+    public SnapshotStore(File file) {
+        this.file = file;
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Open the log, and write the points it holds into a database
+     *
+     * @param database
+     *            database to fill, before it's attached to this store
+     * @param flushPeriod
+     *            time between two writes of the updates, in ms
+     * @return number of points loaded
+     * @throws IOException
+     */
+    public synchronized int open(Database database, long flushPeriod) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        load();
+        for (DataElement element : points.values()) {
+            database.writeRecord(element);
+        }
+
+        // drop a cut record, and rewrite a log holding many old records
+        if (logRecords > COMPACT_RATIO * (long) points.size()
+                || channel.size() != HEADER_SIZE + logRecords * RECORD_SIZE) {
+            compact();
+        }
+
+        flushTask = getWriter().scheduleWithFixedDelay(this::flushQuietly, flushPeriod, flushPeriod,
+                TimeUnit.MILLISECONDS);
+        return points.size();
+    }
+
+    private static synchronized ScheduledExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "DNP3 snapshot writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    private void load() throws IOException {
+        points.clear();
+        logRecords = 0;
+
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, 1 << 20));
+        channel.position(0);
+        channel.read(buffer);
+        buffer.flip();
+        if (buffer.getLong() != MAGIC) {
+            channel.close();
+            channel = null;
+            throw new IOException(file + " is not a snapshot");
+        }
+
+        long position = HEADER_SIZE;
+        while (true) {
+            if (buffer.remaining() < RECORD_SIZE) {
+                // next chunk, keeping the start of a record
+                buffer.compact();
+                int read = channel.read(buffer, position + buffer.position());
+                buffer.flip();
+                if (read <= 0 || buffer.remaining() < RECORD_SIZE) {
+                    break;
+                }
+            }
+
+            DataElement element = readRecord(buffer);
+            position += RECORD_SIZE;
+            logRecords++;
+            if (element != null) {
+                points.put(key(element), element);
+            }
+        }
+    }
+
+    /**
+     * Remember the update of a point, written on next flush
+     */
+    public synchronized void record(DataElement element) {
+        dirty.put(key(element), element);
+    }
+
+    /**
+     * Append the updates since the last flush
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        // the updates are taken under the write lock, so that close() can't
+        // close the file between taking them and writing them
+        synchronized (writeLock) {
+            List<DataElement> elements;
+            synchronized (this) {
+                if (dirty.isEmpty() || channel == null) {
+                    // closed : the updates stay in memory
+                    return;
+                }
+                elements = new ArrayList<DataElement>(dirty.values());
+                points.putAll(dirty);
+                dirty = new HashMap<Long, DataElement>();
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(elements.size() * RECORD_SIZE);
+            for (DataElement element : elements) {
+                writeRecord(buffer, element);
+            }
+            buffer.flip();
+
+            channel.position(HEADER_SIZE + logRecords * RECORD_SIZE);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            logRecords += elements.size();
+
+            if (logRecords > COMPACT_RATIO * (long) points.size()) {
+                compact();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }
+        catch (IOException e) {
+            LOG.warn("[SnapshotStore] can't write " + file, e);
+        }
+    }
+
+    /**
+     * Rewrite the log with one record per point, replacing the file at once
+     */
+    private void compact() throws IOException {
+        List<DataElement> elements;
+        synchronized (this) {
+            elements = new ArrayList<DataElement>(points.values());
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + elements.size() * RECORD_SIZE);
+            buffer.putLong(MAGIC);
+            for (DataElement element : elements) {
+                writeRecord(buffer, element);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logRecords = elements.size();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[SnapshotStore] " + file + " compacted to " + logRecords + " points");
+        }
+    }
+
+    /**
+     * Write the last updates and close the file, once a flush running on the writer thread is done
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+
+        synchronized (writeLock) {
+            flush();
+            synchronized (this) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of points held
+     */
+    public synchronized int size() {
+        return points.size() + dirty.size();
+    }
+
+    /**
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private static long key(DataElement element) {
+        return ((long) element.getGroup() << 32) | (element.getIndex() & 0xFFFFFFFFL);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, DataElement element) {
+        buffer.put(element.getValueType());
+        buffer.put((byte) element.getGroup());
+        buffer.put(element.getSpecificGroup());
+        buffer.put(element.getVariation());
+        buffer.putInt(element.getIndex());
+        buffer.putLong(element.getTimestamp());
+        buffer.put((byte) element.getQuality());
+        buffer.put(element.getControlStatus());
+        buffer.putLong(element.getValueBits());
+    }
+
+    private static DataElement readRecord(ByteBuffer buffer) {
+        byte type = buffer.get();
+        DataElement element = new DataElement();
+        element.setGroup(buffer.get() & 0xFF);
+        element.setSpecificGroup(buffer.get());
+        element.setVariation(buffer.get());
+        element.setIndex(buffer.getInt());
+        element.setTimestamp(buffer.getLong());
+        element.setQuality(buffer.get());
+        element.setControlStatus(buffer.get());
+        long bits = buffer.getLong();
+
+        if (type < DataElement.VALUE_NONE || type > DataElement.VALUE_DOUBLE) {
+            // unknown record
+            return null;
+        }
+        element.setValueBits(type, bits);
+        return element;
+    }
+}
@@ -0,0 +1,159 @@
+package br.org.scadabr.dnp34j.master.session.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Points of a {@link Database} a {@link PointListener} is told of, made by
+ * {@link Database#subscribe(Predicate, boolean, PointListener, Executor)}.
+ *
+ * <p>
+ * Once a response fragment is written, the records it selects are queued as one batch, and the
+ * listener is called with the batches one at a time, in order, by its executor. The application
+ * layer never waits for a listener : the batches of a slow one queue up, see
+ * {@link #getPendingCount()}.
+ */
+public class Subscription {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Subscription.class);
+
+    // =============================================================================
+    // Attributes
+    // =============================================================================
+    private final Database database;
+    private final Predicate<DataElement> filter;
+    private final boolean changesOnly;
+    private final PointListener listener;
+    private final Executor executor;
+
+    private final ConcurrentLinkedQueue<List<DataElement>> batches = new ConcurrentLinkedQueue<List<DataElement>>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean cancelled = false;
+
+    // =============================================================================
+    // Constructor
+    // =============================================================================
+
+    Subscription(Database database, Predicate<DataElement> filter, boolean changesOnly, PointListener listener,
+            Executor executor) {
+        this.database = database;
+        this.filter = filter;
+        this.changesOnly = changesOnly;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    // =============================================================================
+    // Methods
+    // =============================================================================
+
+    /**
+     * Queue the records of a fragment selected by this subscription
+     *
+     * @param records
+     *            every record of the fragment
+     * @param changes
+     *            records of the fragment changing the value or quality of their point
+     */
+    void offer(List<DataElement> records, List<DataElement> changes) {
+        if (cancelled) {
+            return;
+        }
+
+        List<DataElement> batch = null;
+        for (DataElement element : changesOnly ? changes : records) {
+            if (filter.test(element)) {
+                if (batch == null) {
+                    batch = new ArrayList<DataElement>();
+                }
+                batch.add(element);
+            }
+        }
+        if (batch == null) {
+            return;
+        }
+
+        batches.add(batch);
+        pending.incrementAndGet();
+        schedule();
+    }
+
+    private void schedule() {
+        if (running.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::dispatch);
+            }
+            catch (RuntimeException e) {
+                running.set(false);
+                LOG.warn("[Subscription] listener not called", e);
+            }
+        }
+    }
+
+    /**
+     * Call the listener with the queued batches, then let another task run if batches came
+     * meanwhile
+     */
+    private void dispatch() {
+        List<DataElement> batch;
+        while ((batch = batches.poll()) != null) {
+            pending.decrementAndGet();
+            if (cancelled) {
+                continue;
+            }
+            try {
+                listener.pointsChanged(batch);
+            }
+            catch (Throwable t) {
+                LOG.warn("[Subscription] listener failed", t);
+            }
+        }
+
+        running.set(false);
+        if (!batches.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Stop telling the listener. Batches queued are dropped.
+     */
+    public void cancel() {
+        cancelled = true;
+        database.unsubscribe(this);
+        while (batches.poll() != null) {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return number of batches waiting for the listener
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * @return the listener
+     */
+    public PointListener getListener() {
+        return listener;
+    }
+}
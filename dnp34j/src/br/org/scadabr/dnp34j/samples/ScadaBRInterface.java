@@ -1,9 +1,10 @@
 package br.org.scadabr.dnp34j.samples;
 
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import br.org.scadabr.dnp34j.master.session.DNPUser;
+import br.org.scadabr.dnp34j.master.session.EventPoller;
 import br.org.scadabr.dnp34j.master.session.config.DNPConfig;
 import br.org.scadabr.dnp34j.master.session.config.EthernetParameters;
 import br.org.scadabr.dnp34j.master.session.database.DataBuffer;
@@ -14,6 +15,7 @@ public class ScadaBRInterface {
     private DNPUser user;
     private DNPConfig configuration;
     private int staticPollFrequence = 30;
+    private EventPoller poller;
 
     public void initEthernet(EthernetParameters parameters, int masterAddress, int slaveAddress,
             int staticPollFrequence) throws Exception {
@@ -51,6 +53,16 @@ public class ScadaBRInterface {
         Thread.sleep(100);
     }
 
+    /**
+     * Poll in the background instead of calling doPoll() : events are read when the outstation
+     * reports some, static data every integrityPeriod ms
+     */
+    public void startPolling(long integrityPeriod) {
+        poller = new EventPoller(user);
+        poller.setIntegrityPeriod(integrityPeriod);
+        poller.start();
+    }
+
     private void doStaticPoll() throws Exception {
         user.sendSynch(user.buildReadStaticDataMsg());
     }
@@ -60,26 +72,29 @@ public class ScadaBRInterface {
     }
 
     public void terminate() throws Exception {
+        if (poller != null) {
+            poller.stop();
+        }
         user.stop();
     }
 
-    public HashMap<Integer, DataBuffer> getBinaryInputPoints() {
+    public Map<Integer, DataBuffer> getBinaryInputPoints() {
         return user.getDatabase().getBinaryInputPoints();
     }
 
-    public HashMap<Integer, DataBuffer> getBinaryOutputPoints() {
+    public Map<Integer, DataBuffer> getBinaryOutputPoints() {
         return user.getDatabase().getBinaryOutputPoints();
     }
 
-    public HashMap<Integer, DataBuffer> getCounterInputPoints() {
+    public Map<Integer, DataBuffer> getCounterInputPoints() {
         return user.getDatabase().getCounterInputPoints();
     }
 
-    public HashMap<Integer, DataBuffer> getAnalogInputPoints() {
+    public Map<Integer, DataBuffer> getAnalogInputPoints() {
         return user.getDatabase().getAnalogInputPoints();
     }
 
-    public HashMap<Integer, DataBuffer> getAnalogOutputPoints() {
+    public Map<Integer, DataBuffer> getAnalogOutputPoints() {
         return user.getDatabase().getAnalogOutputPoints();
     }
 